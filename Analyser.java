@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Turns text into index terms in a single pass.
+ *
+ * Each token from the Tokeniser is run through the filters in order, in one reused
+ * TokenBuffer, and handed to a consumer if no filter drops it. No intermediate lists
+ * or Strings are created between stages. An Analyser isn't thread safe, so each thread
+ * needs its own.
+ *
+ * Each term can also be given its position in the text: the number of tokens before it.
+ * Tokens dropped by a filter, such as stopwords, still take up a position, so the gaps
+ * between the terms of a phrase are the same in documents and queries.
+ */
+public class Analyser {
+
+    /**
+     * Receives each term with its position in the text.
+     * The buffer is reused, so it is only valid until accept returns.
+     */
+    public interface PositionConsumer {
+        void accept(char[] buffer, int length, int position);
+    }
+
+    // Properties
+    private final ArrayList<TokenFilter> filters;
+    private final Tokeniser tokeniser;
+    private final TokenBuffer token;
+    private int position;
+
+    public Analyser() {
+        this.filters = new ArrayList<>();
+        this.tokeniser = new Tokeniser();
+        this.token = new TokenBuffer();
+    }
+
+    // Adds a filter to the end of the pipeline
+    public Analyser addFilter(TokenFilter filter) {
+        this.filters.add(filter);
+        return this;
+    }
+
+    // Removes a filter from the pipeline
+    public void removeFilter(TokenFilter filter) {
+        this.filters.remove(filter);
+    }
+
+    // Analyses a string, such as a query
+    public void analyse(CharSequence text, Tokeniser.TokenConsumer consumer) {
+        this.analyse(text, (buffer, length, position) -> consumer.accept(buffer, length));
+    }
+
+    // Analyses a document as it is read
+    public void analyse(Reader reader, Tokeniser.TokenConsumer consumer) throws IOException {
+        this.analyse(reader, (buffer, length, position) -> consumer.accept(buffer, length));
+    }
+
+    // Analyses a string, giving the position of each term
+    public void analyse(CharSequence text, PositionConsumer consumer) {
+        this.position = 0;
+        this.tokeniser.tokenise(text, (buffer, length) -> this.process(buffer, length, consumer));
+    }
+
+    // Analyses a document as it is read, giving the position of each term
+    public void analyse(Reader reader, PositionConsumer consumer) throws IOException {
+        this.position = 0;
+        this.tokeniser.tokenise(reader, (buffer, length) -> this.process(buffer, length, consumer));
+    }
+
+    // Runs a token through each filter
+    // Empty tokens, left when a token is all punctuation, don't take up a position
+    private void process(char[] buffer, int length, PositionConsumer consumer) {
+        int position = this.position;
+        if (length > 0) {
+            this.position++;
+        }
+
+        this.token.set(buffer, length);
+        for (int i = 0; i < this.filters.size(); i++) {
+            if (!this.filters.get(i).process(this.token)) {
+                return;
+            }
+        }
+
+        consumer.accept(this.token.getBuffer(), this.token.length(), position);
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the stopword and localisation dictionaries used by the analysis pipeline.
+ *
+ * Each file is read and compiled into a CharArrayMap once per JVM. Every Indexer,
+ * including those created per query, shares the same immutable tables.
+ */
+public final class AnalysisDictionaries {
+
+    // Localisation file, read from the working directory
+    private static final Path LOCALISATION_PATH = Paths.get("localisation.txt");
+
+    // Compiled dictionaries, by file
+    private static final ConcurrentHashMap<Path, CharArrayMap> STOPWORDS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Path, CharArrayMap> LOCALISATIONS = new ConcurrentHashMap<>();
+
+    private AnalysisDictionaries() {
+
+    }
+
+    // Gets the stopwords in a file, one per line
+    public static CharArrayMap getStopwords(String filepath) throws IOException {
+        try {
+            return STOPWORDS.computeIfAbsent(Paths.get(filepath).toAbsolutePath(), path -> compileStopwords(readLines(path)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Reads the stopwords in a file, one per line, without keeping them
+    // An index's copy of its stopwords can be rewritten, so it's read each time the index is opened
+    public static CharArrayMap readStopwords(Path path) throws IOException {
+        return compileStopwords(Files.readAllLines(path));
+    }
+
+    private static CharArrayMap compileStopwords(List<String> lines) {
+        HashMap<String, String> words = new HashMap<>();
+        for (String word : lines) {
+            words.put(word, null);
+        }
+        return new CharArrayMap(words);
+    }
+
+    // Gets the British to American spellings
+    // The first half of the file has the British spellings, and the second half the American spellings in the same order
+    // Source of spelling differences: http://www.tysto.com/uk-us-spelling-list.html
+    public static CharArrayMap getLocalisation() throws IOException {
+        try {
+            return LOCALISATIONS.computeIfAbsent(LOCALISATION_PATH.toAbsolutePath(), path -> {
+                List<String> lines = readLines(path);
+                List<String> british = lines.subList(0, lines.size() / 2);
+                List<String> american = lines.subList(lines.size() / 2, lines.size());
+
+                HashMap<String, String> spellings = new HashMap<>();
+                for (int i = 0; i < british.size(); i++) {
+                    spellings.put(british.get(i), american.get(i));
+                }
+                return new CharArrayMap(spellings);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static List<String> readLines(Path path) {
+        try {
+            return Files.readAllLines(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs a file of queries against one index on a pool of threads.
+ *
+ * The queries file has one query per line, optionally preceded by an id and a tab. Lines
+ * without an id are numbered from 1, and blank lines are skipped. Results are written in
+ * query order as tab separated lines of query id, rank, document name and score, however
+ * the queries were spread over the threads.
+ *
+ * Queries with AND, OR or NOT are searched as boolean queries, and a query that can't be
+ * parsed fails the batch.
+ *
+ * A batch with feedback takes the top results of each query as relevant, and searches again
+ * with the query moved towards them (pseudo relevance feedback), reporting those results.
+ *
+ * An approximate batch only reads the champion lists. Each query is also searched in full,
+ * outside of the timings, to report how much of the top results the approximate search found.
+ */
+public class BatchSearcher {
+
+    // Properties
+    private final Searcher searcher;
+    private final int threads;
+    private final boolean approximate;
+    private final int feedbackDocuments;
+
+    // Each thread analyses its queries with its own indexer, with the index's stopwords
+    private final ThreadLocal<Indexer> queryIndexers;
+
+    public BatchSearcher(Searcher searcher, int threads, boolean approximate) {
+        this(searcher, threads, approximate, 0);
+    }
+
+    // Creates a batch that treats the given number of top results of each query as relevant, and searches again
+    public BatchSearcher(Searcher searcher, int threads, boolean approximate, int feedbackDocuments) {
+        this.searcher = searcher;
+        this.queryIndexers = ThreadLocal.withInitial(() -> new Indexer(searcher.getIndex().getStopwords()));
+        this.threads = threads;
+        this.approximate = approximate;
+        this.feedbackDocuments = feedbackDocuments;
+    }
+
+    // Reads the queries in a file, as pairs of id and query
+    public static List<String[]> readQueries(Path queriesPath) throws IOException {
+        List<String[]> queries = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(queriesPath, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            int tab = line.indexOf('\t');
+            if (tab >= 0) {
+                queries.add(new String[] {line.substring(0, tab).trim(), line.substring(tab + 1).trim()});
+            } else {
+                queries.add(new String[] {Integer.toString(lineNumber), line.trim()});
+            }
+        }
+
+        return queries;
+    }
+
+    // Searches for every query and writes the top results of each to a file
+    public Report run(List<String[]> queries, int numberOfResults, Path outputPath) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            long start = System.nanoTime();
+
+            List<Future<Result>> futures = new ArrayList<>(queries.size());
+            for (String[] query : queries) {
+                futures.add(executor.submit(() -> this.search(query[1], numberOfResults)));
+            }
+
+            // Write the results in query order as they complete
+            long[] latencies = new long[queries.size()];
+            double overlap = 0.0;
+            try (BufferedWriter out = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < futures.size(); i++) {
+                    Result result = futures.get(i).get();
+                    latencies[i] = result.nanoseconds;
+                    overlap += result.overlap;
+
+                    for (int rank = 0; rank < result.results.size(); rank++) {
+                        out.write(queries.get(i)[0] + "\t" + (rank + 1) + "\t"
+                                + this.searcher.getIndex().getDocumentName(result.results.getDocument(rank)) + "\t"
+                                + result.results.getScore(rank));
+                        out.newLine();
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Could not search for a query.", e.getCause());
+            }
+
+            long elapsed = System.nanoTime() - start;
+            return new Report(latencies, elapsed, this.approximate ? overlap / Math.max(queries.size(), 1) : Double.NaN);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Analyses and searches for one query, timing it
+    // Boolean queries are always searched exactly
+    private Result search(String queryString, int numberOfResults) {
+        long start = System.nanoTime();
+
+        Indexer indexer = this.queryIndexers.get();
+        BooleanQuery booleanQuery = null;
+        SparseVector queryVector;
+        if (BooleanQuery.isBoolean(queryString)) {
+            booleanQuery = BooleanQuery.parse(queryString, indexer);
+            queryVector = this.searcher.createQueryVector(booleanQuery.getTerms(), booleanQuery.getPhrases());
+        } else {
+            queryVector = this.searcher.createQueryVector(indexer.tokeniseQuery(queryString), indexer.findPhrases(queryString));
+        }
+        TopKCollector results = this.rank(booleanQuery, queryVector, numberOfResults, this.approximate);
+
+        // Take the top results as relevant, and search again
+        if (this.feedbackDocuments > 0 && results.size() > 0) {
+            HashSet<Integer> relevant = new HashSet<>();
+            for (int i = 0; i < Math.min(this.feedbackDocuments, results.size()); i++) {
+                relevant.add(results.getDocument(i));
+            }
+            queryVector = this.searcher.performRelevanceFeedback(relevant, Collections.emptySet(), queryVector);
+            results = this.rank(booleanQuery, queryVector, numberOfResults, this.approximate);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Compare with a full search
+        double overlap = 1.0;
+        if (this.approximate && booleanQuery == null) {
+            overlap = computeOverlap(results, this.searcher.search(queryVector, numberOfResults));
+        }
+
+        return new Result(results, elapsed, overlap);
+    }
+
+    // Finds the top results for a query vector, only among the documents matching the boolean query if there is one
+    private TopKCollector rank(BooleanQuery booleanQuery, SparseVector queryVector, int numberOfResults, boolean approximate) {
+        if (booleanQuery != null) {
+            return this.searcher.search(booleanQuery, queryVector, numberOfResults);
+        }
+
+        return approximate
+                ? this.searcher.searchApproximately(queryVector, numberOfResults)
+                : this.searcher.search(queryVector, numberOfResults);
+    }
+
+    // Fraction of the exact top results that are also in the approximate top results, or 1 if there are none
+    private static double computeOverlap(TopKCollector approximate, TopKCollector exact) {
+        if (exact.size() == 0) {
+            return 1.0;
+        }
+
+        HashSet<Integer> documents = new HashSet<>();
+        for (int i = 0; i < approximate.size(); i++) {
+            documents.add(approximate.getDocument(i));
+        }
+
+        int shared = 0;
+        for (int i = 0; i < exact.size(); i++) {
+            if (documents.contains(exact.getDocument(i))) {
+                shared++;
+            }
+        }
+
+        return (double) shared / exact.size();
+    }
+
+    /**
+     * The results of one query, how long it took and how much they overlap the exact results.
+     */
+    private static final class Result {
+
+        private final TopKCollector results;
+        private final long nanoseconds;
+        private final double overlap;
+
+        Result(TopKCollector results, long nanoseconds, double overlap) {
+            this.results = results;
+            this.nanoseconds = nanoseconds;
+            this.overlap = overlap;
+        }
+    }
+
+    /**
+     * Throughput and latency of a batch.
+     */
+    public static final class Report {
+
+        private final long[] latencies;
+        private final long elapsed;
+        private final double overlap;
+
+        Report(long[] latencies, long elapsed, double overlap) {
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.elapsed = elapsed;
+            this.overlap = overlap;
+        }
+
+        public int getNumberOfQueries() {
+            return this.latencies.length;
+        }
+
+        public double getQueriesPerSecond() {
+            return this.latencies.length / (this.elapsed / 1e9);
+        }
+
+        public double getElapsedSeconds() {
+            return this.elapsed / 1e9;
+        }
+
+        // Latency in milliseconds that the given percentage of queries took at most, by the nearest rank
+        public double getLatencyPercentile(double percentile) {
+            if (this.latencies.length == 0) {
+                return 0.0;
+            }
+
+            int rank = (int) Math.ceil(percentile / 100.0 * this.latencies.length);
+            return this.latencies[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        // Mean fraction of the exact top results found by an approximate batch, or NaN if the batch was exact
+        public double getMeanOverlap() {
+            return this.overlap;
+        }
+    }
+}
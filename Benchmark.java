@@ -0,0 +1,301 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Microbenchmarks for the hot paths of indexing and searching, on text from the collection.
+ *
+ * Each benchmark is run for a few warmup iterations, so the JIT compiler has settled, then
+ * for several measured iterations of a fixed time. Throughput is reported as operations per
+ * second, with the spread between iterations, and allocation as bytes allocated per
+ * operation by the benchmark thread. Results can be saved as a baseline, and compared with
+ * a saved baseline to catch regressions.
+ *
+ * The same operations are benchmarked with JMH by the classes in the jmh source set, which
+ * forks a fresh JVM for each benchmark and measures allocation with its gc profiler:
+ * 'gradle jmh' runs them all, with '-PjmhArgs=...' passed on to JMH.
+ */
+public class Benchmark {
+
+    // Iterations and how long each runs for
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_NANOSECONDS = 1_000_000_000L;
+
+    // Size of the excerpts of text tokenised in one operation
+    private static final int EXCERPT_LENGTH = 16 * 1024;
+
+    // Number of words and queries drawn from the collection
+    private static final int NUMBER_OF_WORDS = 4096;
+    private static final int NUMBER_OF_QUERIES = 256;
+
+    // Change from the baseline counted as a regression
+    private static final double REGRESSION_THRESHOLD = 0.10;
+
+    // Results are added here so the JIT compiler can't remove the benchmarked code
+    private static volatile long sink;
+
+    // Properties
+    private final Path collection;
+    private final String stopwordsPath;
+    private final IndexReader index;
+    private final com.sun.management.ThreadMXBean threads;
+
+    public Benchmark(Path collection, String stopwordsPath, IndexReader index) {
+        this.collection = collection;
+        this.stopwordsPath = stopwordsPath;
+        this.index = index;
+
+        // Allocations can only be measured on JVMs that count them per thread
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            this.threads = (com.sun.management.ThreadMXBean) threads;
+            this.threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            this.threads = null;
+        }
+    }
+
+    // Creates the operations benchmarked for the collection and index in the given paths, by name
+    // This is how the JMH benchmarks, which can't see classes outside a package, get their operations
+    public static Map<String, LongSupplier> createOperations(String collectionPath, String indexPath, String stopwordsPath) throws IOException {
+        return new Benchmark(Paths.get(collectionPath), stopwordsPath, IndexReader.open(Paths.get(indexPath))).createOperations();
+    }
+
+    // Runs every benchmark, printing each result as it finishes
+    public List<Result> run() throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, LongSupplier> operation : this.createOperations().entrySet()) {
+            results.add(this.measure(operation.getKey(), operation.getValue()));
+        }
+
+        return results;
+    }
+
+    // Creates the operations to benchmark, in the order they are run, each returning a value derived from its result
+    public Map<String, LongSupplier> createOperations() throws IOException {
+        List<Path> documents = Files.walk(this.collection).filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        Random random = new Random(42);
+
+        // Excerpts of the documents' text
+        List<String> excerpts = new ArrayList<>();
+        for (Path document : documents) {
+            String text = new String(Files.readAllBytes(document), StandardCharsets.UTF_8);
+            for (int start = 0; start + EXCERPT_LENGTH <= text.length(); start += 8 * EXCERPT_LENGTH) {
+                excerpts.add(text.substring(start, start + EXCERPT_LENGTH));
+            }
+        }
+        if (excerpts.isEmpty()) {
+            throw new IOException("The collection has no documents long enough to benchmark.");
+        }
+
+        // Words as they reach the stemmer, drawn from the excerpts
+        Indexer indexer = new Indexer(this.stopwordsPath);
+        Analyser unstemmed = new Analyser()
+                .addFilter(TokenFilters.localise(AnalysisDictionaries.getLocalisation()))
+                .addFilter(TokenFilters.lowerCase())
+                .addFilter(TokenFilters.removeCommas())
+                .addFilter(TokenFilters.removeStopwords(indexer.getStopwords()))
+                .addFilter(TokenFilters.removeEmptyTokens());
+        List<char[]> words = new ArrayList<>();
+        while (words.size() < NUMBER_OF_WORDS) {
+            unstemmed.analyse(excerpts.get(random.nextInt(excerpts.size())), (buffer, length) -> {
+                if (words.size() < NUMBER_OF_WORDS && random.nextInt(16) == 0) {
+                    words.add(Arrays.copyOf(buffer, length));
+                }
+            });
+        }
+
+        // Queries of two or three of the words, so common words turn up as often as they do in text
+        List<String> queries = new ArrayList<>();
+        while (queries.size() < NUMBER_OF_QUERIES) {
+            int length = 2 + random.nextInt(2);
+            StringBuilder query = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                query.append(words.get(random.nextInt(words.size()))).append(' ');
+            }
+            queries.add(query.toString().trim());
+        }
+        Searcher searcher = new Searcher(this.index);
+        List<SparseVector> queryVectors = new ArrayList<>();
+        for (String query : queries) {
+            queryVectors.add(searcher.createQueryVector(indexer.tokeniseQuery(query)));
+        }
+
+        // The smallest document, indexed whole
+        Path document = Collections.min(documents, Comparator.comparingLong(path -> path.toFile().length()));
+
+        Map<String, LongSupplier> operations = new LinkedHashMap<>();
+        int[] next = new int[1];
+
+        Tokeniser tokeniser = new Tokeniser();
+        operations.put("tokenise", () -> {
+            long[] tokens = new long[1];
+            tokeniser.tokenise(excerpts.get(next[0]++ % excerpts.size()), (buffer, length) -> tokens[0] += length);
+            return tokens[0];
+        });
+
+        Analyser analyser = indexer.getAnalyser();
+        operations.put("analyse", () -> {
+            long[] tokens = new long[1];
+            analyser.analyse(excerpts.get(next[0]++ % excerpts.size()), (buffer, length) -> tokens[0] += length);
+            return tokens[0];
+        });
+
+        Stemmer stemmer = new Stemmer();
+        operations.put("stem", () -> {
+            char[] word = words.get(next[0]++ % words.size());
+            stemmer.add(word, word.length);
+            stemmer.stem();
+            return stemmer.getResultLength();
+        });
+
+        // The partial indexer is cleared rather than created each time, so its off-heap memory is reused
+        String documentName = Indexer.getDocumentName(document);
+        Indexer partial = indexer.createPartialIndexer();
+        operations.put("indexDocument", () -> {
+            partial.clearIndex();
+            partial.indexDocument(documentName, document);
+            return partial.getNumberOfTerms();
+        });
+
+        operations.put("createQueryVector", () -> {
+            ArrayList<String> tokens = indexer.tokeniseQuery(queries.get(next[0]++ % queries.size()));
+            return searcher.createQueryVector(tokens).size();
+        });
+
+        operations.put("computeCosineSimilarities", () -> {
+            return searcher.computeCosineSimilarities(queryVectors.get(next[0]++ % queryVectors.size())).size();
+        });
+
+        operations.put("search", () -> {
+            return searcher.search(queryVectors.get(next[0]++ % queryVectors.size()), 10).size();
+        });
+
+        operations.put("searchExhaustively", () -> {
+            return searcher.searchExhaustively(queryVectors.get(next[0]++ % queryVectors.size()), 10).size();
+        });
+
+        return operations;
+    }
+
+    // Runs one benchmark
+    private Result measure(String name, LongSupplier operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            this.iterate(operation);
+        }
+
+        double[] operationsPerSecond = new double[MEASURED_ITERATIONS];
+        long operations = 0;
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long allocatedBefore = this.getAllocatedBytes();
+            long start = System.nanoTime();
+            long iterationOperations = this.iterate(operation);
+            long elapsed = System.nanoTime() - start;
+
+            operationsPerSecond[i] = iterationOperations / (elapsed / 1e9);
+            operations += iterationOperations;
+            allocated += this.getAllocatedBytes() - allocatedBefore;
+        }
+
+        double mean = Arrays.stream(operationsPerSecond).average().orElse(0.0);
+        double variance = Arrays.stream(operationsPerSecond).map(x -> (x - mean) * (x - mean)).sum() / Math.max(MEASURED_ITERATIONS - 1, 1);
+        double bytesPerOperation = this.threads == null ? Double.NaN : (double) allocated / operations;
+
+        Result result = new Result(name, mean, Math.sqrt(variance), bytesPerOperation);
+        System.out.println(result);
+        return result;
+    }
+
+    // Calls an operation until an iteration's time is up, returning the number of operations
+    private long iterate(LongSupplier operation) {
+        long end = System.nanoTime() + ITERATION_NANOSECONDS;
+        long calls = 0;
+        long sum = 0;
+        do {
+            sum += operation.getAsLong();
+            calls++;
+        } while (System.nanoTime() < end);
+        sink += sum;
+
+        return calls;
+    }
+
+    private long getAllocatedBytes() {
+        return this.threads == null ? 0 : this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Saves results as a baseline, one benchmark per line
+    public static void save(List<Result> results, Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Result result : results) {
+                out.write(result.name + "\t" + result.operationsPerSecond + "\t" + result.bytesPerOperation);
+                out.newLine();
+            }
+        }
+    }
+
+    // Compares results with a saved baseline, printing the change in each, and returns whether any regressed
+    // A benchmark regresses if its throughput drops, or its allocation grows, by more than the threshold
+    public static boolean compare(List<Result> results, Path baselinePath) throws IOException {
+        HashMap<String, double[]> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(baselinePath, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length == 3) {
+                baseline.put(fields[0], new double[] {Double.parseDouble(fields[1]), Double.parseDouble(fields[2])});
+            }
+        }
+
+        boolean regressed = false;
+        for (Result result : results) {
+            double[] base = baseline.get(result.name);
+            if (base == null) {
+                System.out.println(String.format("%-26s not in the baseline", result.name));
+                continue;
+            }
+
+            double throughputChange = result.operationsPerSecond / base[0] - 1;
+            double allocationChange = base[1] > 0 ? result.bytesPerOperation / base[1] - 1 : 0.0;
+            boolean slower = throughputChange < -REGRESSION_THRESHOLD;
+            boolean heavier = allocationChange > REGRESSION_THRESHOLD && result.bytesPerOperation - base[1] > 64;
+            regressed |= slower || heavier;
+
+            System.out.println(String.format("%-26s %+7.1f%% ops/s  %+7.1f%% bytes/op%s", result.name,
+                    throughputChange * 100, allocationChange * 100, slower || heavier ? "  REGRESSION" : ""));
+        }
+
+        return regressed;
+    }
+
+    /**
+     * The result of one benchmark.
+     */
+    public static final class Result {
+
+        private final String name;
+        private final double operationsPerSecond;
+        private final double error;
+        private final double bytesPerOperation;
+
+        Result(String name, double operationsPerSecond, double error, double bytesPerOperation) {
+            this.name = name;
+            this.operationsPerSecond = operationsPerSecond;
+            this.error = error;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-26s %14.1f +/- %10.1f ops/s %14.1f bytes/op", this.name, this.operationsPerSecond, this.error, this.bytesPerOperation);
+        }
+    }
+}
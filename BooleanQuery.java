@@ -0,0 +1,624 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query with AND, OR and NOT operators, such as 'architecture AND (gothic OR venetian) NOT ruskin'.
+ *
+ * Operators are only recognised in capitals. Words next to each other, and bracketed parts
+ * next to each other, must all be in a document, as if there was an AND between them. Each
+ * run of words is analysed like any other query, phrases included, so stopwords are left out
+ * and a quoted or capitalised phrase must be found as a phrase. NOT leaves out the documents
+ * matching what follows it, so it needs something to leave them out of.
+ *
+ * Documents are found with the postings of the query terms. Conjunctions are evaluated by
+ * intersecting postings rarest first: the rarest list is read in order, and every other list
+ * only advances to the documents the lists before it have in common, jumping over the rest
+ * with its skips. An AND query so costs about as much as reading its rarest term's postings.
+ *
+ * Every part of a query finds its documents one at a time, as they are asked for, and can be
+ * advanced to a document like any postings. An OR advances each of its operands, and an AND
+ * inside it only looks for documents from there on, so nothing is worked out in full and then
+ * mostly passed over.
+ *
+ * Only the documents matching the query are then ranked, by the cosine similarity of their
+ * vectors to the words that aren't negated.
+ */
+public class BooleanQuery {
+
+    // Document of a list that has run out
+    private static final int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+
+    // Brackets, quoted phrases with their slop, and words
+    private static final Pattern LEXEME_PATTERN = Pattern.compile("\\(|\\)|(?<![^\\s(])'[^']+'(?:~\\d{1,4})?(?![^\\s()])|[^\\s()]+");
+
+    // Operators
+    private static final String AND = "AND";
+    private static final String OR = "OR";
+    private static final String NOT = "NOT";
+
+    // Properties
+    private final Node root;
+    private final ArrayList<String> terms;
+    private final ArrayList<Phrase> phrases;
+
+    private BooleanQuery(Node root, ArrayList<String> terms, ArrayList<Phrase> phrases) {
+        this.root = root;
+        this.terms = terms;
+        this.phrases = phrases;
+    }
+
+    // Whether a query uses any operators, so should be searched as a boolean query
+    public static boolean isBoolean(String query) {
+        for (String lexeme : split(query)) {
+            if (isOperator(lexeme)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Parses a query, analysing its words with an indexer
+    // Throws an IllegalArgumentException describing what is wrong with a query that can't be parsed
+    public static BooleanQuery parse(String query, Indexer indexer) {
+        Parser parser = new Parser(split(query), indexer);
+        Node root = parser.parseOr(false);
+        if (parser.position < parser.lexemes.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.lexemes.get(parser.position) + "' in the query.");
+        }
+
+        return new BooleanQuery(root, parser.terms, parser.phrases);
+    }
+
+    // Splits a query into brackets, quoted phrases and words
+    private static List<String> split(String query) {
+        ArrayList<String> lexemes = new ArrayList<>();
+        Matcher matcher = LEXEME_PATTERN.matcher(query);
+        while (matcher.find()) {
+            lexemes.add(matcher.group());
+        }
+
+        return lexemes;
+    }
+
+    private static boolean isOperator(String lexeme) {
+        return lexeme.equals(AND) || lexeme.equals(OR) || lexeme.equals(NOT);
+    }
+
+    // Finds every document matching the query, in ascending order
+    public PostingsIterator match(IndexReader index) {
+        if (this.root == null) {
+            return new PostingsList().iterator();
+        }
+
+        return this.root.match(index);
+    }
+
+    // The query with its terms analysed and its operators made explicit, the same for queries that mean the same
+    @Override
+    public String toString() {
+        if (this.root == null) {
+            return "()";
+        }
+
+        StringBuilder query = new StringBuilder();
+        this.root.appendTo(query);
+        return query.toString();
+    }
+
+    /**
+     * Accessors
+     */
+
+    // The terms that aren't negated, to rank the matching documents with
+    public ArrayList<String> getTerms() {
+        return this.terms;
+    }
+
+    // The phrases that aren't negated, to rank the matching documents with
+    public ArrayList<Phrase> getPhrases() {
+        return this.phrases;
+    }
+
+    /**
+     * Parses a query by recursive descent, with AND binding tighter than OR:
+     *
+     *   or      := and (OR and)*
+     *   and     := operand ([AND] operand)*
+     *   operand := NOT* (words | '(' or ')')
+     */
+    private static final class Parser {
+
+        private final List<String> lexemes;
+        private final Indexer indexer;
+        private final ArrayList<String> terms;
+        private final ArrayList<Phrase> phrases;
+        private int position;
+
+        Parser(List<String> lexemes, Indexer indexer) {
+            this.lexemes = lexemes;
+            this.indexer = indexer;
+            this.terms = new ArrayList<>();
+            this.phrases = new ArrayList<>();
+        }
+
+        // Parses operands separated by OR, returning null if none of them have any terms
+        Node parseOr(boolean negated) {
+            ArrayList<Node> operands = new ArrayList<>();
+            this.add(operands, this.parseAnd(negated));
+            while (OR.equals(this.peek())) {
+                this.position++;
+                this.add(operands, this.parseAnd(negated));
+            }
+
+            if (operands.size() < 2) {
+                return operands.isEmpty() ? null : operands.get(0);
+            }
+            return new Or(operands.toArray(new Node[0]));
+        }
+
+        // Parses operands that must all match, some of them negated, returning null if none of them have any terms
+        Node parseAnd(boolean negated) {
+            ArrayList<Node> included = new ArrayList<>();
+            ArrayList<Node> excluded = new ArrayList<>();
+            boolean hasExcluded = false;
+            do {
+                if (AND.equals(this.peek())) {
+                    this.position++;
+                }
+
+                boolean not = false;
+                while (NOT.equals(this.peek())) {
+                    this.position++;
+                    not = !not;
+                }
+
+                if (not) {
+                    this.add(excluded, this.parseOperand(!negated));
+                    hasExcluded = true;
+                } else {
+                    this.add(included, this.parseOperand(negated));
+                }
+            } while (this.peek() != null && !this.peek().equals(OR) && !this.peek().equals(")"));
+
+            if (hasExcluded && included.isEmpty()) {
+                throw new IllegalArgumentException("NOT needs other words to leave documents out of, like 'africa NOT south'.");
+            }
+            if (included.size() == 1 && excluded.isEmpty()) {
+                return included.get(0);
+            }
+            return included.isEmpty() ? null : new And(included.toArray(new Node[0]), excluded.toArray(new Node[0]));
+        }
+
+        // Parses a bracketed query or a run of words, returning null if it doesn't have any terms
+        Node parseOperand(boolean negated) {
+            String next = this.peek();
+            if (next == null || next.equals(")") || isOperator(next)) {
+                throw new IllegalArgumentException(next == null
+                        ? "Expected words at the end of the query."
+                        : "Expected words before '" + next + "' in the query.");
+            }
+
+            if (next.equals("(")) {
+                this.position++;
+                Node node = this.parseOr(negated);
+                if (!")".equals(this.peek())) {
+                    throw new IllegalArgumentException("Missing ')' in the query.");
+                }
+                this.position++;
+                return node;
+            }
+
+            StringBuilder words = new StringBuilder();
+            while (this.peek() != null && !this.peek().equals("(") && !this.peek().equals(")") && !isOperator(this.peek())) {
+                words.append(this.lexemes.get(this.position++)).append(' ');
+            }
+
+            return this.analyse(words.toString(), negated);
+        }
+
+        // Analyses a run of words into a conjunction of their terms and phrases
+        private Node analyse(String words, boolean negated) {
+            ArrayList<String> tokens = this.indexer.tokeniseQuery(words);
+            ArrayList<Phrase> phrases = this.indexer.findPhrases(words);
+            if (!negated) {
+                this.terms.addAll(tokens);
+                this.phrases.addAll(phrases);
+            }
+
+            ArrayList<Node> operands = new ArrayList<>();
+            for (String token : new LinkedHashSet<>(tokens)) {
+                operands.add(new Term(token));
+            }
+            for (Phrase phrase : phrases) {
+                operands.add(new PhraseNode(phrase));
+            }
+
+            if (operands.size() < 2) {
+                return operands.isEmpty() ? null : operands.get(0);
+            }
+            return new And(operands.toArray(new Node[0]), new Node[0]);
+        }
+
+        private void add(List<Node> operands, Node operand) {
+            if (operand != null) {
+                operands.add(operand);
+            }
+        }
+
+        private String peek() {
+            return this.position < this.lexemes.size() ? this.lexemes.get(this.position) : null;
+        }
+    }
+
+    /**
+     * A part of a query, which finds the documents it matches.
+     */
+    private abstract static class Node {
+
+        // Roughly how many documents the node matches, at most
+        abstract long estimate(IndexReader index);
+
+        // Finds the documents the node matches, in ascending order, as they are read
+        abstract PostingsIterator match(IndexReader index);
+
+        abstract void appendTo(StringBuilder query);
+    }
+
+    /**
+     * A term, matching the documents in its postings.
+     */
+    private static final class Term extends Node {
+
+        private final String term;
+
+        Term(String term) {
+            this.term = term;
+        }
+
+        @Override
+        long estimate(IndexReader index) {
+            int ordinal = index.findTerm(this.term);
+            return ordinal < 0 ? 0 : index.getDocumentFrequency(ordinal);
+        }
+
+        @Override
+        PostingsIterator match(IndexReader index) {
+            int ordinal = index.findTerm(this.term);
+            return ordinal < 0 ? new PostingsList().iterator() : index.getPostings(ordinal);
+        }
+
+        @Override
+        void appendTo(StringBuilder query) {
+            query.append(this.term);
+        }
+    }
+
+    /**
+     * A phrase, matching the documents it is found in.
+     */
+    private static final class PhraseNode extends Node {
+
+        private final Phrase phrase;
+
+        PhraseNode(Phrase phrase) {
+            this.phrase = phrase;
+        }
+
+        // A phrase is in at most as many documents as its rarest term, and in none if a term isn't in the index
+        @Override
+        long estimate(IndexReader index) {
+            long estimate = Long.MAX_VALUE;
+            for (int i = 0; i < this.phrase.size(); i++) {
+                int ordinal = index.findTerm(this.phrase.getTerm(i));
+                if (ordinal < 0) {
+                    return 0;
+                }
+                estimate = Math.min(estimate, index.getDocumentFrequency(ordinal));
+            }
+
+            return estimate == Long.MAX_VALUE ? 0 : estimate;
+        }
+
+        @Override
+        PostingsIterator match(IndexReader index) {
+            return this.phrase.iterator(index);
+        }
+
+        @Override
+        void appendTo(StringBuilder query) {
+            query.append(this.phrase);
+        }
+    }
+
+    /**
+     * Operands that must all match, less the documents matching any excluded operand.
+     */
+    private static final class And extends Node {
+
+        private final Node[] included;
+        private final Node[] excluded;
+
+        And(Node[] included, Node[] excluded) {
+            this.included = included;
+            this.excluded = excluded;
+        }
+
+        @Override
+        long estimate(IndexReader index) {
+            long estimate = Long.MAX_VALUE;
+            for (Node operand : this.included) {
+                estimate = Math.min(estimate, operand.estimate(index));
+            }
+
+            return estimate;
+        }
+
+        // Intersects the operands rarest first, leaving out the documents of the excluded operands
+        @Override
+        PostingsIterator match(IndexReader index) {
+            long[] estimates = new long[this.included.length];
+            Integer[] order = new Integer[this.included.length];
+            for (int i = 0; i < order.length; i++) {
+                estimates[i] = this.included[i].estimate(index);
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> estimates[i]));
+
+            // An operand without any documents matches nothing, so the others aren't read at all
+            PostingsIterator[] postings = new PostingsIterator[order.length];
+            for (int i = 0; i < order.length; i++) {
+                if (estimates[order[i]] == 0) {
+                    return new PostingsList().iterator();
+                }
+                postings[i] = this.included[order[i]].match(index);
+                if (!postings[i].next()) {
+                    return new PostingsList().iterator();
+                }
+            }
+
+            PostingsIterator[] exclusions = new PostingsIterator[this.excluded.length];
+            int[] excludedDocuments = new int[this.excluded.length];
+            for (int i = 0; i < exclusions.length; i++) {
+                exclusions[i] = this.excluded[i].match(index);
+                excludedDocuments[i] = exclusions[i].next() ? exclusions[i].getDocumentId() : NO_MORE_DOCUMENTS;
+            }
+
+            return new AndIterator(postings, exclusions, excludedDocuments);
+        }
+
+        @Override
+        void appendTo(StringBuilder query) {
+            query.append('(');
+            for (int i = 0; i < this.included.length; i++) {
+                if (i > 0) {
+                    query.append(" AND ");
+                }
+                this.included[i].appendTo(query);
+            }
+            for (Node operand : this.excluded) {
+                query.append(" NOT ");
+                operand.appendTo(query);
+            }
+            query.append(')');
+        }
+    }
+
+    /**
+     * Operands of which any must match.
+     */
+    private static final class Or extends Node {
+
+        private final Node[] operands;
+
+        Or(Node[] operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        long estimate(IndexReader index) {
+            long estimate = 0;
+            for (Node operand : this.operands) {
+                estimate += operand.estimate(index);
+            }
+
+            return estimate;
+        }
+
+        // Merges the documents of the operands
+        @Override
+        PostingsIterator match(IndexReader index) {
+            PostingsIterator[] postings = new PostingsIterator[this.operands.length];
+            for (int i = 0; i < postings.length; i++) {
+                postings[i] = this.operands[i].match(index);
+            }
+
+            return new OrIterator(postings);
+        }
+
+        @Override
+        void appendTo(StringBuilder query) {
+            query.append('(');
+            for (int i = 0; i < this.operands.length; i++) {
+                if (i > 0) {
+                    query.append(" OR ");
+                }
+                this.operands[i].appendTo(query);
+            }
+            query.append(')');
+        }
+    }
+
+    /**
+     * The documents all of an AND's operands match, found by moving every operand's postings up
+     * to the highest document any of them is on, until they're all on the same one. Each
+     * matching document has a tf of 1.
+     */
+    private static final class AndIterator extends PostingsIterator {
+
+        private final PostingsIterator[] postings;
+        private final PostingsIterator[] exclusions;
+        private final int[] excludedDocuments;
+        private boolean started;
+        private boolean exhausted;
+        private int document;
+
+        // The operands' postings must each be on their first document, rarest first
+        AndIterator(PostingsIterator[] postings, PostingsIterator[] exclusions, int[] excludedDocuments) {
+            this.postings = postings;
+            this.exclusions = exclusions;
+            this.excludedDocuments = excludedDocuments;
+            this.document = -1;
+        }
+
+        @Override
+        public boolean next() {
+            if (this.exhausted) {
+                return false;
+            }
+            if (!this.started) {
+                this.started = true;
+            } else if (!this.postings[0].next()) {
+                return this.exhaust();
+            }
+
+            return this.find(this.postings[0].getDocumentId());
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (this.exhausted) {
+                return false;
+            }
+            if (this.document >= target) {
+                return true;
+            }
+            if (!this.postings[0].advance(target)) {
+                return this.exhaust();
+            }
+
+            return this.find(this.postings[0].getDocumentId());
+        }
+
+        // Finds the first document every operand matches and no excluded operand does, from the given document on
+        private boolean find(int document) {
+            search:
+            while (true) {
+                for (int i = 0; i < this.postings.length; i++) {
+                    if (this.postings[i].getDocumentId() < document && !this.postings[i].advance(document)) {
+                        return this.exhaust();
+                    }
+                    if (this.postings[i].getDocumentId() > document) {
+                        document = this.postings[i].getDocumentId();
+                        continue search;
+                    }
+                }
+
+                if (!this.isExcluded(document)) {
+                    this.document = document;
+                    return true;
+                }
+
+                if (!this.postings[0].next()) {
+                    return this.exhaust();
+                }
+                document = this.postings[0].getDocumentId();
+            }
+        }
+
+        // Whether any excluded operand matches a document, moving their lists up to it
+        private boolean isExcluded(int document) {
+            boolean excluded = false;
+            for (int i = 0; i < this.exclusions.length; i++) {
+                if (this.excludedDocuments[i] < document) {
+                    this.excludedDocuments[i] = this.exclusions[i].advance(document) ? this.exclusions[i].getDocumentId() : NO_MORE_DOCUMENTS;
+                }
+                excluded |= this.excludedDocuments[i] == document;
+            }
+
+            return excluded;
+        }
+
+        private boolean exhaust() {
+            this.exhausted = true;
+            this.document = NO_MORE_DOCUMENTS;
+            return false;
+        }
+
+        @Override
+        public int getDocumentId() {
+            return this.document;
+        }
+
+        @Override
+        public int getFrequency() {
+            return 1;
+        }
+    }
+
+    /**
+     * The documents any of an OR's operands match, found by keeping each operand's postings on
+     * its next document and taking the lowest. Each matching document has a tf of 1.
+     */
+    private static final class OrIterator extends PostingsIterator {
+
+        private final PostingsIterator[] postings;
+        private final int[] documents;
+        private boolean started;
+        private int document;
+
+        OrIterator(PostingsIterator[] postings) {
+            this.postings = postings;
+            this.documents = new int[postings.length];
+            this.document = -1;
+        }
+
+        @Override
+        public boolean next() {
+            for (int i = 0; i < this.postings.length; i++) {
+                if (!this.started || this.documents[i] == this.document) {
+                    this.documents[i] = this.postings[i].next() ? this.postings[i].getDocumentId() : NO_MORE_DOCUMENTS;
+                }
+            }
+            this.started = true;
+
+            return this.moveToLowest();
+        }
+
+        // Advances each operand that is before the document
+        @Override
+        public boolean advance(int target) {
+            for (int i = 0; i < this.postings.length; i++) {
+                if (this.documents[i] < target) {
+                    this.documents[i] = this.postings[i].advance(target) ? this.postings[i].getDocumentId() : NO_MORE_DOCUMENTS;
+                }
+            }
+
+            return this.moveToLowest();
+        }
+
+        private boolean moveToLowest() {
+            this.document = NO_MORE_DOCUMENTS;
+            for (int next : this.documents) {
+                this.document = Math.min(this.document, next);
+            }
+
+            return this.document != NO_MORE_DOCUMENTS;
+        }
+
+        @Override
+        public int getDocumentId() {
+            return this.document;
+        }
+
+        @Override
+        public int getFrequency() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Map;
+
+/**
+ * An immutable hash table keyed by strings, which can be looked up with any CharSequence.
+ *
+ * Tokens can be looked up straight from a TokenBuffer without creating a String, in
+ * constant time. Keys are stored as char arrays in an open-addressing table with linear
+ * probing. As the table never changes after it is built, it can be shared between threads.
+ */
+public final class CharArrayMap {
+
+    // Properties
+    private final char[][] keys;
+    private final String[] values;
+    private final int mask;
+    private final int size;
+
+    // Builds a table from the given entries
+    // Keys mapped to null are still contained in the table, so a set can be built with null values
+    public CharArrayMap(Map<String, String> entries) {
+        // Keep the table at most half full so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 2) << 1;
+        this.keys = new char[capacity][];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+        this.size = entries.size();
+
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            int slot = hash(key) & this.mask;
+            while (this.keys[slot] != null) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.keys[slot] = key.toCharArray();
+            this.values[slot] = entry.getValue();
+        }
+    }
+
+    // Finds the slot holding a key, or -1 if it isn't in the table
+    private int find(CharSequence key) {
+        int slot = hash(key) & this.mask;
+        while (this.keys[slot] != null) {
+            if (equals(this.keys[slot], key)) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        return -1;
+    }
+
+    // Whether the table contains a key
+    public boolean contains(CharSequence key) {
+        return this.find(key) >= 0;
+    }
+
+    // Gets the value for a key, or null if it isn't in the table
+    public String get(CharSequence key) {
+        int slot = this.find(key);
+        return slot >= 0 ? this.values[slot] : null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private static int hash(CharSequence key) {
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+
+        // Spread the high bits into the low bits used for the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(char[] chars, CharSequence key) {
+        if (chars.length != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
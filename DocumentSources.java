@@ -0,0 +1,112 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The source file of each document in a segment, in document id order.
+ *
+ * Each file is recorded by its path relative to the collection, with its last modified
+ * time and size when it was indexed, so an update can tell which files have changed.
+ */
+public class DocumentSources {
+
+    // Properties
+    private final ArrayList<Source> sources;
+
+    public DocumentSources() {
+        this.sources = new ArrayList<>();
+    }
+
+    // Records the files of a collection as they are now
+    // Taken before the files are read, so a file changed while it's being indexed is indexed again next time
+    public static DocumentSources of(Path collection, List<Path> documentPaths) throws IOException {
+        DocumentSources sources = new DocumentSources();
+        for (Path documentPath : documentPaths) {
+            sources.add(Source.of(collection, documentPath));
+        }
+
+        return sources;
+    }
+
+    // Reads the sources of a segment
+    public static DocumentSources read(Path segmentDirectory) throws IOException {
+        Path path = segmentDirectory.resolve(IndexFormat.SOURCES_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != IndexFormat.SOURCES_MAGIC) {
+                throw new IOException("Not a sources file: " + path);
+            }
+            if (in.readInt() != IndexFormat.VERSION) {
+                throw new IOException("Unsupported index version in " + path);
+            }
+
+            int count = in.readInt();
+            DocumentSources sources = new DocumentSources();
+            for (int i = 0; i < count; i++) {
+                sources.add(new Source(in.readUTF(), in.readLong(), in.readLong()));
+            }
+
+            return sources;
+        }
+    }
+
+    // Writes the sources to a segment
+    public void write(Path segmentDirectory) throws IOException {
+        Path path = segmentDirectory.resolve(IndexFormat.SOURCES_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(IndexFormat.SOURCES_MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(this.sources.size());
+            for (Source source : this.sources) {
+                out.writeUTF(source.path);
+                out.writeLong(source.lastModified);
+                out.writeLong(source.size);
+            }
+        }
+    }
+
+    public void add(Source source) {
+        this.sources.add(source);
+    }
+
+    public Source get(int documentId) {
+        return this.sources.get(documentId);
+    }
+
+    public int size() {
+        return this.sources.size();
+    }
+
+    /**
+     * A file as it was when it was indexed.
+     */
+    public static final class Source {
+
+        private final String path;
+        private final long lastModified;
+        private final long size;
+
+        Source(String path, long lastModified, long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        // Records a file in a collection as it is now
+        public static Source of(Path collection, Path documentPath) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(documentPath, BasicFileAttributes.class);
+            return new Source(collection.relativize(documentPath).toString(), attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+
+        // Whether another record is of the same file, unchanged
+        public boolean isUnchanged(Source other) {
+            return this.path.equals(other.path) && this.lastModified == other.lastModified && this.size == other.size;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+    }
+}
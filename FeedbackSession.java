@@ -0,0 +1,148 @@
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rounds of relevance feedback on one query, rescoring only what changes from round to round.
+ *
+ * The dot product of the query with every document containing a query term is kept between
+ * rounds, along with the squared length of the query. A round of feedback only changes the
+ * weights of some terms, so only the postings of those terms are read, adding the change in
+ * weight times the term's weight in each document to that document's dot product. The
+ * ranking is then worked out from the dot products, so a round costs about as much as
+ * reading the changed terms' postings, however many rounds came before it.
+ *
+ * Relevance feedback keeps the query's phrases as they are, so they are only scored once,
+ * and the document lengths counting them are only worked out once.
+ * If the query was a boolean query, only the documents matching it are ranked.
+ */
+public class FeedbackSession {
+
+    // Metrics for each round
+    private static final Metrics.Histogram ROUND_TIME = Metrics.getShared().histogram("search.feedbackRound");
+    private static final LongAdder CHANGED_TERMS = Metrics.getShared().counter("search.feedbackChangedTerms");
+    private static final LongAdder POSTINGS = Metrics.getShared().counter("search.feedbackPostings");
+
+    // Properties
+    private final Searcher searcher;
+    private final IndexReader index;
+    private final BitSet matches;
+    private final ScoreAccumulator dotProducts;
+    private final PhraseNorms phraseNorms;
+    private SparseVector query;
+    private double lengthSquared;
+    private int rounds;
+
+    // Starts a session with a query, scoring every document containing a query term
+    // The boolean query can be null for a query that isn't one
+    public FeedbackSession(Searcher searcher, BooleanQuery booleanQuery, SparseVector query) {
+        this.searcher = searcher;
+        this.index = searcher.getIndex();
+        this.dotProducts = new ScoreAccumulator(this.index.getNumberOfDocuments());
+        this.query = query;
+        this.lengthSquared = query.getLengthSquared();
+        this.phraseNorms = new PhraseNorms(this.index, query);
+
+        // Find the documents that can be ranked once, as feedback doesn't change what the boolean query matches
+        if (booleanQuery != null) {
+            this.matches = new BitSet(this.index.getNumberOfDocuments());
+            PostingsIterator matching = booleanQuery.match(this.index);
+            while (matching.next()) {
+                this.matches.set(matching.getDocumentId());
+            }
+        } else {
+            this.matches = null;
+        }
+
+        for (int i = 0; i < query.size(); i++) {
+            this.addTerm(query.getTerm(i), query.getWeight(i));
+        }
+        for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+            double q = query.getPhraseWeight(i);
+            double idf = query.getPhrase(i).getIDF();
+            PostingsIterator postings = query.getPhrase(i).getPostings();
+            while (postings.next()) {
+                this.dotProducts.add(postings.getDocumentId(), postings.getFrequency() * idf * q);
+            }
+        }
+    }
+
+    // Performs a round of relevance feedback with documents judged from the last results
+    public void performRelevanceFeedback(Set<Integer> relevant, Set<Integer> nonRelevant) {
+        this.update(this.searcher.performRelevanceFeedback(relevant, nonRelevant, this.query));
+    }
+
+    // Moves on to a new query with the same phrases, reading the postings of only the terms whose weights changed
+    public void update(SparseVector newQuery) {
+        long start = System.nanoTime();
+
+        // Walk through the terms of both queries in order, as they are sorted by term
+        int i = 0;
+        int j = 0;
+        int changed = 0;
+        while (i < this.query.size() || j < newQuery.size()) {
+            int oldTerm = i < this.query.size() ? this.query.getTerm(i) : Integer.MAX_VALUE;
+            int newTerm = j < newQuery.size() ? newQuery.getTerm(j) : Integer.MAX_VALUE;
+            double oldWeight = oldTerm <= newTerm ? this.query.getWeight(i++) : 0.0;
+            double newWeight = newTerm <= oldTerm ? newQuery.getWeight(j++) : 0.0;
+
+            if (newWeight != oldWeight) {
+                this.addTerm(Math.min(oldTerm, newTerm), newWeight - oldWeight);
+                this.lengthSquared += newWeight * newWeight - oldWeight * oldWeight;
+                changed++;
+            }
+        }
+
+        this.query = newQuery;
+        this.rounds++;
+        ROUND_TIME.recordSince(start);
+        CHANGED_TERMS.add(changed);
+    }
+
+    // Adds a change in a term's query weight to the dot product of every document containing the term
+    private void addTerm(int term, double weight) {
+        double idf = this.index.getIDF(term);
+        PostingsIterator postings = this.index.getPostings(term);
+        long postingsRead = 0;
+        while (postings.next()) {
+            double w = postings.getFrequency() * idf;
+            this.dotProducts.add(postings.getDocumentId(), w * weight);
+            postingsRead++;
+        }
+
+        POSTINGS.add(postingsRead);
+    }
+
+    // Finds the k documents most similar to the current query, best first
+    // Only documents with a cosine similarity above 0 are returned
+    public TopKCollector getResults(int k) {
+        double queryLength = Math.sqrt(this.lengthSquared);
+        TopKCollector results = new TopKCollector(k);
+        for (int i = 0; i < this.dotProducts.size(); i++) {
+            int document = this.dotProducts.getDocument(i);
+            if (this.matches != null && !this.matches.get(document)) {
+                continue;
+            }
+
+            double cosineSim = this.dotProducts.getScore(document) / (this.phraseNorms.getDocumentLength(document) * queryLength);
+            if (cosineSim > 0.0) {
+                results.collect(document, cosineSim);
+            }
+        }
+        results.sort();
+
+        return results;
+    }
+
+    /**
+     * Accessors
+     */
+    public SparseVector getQuery() {
+        return this.query;
+    }
+
+    // Number of rounds of feedback so far
+    public int getRounds() {
+        return this.rounds;
+    }
+}
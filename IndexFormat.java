@@ -0,0 +1,162 @@
+/**
+ * Constants describing the binary on-disk index format shared by IndexWriter and IndexReader.
+ *
+ * An index directory holds these files, all big-endian:
+ *
+ *   index.dict - the sorted term dictionary
+ *       header:  magic, version, term count, collection size, term pool offset (long)
+ *       entries: postings offset (long), idf (double), term offset, term length, df,
+ *                largest tf divided by document length among the term's postings (double),
+ *                positions offset (long), skips offset (long)
+ *       pool:    the terms as UTF-16 chars, in String.compareTo order
+ *
+ *   index.post - the postings
+ *       header:  magic, version
+ *       lists:   df pairs of (document id gap, tf) per term, sorted by document id and
+ *                variable-byte encoded as described in PostingsList
+ *
+ *   index.posn - the positions of each term in each document, counting stopwords
+ *       header:  magic, version
+ *       lists:   per term, for each of its postings in order, tf positions as the first
+ *                position then the gaps between positions, variable-byte encoded
+ *
+ *   index.skip - skip pointers into the postings of terms with more than the skip interval postings
+ *       header:  magic, version, skip interval
+ *       lists:   per term, one entry after every skip interval postings but the last: the
+ *                document id of the posting before the skip, then the offsets of the posting
+ *                after it from the start of the term's postings and positions
+ *
+ *   index.docs - the document table
+ *       header:  magic, version, document count, name pool offset (long)
+ *       entries: name offset, name length, length of the document's tf.idf vector (double)
+ *       pool:    the document names as UTF-8 bytes
+ *
+ *   index.vecs - the terms of each document, for relevance feedback
+ *       header:  magic, version, document count, directory offset (long)
+ *       lists:   per document, pairs of (term ordinal gap, tf), sorted by term ordinal and
+ *                variable-byte encoded just as postings are with document ids
+ *       entries: list offset (long), number of terms, per document
+ *
+ *   index.chmp - the champion lists of the terms with more postings than the champion list
+ *                size: each term's postings with the highest tf, so the highest tf.idf weight,
+ *                ties going to the lowest document id. Other terms use their full postings
+ *       header:  magic, version, number of champion lists, champion list size, directory offset (long)
+ *       lists:   the champion lists, each of champion list size postings, encoded as in index.post
+ *       entries: term ordinal, list offset (long), sorted by term ordinal
+ *
+ *   index.srcs - the source file of each document, used to find changed files
+ *       header:  magic, version, document count
+ *       entries: path relative to the collection (modified UTF-8), last modified time (long), size (long)
+ *
+ * An index updated incrementally is made up of segments, each a directory holding the
+ * files above with its own document ids. Which segments are live is listed in the
+ * segments file at the top of the index directory. Without a segments file, the index
+ * is a single segment in the index directory itself.
+ *
+ *   index.segs - the live segments
+ *       header:  magic, version, generation, segment count
+ *       entries: segment directory relative to the index directory (modified UTF-8),
+ *                generation of the segment's statistics, or -1 if it has none
+ *
+ * The files of a segment never change once written. Each update writes the statistics that
+ * depend on the whole index to a new file in every segment, named after the update's
+ * generation, and only then lists them in the segments file. A segment without statistics
+ * uses the values it was written with.
+ *
+ *   index.stat.GENERATION - the statistics of a segment as of a generation
+ *       header:  magic, version, collection size, term count, document count
+ *       terms:   idf (double), largest tf divided by document length (double), per term
+ *       lengths: length of each document's tf.idf vector (double)
+ *       bits:    one bit per document, set if it's deleted, as longs
+ *
+ * The stopwords the documents were analysed with are kept beside them, so queries can
+ * leave out the same words, and a stopword in a phrase only takes up a position.
+ *
+ *   index.stop - the stopwords, one per line, as given when the index was written
+ *
+ * The idf of each term, the collection size and the document lengths are always for the
+ * whole index, so a segment can be searched on its own with its statistics.
+ *
+ * The largest tf divided by document length of a term, times the idf and the query weight,
+ * bounds how much the term can add to the cosine similarity of any document. Searches use
+ * the bounds to skip documents that can't make the top results. They depend on the
+ * document lengths, so they're rewritten along with them.
+ *
+ * Postings can only be decoded in order, so skips let a search that only wants the postings
+ * at or after a document, such as when intersecting postings, jump over whole blocks of
+ * them without decoding them.
+ */
+public final class IndexFormat {
+
+    // File names
+    public static final String DICTIONARY_FILE = "index.dict";
+    public static final String POSTINGS_FILE = "index.post";
+    public static final String POSITIONS_FILE = "index.posn";
+    public static final String SKIPS_FILE = "index.skip";
+    public static final String DOCUMENTS_FILE = "index.docs";
+    public static final String VECTORS_FILE = "index.vecs";
+    public static final String CHAMPIONS_FILE = "index.chmp";
+    public static final String SOURCES_FILE = "index.srcs";
+    public static final String SEGMENTS_FILE = "index.segs";
+    public static final String STOPWORDS_FILE = "index.stop";
+    public static final String STATISTICS_FILE_PREFIX = "index.stat.";
+
+    // Version of the format, bumped whenever the layout changes
+    public static final int VERSION = 8;
+
+    // Magic numbers at the start of each file ("MSED", "MSEP", "MSEO", "MSEK", "MSEN", "MSEV", "MSEC", "MSEF", "MSET", "MSES")
+    public static final int DICTIONARY_MAGIC = 0x4D534544;
+    public static final int POSTINGS_MAGIC = 0x4D534550;
+    public static final int POSITIONS_MAGIC = 0x4D53454F;
+    public static final int SKIPS_MAGIC = 0x4D53454B;
+    public static final int DOCUMENTS_MAGIC = 0x4D53454E;
+    public static final int VECTORS_MAGIC = 0x4D534556;
+    public static final int CHAMPIONS_MAGIC = 0x4D534543;
+    public static final int SOURCES_MAGIC = 0x4D534546;
+    public static final int STATISTICS_MAGIC = 0x4D534554;
+    public static final int SEGMENTS_MAGIC = 0x4D534553;
+
+    // Dictionary layout
+    public static final int DICTIONARY_HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    public static final int DICTIONARY_ENTRY_SIZE = 8 + 8 + 4 + 4 + 4 + 8 + 8 + 8;
+
+    // Offset in a dictionary entry of the term's positions offset
+    public static final int POSITIONS_OFFSET = 36;
+
+    // Offset in a dictionary entry of the term's skips offset
+    public static final int SKIPS_OFFSET = 44;
+
+    // Postings and positions layout
+    public static final int POSTINGS_HEADER_SIZE = 4 + 4;
+    public static final int POSITIONS_HEADER_SIZE = 4 + 4;
+
+    // Skips layout
+    public static final int SKIPS_HEADER_SIZE = 4 + 4 + 4;
+    public static final int SKIP_ENTRY_SIZE = 4 + 4 + 4;
+
+    // Champion lists layout
+    public static final int CHAMPIONS_HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    public static final int CHAMPIONS_ENTRY_SIZE = 4 + 8;
+
+    // Document table layout
+    public static final int DOCUMENTS_HEADER_SIZE = 4 + 4 + 4 + 8;
+    public static final int DOCUMENT_ENTRY_SIZE = 4 + 4 + 8;
+
+    // Statistics layout
+    public static final int STATISTICS_HEADER_SIZE = 4 + 4 + 4 + 4 + 4;
+    public static final int STATISTICS_TERM_SIZE = 8 + 8;
+
+    // Document vectors layout
+    public static final int VECTORS_HEADER_SIZE = 4 + 4 + 4 + 8;
+    public static final int VECTOR_ENTRY_SIZE = 8 + 4;
+
+    // Offsets of the fields updated when segments are added or documents deleted
+    public static final int COLLECTION_SIZE_OFFSET = 12;
+    public static final int IDF_OFFSET = 8;
+    public static final int DOCUMENT_LENGTH_OFFSET = 8;
+    public static final int MAXIMUM_NORMALISED_TF_OFFSET = 28;
+
+    private IndexFormat() {
+
+    }
+}
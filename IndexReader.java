@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Reads an index made up of one or more segments, as if it were a single index.
+ *
+ * Documents are numbered across the segments in order: each segment's document ids are
+ * shifted up by the number of documents in the segments before it. Terms are numbered in
+ * the same way, by their ordinal in the first segment that has them, so opening an index
+ * doesn't read the dictionaries: the other segments are searched for a term when its lists
+ * are needed. A term's postings are the postings of each segment that has it, one after
+ * another. Deleted documents are skipped.
+ *
+ * An index with a single segment is read straight from that segment.
+ */
+public class IndexReader {
+
+    /**
+     * Gets one kind of list of a term from a segment, such as its postings or champion list.
+     */
+    private interface SegmentLists {
+        PostingsIterator get(SegmentReader segment, int ordinal, int documentBase);
+    }
+
+    // Properties
+    private final SegmentReader[] segments;
+    private final int[] documentBases;
+    private final int documentCount;
+    private final CharArrayMap stopwords;
+
+    // Where each segment's term ordinals start among the ordinals of the index
+    private final int[] termBases;
+
+    public IndexReader(SegmentReader... segments) {
+        this(new CharArrayMap(Collections.emptyMap()), segments);
+    }
+
+    // Creates a reader for segments whose documents were analysed with the given stopwords
+    public IndexReader(CharArrayMap stopwords, SegmentReader... segments) {
+        this.segments = segments;
+        this.stopwords = stopwords;
+
+        this.documentBases = new int[segments.length];
+        this.termBases = new int[segments.length];
+        int documentCount = 0;
+        int termCount = 0;
+        for (int i = 0; i < segments.length; i++) {
+            this.documentBases[i] = documentCount;
+            this.termBases[i] = termCount;
+            documentCount += segments[i].getNumberOfDocuments();
+            termCount += segments[i].getNumberOfTerms();
+        }
+        this.documentCount = documentCount;
+    }
+
+    // Opens the index in the given directory
+    public static IndexReader open(Path indexDirectory) throws IOException {
+        IndexSegments segmentList = IndexSegments.read(indexDirectory);
+
+        SegmentReader[] segments = new SegmentReader[segmentList.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = segmentList.open(indexDirectory, i);
+        }
+
+        // Indexes written before the stopwords were kept have none
+        Path stopwordsPath = indexDirectory.resolve(IndexFormat.STOPWORDS_FILE);
+        CharArrayMap stopwords = Files.exists(stopwordsPath)
+                ? AnalysisDictionaries.readStopwords(stopwordsPath)
+                : new CharArrayMap(Collections.emptyMap());
+
+        return new IndexReader(stopwords, segments);
+    }
+
+    // Finds the ordinal of a term, or -1 if it isn't in the index
+    public int findTerm(CharSequence term) {
+        for (int i = 0; i < this.segments.length; i++) {
+            int ordinal = this.segments[i].findTerm(term);
+            if (ordinal >= 0) {
+                return this.termBases[i] + ordinal;
+            }
+        }
+
+        return -1;
+    }
+
+    // Gets the segment a term's ordinal comes from, the first segment with the term
+    private int getSegmentOfTerm(int ordinal) {
+        return findBase(this.termBases, ordinal);
+    }
+
+    // Gets the ordinal of a term in a segment, or -1 if the segment doesn't have it
+    // Later segments are searched for the term in their own dictionaries
+    public int getSegmentOrdinal(int segment, int ordinal) {
+        int first = this.getSegmentOfTerm(ordinal);
+        if (segment == first) {
+            return ordinal - this.termBases[first];
+        }
+        if (segment < first) {
+            return -1;
+        }
+
+        return this.segments[segment].findTerm(this.getTerm(ordinal));
+    }
+
+    // Gets the ordinals of a term in every segment, with -1 for the segments that don't have it
+    private int[] getSegmentOrdinals(int ordinal) {
+        int[] ordinals = new int[this.segments.length];
+        int first = this.getSegmentOfTerm(ordinal);
+        Arrays.fill(ordinals, 0, first, -1);
+        ordinals[first] = ordinal - this.termBases[first];
+
+        String term = first + 1 < ordinals.length ? this.segments[first].getTerm(ordinals[first]) : null;
+        for (int i = first + 1; i < ordinals.length; i++) {
+            ordinals[i] = this.segments[i].findTerm(term);
+        }
+
+        return ordinals;
+    }
+
+    // Gets the ordinal of every term in the index, in sorted order of the terms
+    // This reads every dictionary, so it's only for walking through the whole vocabulary
+    public int[] getOrdinalsInTermOrder() {
+        if (this.segments.length == 1) {
+            int[] ordinals = new int[this.segments[0].getNumberOfTerms()];
+            Arrays.setAll(ordinals, i -> i);
+            return ordinals;
+        }
+
+        // Walk through the dictionaries together, taking the smallest term each time
+        String[] terms = new String[this.segments.length];
+        int[] positions = new int[this.segments.length];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> terms[a].compareTo(terms[b]));
+        int maximumTerms = 0;
+        for (int i = 0; i < this.segments.length; i++) {
+            maximumTerms += this.segments[i].getNumberOfTerms();
+            if (this.segments[i].getNumberOfTerms() > 0) {
+                terms[i] = this.segments[i].getTerm(0);
+                queue.add(i);
+            }
+        }
+
+        int[] ordinals = new int[maximumTerms];
+        int termCount = 0;
+        while (!queue.isEmpty()) {
+            // The queue breaks ties between segments arbitrarily, so take the ordinal of the first segment with the term
+            String term = terms[queue.peek()];
+            int first = this.segments.length;
+            int ordinal = -1;
+            while (!queue.isEmpty() && terms[queue.peek()].equals(term)) {
+                int segment = queue.poll();
+                if (segment < first) {
+                    first = segment;
+                    ordinal = this.termBases[segment] + positions[segment];
+                }
+
+                positions[segment]++;
+                if (positions[segment] < this.segments[segment].getNumberOfTerms()) {
+                    terms[segment] = this.segments[segment].getTerm(positions[segment]);
+                    queue.add(segment);
+                }
+            }
+            ordinals[termCount++] = ordinal;
+        }
+
+        return Arrays.copyOf(ordinals, termCount);
+    }
+
+    // Gets the term at an ordinal
+    public String getTerm(int ordinal) {
+        int segment = this.getSegmentOfTerm(ordinal);
+        return this.segments[segment].getTerm(ordinal - this.termBases[segment]);
+    }
+
+    // Gets the idf of the term at an ordinal
+    // Every segment with the term has the same idf, for the whole index
+    public double getIDF(int ordinal) {
+        int segment = this.getSegmentOfTerm(ordinal);
+        return this.segments[segment].getIDF(ordinal - this.termBases[segment]);
+    }
+
+    // Gets the largest tf divided by document length among the postings of the term at an ordinal, in any segment
+    public double getMaximumNormalisedFrequency(int ordinal) {
+        int[] segmentOrdinals = this.getSegmentOrdinals(ordinal);
+        double maximum = 0.0;
+        for (int i = 0; i < this.segments.length; i++) {
+            if (segmentOrdinals[i] >= 0) {
+                maximum = Math.max(maximum, this.segments[i].getMaximumNormalisedFrequency(segmentOrdinals[i]));
+            }
+        }
+
+        return maximum;
+    }
+
+    // Gets the number of postings of the term at an ordinal, including those of deleted documents
+    public int getDocumentFrequency(int ordinal) {
+        int[] segmentOrdinals = this.getSegmentOrdinals(ordinal);
+        int df = 0;
+        for (int i = 0; i < this.segments.length; i++) {
+            if (segmentOrdinals[i] >= 0) {
+                df += this.segments[i].getDocumentFrequency(segmentOrdinals[i]);
+            }
+        }
+
+        return df;
+    }
+
+    // Gets an iterator over the postings of the term at an ordinal
+    public PostingsIterator getPostings(int ordinal) {
+        return this.getPostings(ordinal, SegmentReader::getPostings);
+    }
+
+    // Gets an iterator over the postings of the term at an ordinal and the term's positions in each document
+    public PostingsIterator getPositionalPostings(int ordinal) {
+        return this.getPostings(ordinal, SegmentReader::getPositionalPostings);
+    }
+
+    // Gets an iterator over the champion lists of the term at an ordinal
+    // Each segment has its own champion list, so there can be more postings than in one list
+    public PostingsIterator getChampions(int ordinal) {
+        return this.getPostings(ordinal, SegmentReader::getChampions);
+    }
+
+    // Chains the lists of a term in each segment
+    private PostingsIterator getPostings(int ordinal, SegmentLists lists) {
+        if (this.segments.length == 1) {
+            return lists.get(this.segments[0], ordinal, 0);
+        }
+
+        int[] segmentOrdinals = this.getSegmentOrdinals(ordinal);
+        PostingsIterator[] iterators = new PostingsIterator[this.segments.length];
+        int count = 0;
+        for (int i = 0; i < this.segments.length; i++) {
+            if (segmentOrdinals[i] >= 0) {
+                iterators[count++] = lists.get(this.segments[i], segmentOrdinals[i], this.documentBases[i]);
+            }
+        }
+
+        return PostingsIterator.concatenate(Arrays.copyOf(iterators, count));
+    }
+
+    // Gets the number of postings in the champion lists of the term at an ordinal, including those of deleted documents
+    public int getChampionFrequency(int ordinal) {
+        int[] segmentOrdinals = this.getSegmentOrdinals(ordinal);
+        int frequency = 0;
+        for (int i = 0; i < this.segments.length; i++) {
+            if (segmentOrdinals[i] >= 0) {
+                frequency += this.segments[i].getChampionFrequency(segmentOrdinals[i]);
+            }
+        }
+
+        return frequency;
+    }
+
+    // Whether the champion lists of the term at an ordinal hold all of its postings
+    public boolean hasCompleteChampions(int ordinal) {
+        int[] segmentOrdinals = this.getSegmentOrdinals(ordinal);
+        for (int i = 0; i < this.segments.length; i++) {
+            int segmentOrdinal = segmentOrdinals[i];
+            if (segmentOrdinal >= 0 && this.segments[i].getChampionFrequency(segmentOrdinal) < this.segments[i].getDocumentFrequency(segmentOrdinal)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Gets the segment holding a document
+    public int getSegmentOf(int documentId) {
+        return findBase(this.documentBases, documentId);
+    }
+
+    // Gets the last segment whose base is at most a document id or term ordinal
+    private static int findBase(int[] bases, int value) {
+        int segment = Arrays.binarySearch(bases, value);
+        if (segment < 0) {
+            return -segment - 2;
+        }
+
+        // Skip over empty segments sharing the same base
+        while (segment + 1 < bases.length && bases[segment + 1] == value) {
+            segment++;
+        }
+        return segment;
+    }
+
+    // Gets the name of a document
+    public String getDocumentName(int documentId) {
+        int segment = this.getSegmentOf(documentId);
+        return this.segments[segment].getDocumentName(documentId - this.documentBases[segment]);
+    }
+
+    // Gets the length of a document's tf.idf vector
+    public double getDocumentLength(int documentId) {
+        int segment = this.getSegmentOf(documentId);
+        return this.segments[segment].getDocumentLength(documentId - this.documentBases[segment]);
+    }
+
+    // Gets a document's tf.idf vector, reading only the document's own terms
+    public SparseVector getDocumentVector(int documentId) {
+        int segment = this.getSegmentOf(documentId);
+        PostingsIterator vector = this.segments[segment].getDocumentVector(documentId - this.documentBases[segment]);
+
+        int[] terms = new int[8];
+        double[] weights = new double[8];
+        int size = 0;
+        while (vector.next()) {
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, 2 * size);
+                weights = Arrays.copyOf(weights, 2 * size);
+            }
+
+            int term = this.getIndexOrdinal(segment, vector.getDocumentId());
+            terms[size] = term;
+            weights[size] = vector.getFrequency() * this.getIDF(term);
+            size++;
+        }
+
+        return new SparseVector(terms, weights, size);
+    }
+
+    // Gets the ordinal across the index of a term in a segment, looking for it in the segments before
+    private int getIndexOrdinal(int segment, int segmentOrdinal) {
+        if (segment == 0) {
+            return segmentOrdinal;
+        }
+
+        String term = this.segments[segment].getTerm(segmentOrdinal);
+        for (int i = 0; i < segment; i++) {
+            int ordinal = this.segments[i].findTerm(term);
+            if (ordinal >= 0) {
+                return this.termBases[i] + ordinal;
+            }
+        }
+
+        return this.termBases[segment] + segmentOrdinal;
+    }
+
+    // Whether a document has been deleted
+    public boolean isDeleted(int documentId) {
+        int segment = this.getSegmentOf(documentId);
+        return this.segments[segment].isDeleted(documentId - this.documentBases[segment]);
+    }
+
+    /**
+     * Accessors
+     */
+    // Stopwords the documents were analysed with
+    public CharArrayMap getStopwords() {
+        return this.stopwords;
+    }
+
+    // Number of document ids, including those of deleted documents
+    public int getNumberOfDocuments() {
+        return this.documentCount;
+    }
+
+    public int getNumberOfDeletedDocuments() {
+        int deleted = 0;
+        for (SegmentReader segment : this.segments) {
+            deleted += segment.getNumberOfDeletedDocuments();
+        }
+
+        return deleted;
+    }
+
+    public int getCollectionSize() {
+        return this.segments.length == 0 ? 0 : this.segments[0].getCollectionSize();
+    }
+
+    public int getNumberOfSegments() {
+        return this.segments.length;
+    }
+
+    public SegmentReader getSegment(int segment) {
+        return this.segments[segment];
+    }
+
+    public int getDocumentBase(int segment) {
+        return this.documentBases[segment];
+    }
+}
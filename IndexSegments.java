@@ -0,0 +1,169 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The list of live segments in an index directory, as kept in the segments file.
+ *
+ * An index written in one go has no segments file and is a single segment in the index
+ * directory itself, named ".". Each update writes a new list with the next generation,
+ * replacing the old file in one atomic move so readers see either the old or the new list.
+ * Along with each segment the list gives the generation of the segment's statistics, which
+ * are written before the list that names them.
+ */
+public final class IndexSegments {
+
+    // Name of the segment in the index directory itself
+    public static final String TOP_LEVEL_SEGMENT = ".";
+
+    // Segment directories are named after the generation they were written in
+    private static final String SEGMENT_PREFIX = "seg-";
+
+    // Files that make up a segment
+    private static final String[] SEGMENT_FILES = {
+            IndexFormat.DICTIONARY_FILE, IndexFormat.POSTINGS_FILE, IndexFormat.POSITIONS_FILE, IndexFormat.SKIPS_FILE,
+            IndexFormat.DOCUMENTS_FILE, IndexFormat.VECTORS_FILE, IndexFormat.CHAMPIONS_FILE, IndexFormat.SOURCES_FILE
+    };
+
+    // Properties
+    private final int generation;
+    private final List<String> segments;
+    private final int[] statisticsGenerations;
+
+    // Segments that use the values they were written with
+    public IndexSegments(int generation, List<String> segments) {
+        this(generation, segments, SegmentStatistics.NONE);
+    }
+
+    // Segments that all use their statistics from one generation
+    public IndexSegments(int generation, List<String> segments, int statisticsGeneration) {
+        this(generation, segments, new int[segments.size()]);
+        Arrays.fill(this.statisticsGenerations, statisticsGeneration);
+    }
+
+    private IndexSegments(int generation, List<String> segments, int[] statisticsGenerations) {
+        this.generation = generation;
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+        this.statisticsGenerations = statisticsGenerations;
+    }
+
+    // Whether there is an index in the directory
+    public static boolean exists(Path indexDirectory) {
+        return Files.exists(indexDirectory.resolve(IndexFormat.SEGMENTS_FILE))
+                || Files.exists(indexDirectory.resolve(IndexFormat.DICTIONARY_FILE));
+    }
+
+    // Reads the segments of the index in a directory
+    public static IndexSegments read(Path indexDirectory) throws IOException {
+        Path path = indexDirectory.resolve(IndexFormat.SEGMENTS_FILE);
+        if (!Files.exists(path)) {
+            return new IndexSegments(0, Collections.singletonList(TOP_LEVEL_SEGMENT));
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != IndexFormat.SEGMENTS_MAGIC) {
+                throw new IOException("Not a segments file: " + path);
+            }
+            if (in.readInt() != IndexFormat.VERSION) {
+                throw new IOException("Unsupported index version in " + path);
+            }
+
+            int generation = in.readInt();
+            int count = in.readInt();
+            List<String> segments = new ArrayList<>(count);
+            int[] statisticsGenerations = new int[count];
+            for (int i = 0; i < count; i++) {
+                segments.add(in.readUTF());
+                statisticsGenerations[i] = in.readInt();
+            }
+
+            return new IndexSegments(generation, segments, statisticsGenerations);
+        }
+    }
+
+    // Writes the segments file, replacing the old one atomically
+    public void write(Path indexDirectory) throws IOException {
+        Path path = indexDirectory.resolve(IndexFormat.SEGMENTS_FILE);
+        Path temporary = indexDirectory.resolve(IndexFormat.SEGMENTS_FILE + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(IndexFormat.SEGMENTS_MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(this.generation);
+            out.writeInt(this.segments.size());
+            for (int i = 0; i < this.segments.size(); i++) {
+                out.writeUTF(this.segments.get(i));
+                out.writeInt(this.statisticsGenerations[i]);
+            }
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Removes the segments file and every segment it lists, before the index is written again from scratch
+    public static void clear(Path indexDirectory) throws IOException {
+        if (!Files.exists(indexDirectory)) {
+            return;
+        }
+
+        IndexSegments segments = read(indexDirectory);
+        Files.deleteIfExists(indexDirectory.resolve(IndexFormat.SEGMENTS_FILE));
+        for (String segment : segments.segments) {
+            deleteSegment(indexDirectory, segment);
+        }
+    }
+
+    // Deletes the files of a segment, along with all of its statistics
+    public static void deleteSegment(Path indexDirectory, String segment) throws IOException {
+        Path directory = indexDirectory.resolve(segment);
+        for (String file : SEGMENT_FILES) {
+            Files.deleteIfExists(directory.resolve(file));
+        }
+        if (Files.isDirectory(directory)) {
+            SegmentStatistics.deleteBefore(directory, Integer.MAX_VALUE);
+        }
+        if (!segment.equals(TOP_LEVEL_SEGMENT)) {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // Gets the directory of a segment
+    public Path resolve(Path indexDirectory, int segment) {
+        return indexDirectory.resolve(this.segments.get(segment)).normalize();
+    }
+
+    // Opens a segment, with the statistics it's listed with
+    public SegmentReader open(Path indexDirectory, int segment) throws IOException {
+        return SegmentReader.open(this.resolve(indexDirectory, segment), this.statisticsGenerations[segment]);
+    }
+
+    // Name for a new segment written in this generation
+    public String getNewSegmentName() {
+        return SEGMENT_PREFIX + this.generation;
+    }
+
+    /**
+     * Accessors
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    public List<String> getSegments() {
+        return this.segments;
+    }
+
+    // Generation of a segment's statistics, or SegmentStatistics.NONE if it uses the values it was written with
+    public int getStatisticsGeneration(int segment) {
+        return this.statisticsGenerations[segment];
+    }
+
+    public int size() {
+        return this.segments.size();
+    }
+}
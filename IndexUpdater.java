@@ -0,0 +1,374 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Updates an index with the changes made to its collection since it was indexed.
+ *
+ * Files are compared with the sources recorded in each segment by their last modified
+ * time and size. New and modified files are indexed into a new segment by the caller,
+ * while deleted and modified files are marked as deleted in the segments holding them.
+ * Committing then recomputes the idf of every term and the length of every document for
+ * the whole index, writing them with the deletions to new statistics files named after the
+ * next generation, and only then lists them with the new segment. The segments' own files
+ * are never changed, so readers of the generation before carry on undisturbed.
+ * Once there are too many segments or deleted documents, the segments can be merged into
+ * one in the background, on a thread the updater owns. Committing again or closing the
+ * updater waits for the merge, so the segments file is only ever written by one of them.
+ *
+ * Only one updater can work on an index at a time. The lock file is left in place when the
+ * updater closes, with its lock released, so every updater locks the same file.
+ */
+public class IndexUpdater implements Closeable {
+
+    // File locked while the index is being updated
+    private static final String LOCK_FILE = "index.lock";
+
+    // Segments are merged once there are more than this many
+    private static final int MAXIMUM_SEGMENTS = 4;
+
+    // or once this fraction of the documents are deleted
+    private static final double MAXIMUM_DELETED_FRACTION = 0.25;
+
+    // Properties
+    private final Path indexDirectory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ExecutorService merger;
+    private Future<?> merge;
+    private IndexSegments segments;
+    private BitSet[] deletions;
+    private final List<Path> documentsToIndex;
+    private int addedDocuments;
+    private int modifiedDocuments;
+    private int deletedDocuments;
+    private boolean mergeNeeded;
+
+    private IndexUpdater(Path indexDirectory, FileChannel lockChannel, FileLock lock) throws IOException {
+        this.indexDirectory = indexDirectory;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.merger = Executors.newSingleThreadExecutor(task -> new Thread(task, "segment-merger"));
+        this.segments = IndexSegments.read(indexDirectory);
+        this.deletions = new BitSet[this.segments.size()];
+        this.documentsToIndex = new ArrayList<>();
+    }
+
+    // Opens the index for updating, and finds the files of the collection that have changed
+    public static IndexUpdater open(Path indexDirectory, Path collection, List<Path> documentPaths) throws IOException {
+        FileChannel lockChannel = FileChannel.open(indexDirectory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("The index is already being updated.");
+        }
+
+        IndexUpdater updater;
+        try {
+            updater = new IndexUpdater(indexDirectory, lockChannel, lock);
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+
+        try {
+            updater.findChanges(collection, documentPaths);
+        } catch (IOException e) {
+            updater.close();
+            throw e;
+        }
+
+        return updater;
+    }
+
+    // Compares the collection with the sources of the documents in the index
+    private void findChanges(Path collection, List<Path> documentPaths) throws IOException {
+        // Find the segment and document of each file in the index
+        HashMap<String, int[]> indexed = new HashMap<>();
+        DocumentSources[] sources = new DocumentSources[this.segments.size()];
+        for (int i = 0; i < this.segments.size(); i++) {
+            Path segmentDirectory = this.segments.resolve(this.indexDirectory, i);
+            if (!Files.exists(segmentDirectory.resolve(IndexFormat.SOURCES_FILE))) {
+                throw new IOException("The index doesn't record which files it was built from. Index the collection again without --incremental.");
+            }
+
+            sources[i] = DocumentSources.read(segmentDirectory);
+            SegmentStatistics statistics = SegmentStatistics.open(segmentDirectory, this.segments.getStatisticsGeneration(i));
+            this.deletions[i] = statistics == null ? new BitSet() : statistics.readDeletions();
+            for (int document = 0; document < sources[i].size(); document++) {
+                if (!this.deletions[i].get(document)) {
+                    indexed.put(sources[i].get(document).getPath(), new int[] {i, document});
+                }
+            }
+        }
+
+        for (Path documentPath : documentPaths) {
+            DocumentSources.Source source = DocumentSources.Source.of(collection, documentPath);
+            int[] location = indexed.remove(source.getPath());
+
+            if (location == null) {
+                this.documentsToIndex.add(documentPath);
+                this.addedDocuments++;
+            } else if (!source.isUnchanged(sources[location[0]].get(location[1]))) {
+                this.delete(location);
+                this.documentsToIndex.add(documentPath);
+                this.modifiedDocuments++;
+            }
+        }
+
+        // Whatever is left has been deleted from the collection
+        for (int[] location : indexed.values()) {
+            this.delete(location);
+            this.deletedDocuments++;
+        }
+    }
+
+    private void delete(int[] location) {
+        this.deletions[location[0]].set(location[1]);
+    }
+
+    // Directory to index the new and modified documents into
+    public Path getNewSegmentDirectory() throws IOException {
+        IndexSegments.deleteSegment(this.indexDirectory, this.segments.getNewSegmentName());
+        return this.indexDirectory.resolve(this.segments.getNewSegmentName());
+    }
+
+    // Writes the deletions and the idf and document lengths across the segments as the next generation's statistics,
+    // then lists them along with the new segment
+    // The new segment can be left out if no documents were added or modified
+    public void commit(boolean addNewSegment, int collectionSize) throws IOException {
+        this.awaitMerge();
+
+        List<String> names = new ArrayList<>(this.segments.getSegments());
+        if (addNewSegment) {
+            names.add(this.segments.getNewSegmentName());
+        }
+        int generation = this.segments.getGeneration() + 1;
+        IndexSegments updated = new IndexSegments(generation, names, generation);
+
+        // Start each segment's statistics with its deletions, so they're left out of the values
+        SegmentStatistics[] statistics = new SegmentStatistics[updated.size()];
+        SegmentReader[] readers = new SegmentReader[updated.size()];
+        for (int i = 0; i < readers.length; i++) {
+            Path segmentDirectory = updated.resolve(this.indexDirectory, i);
+            SegmentReader written = SegmentReader.open(segmentDirectory);
+            BitSet deleted = i < this.deletions.length ? this.deletions[i] : new BitSet();
+            statistics[i] = SegmentStatistics.create(segmentDirectory, generation, written.getNumberOfTerms(), written.getNumberOfDocuments(), deleted);
+            readers[i] = updated.open(this.indexDirectory, i);
+        }
+
+        // Fill in the statistics for the whole index before they're listed
+        IndexReader index = new IndexReader(readers);
+        updateStatistics(index, statistics, collectionSize);
+
+        updated.write(this.indexDirectory);
+        IndexSegments old = this.segments;
+        this.segments = updated;
+
+        // Readers of the generation before may still be opening its statistics, so only older ones are removed
+        for (int i = 0; i < updated.size(); i++) {
+            SegmentStatistics.deleteBefore(updated.resolve(this.indexDirectory, i), old.getGeneration());
+        }
+
+        this.mergeNeeded = updated.size() > MAXIMUM_SEGMENTS
+                || index.getNumberOfDeletedDocuments() > MAXIMUM_DELETED_FRACTION * index.getNumberOfDocuments();
+    }
+
+    // Recomputes the idf of every term and the length of every document from the documents that aren't deleted,
+    // and writes them into the segments' statistics, along with the term bounds that depend on them
+    // Terms and documents are visited in the same order as when an index is written in one go, so the values are the same
+    private static void updateStatistics(IndexReader index, SegmentStatistics[] statistics, int collectionSize) throws IOException {
+        double[] documentLengthsSquared = new double[index.getNumberOfDocuments()];
+        for (int term : index.getOrdinalsInTermOrder()) {
+            // Only documents that aren't deleted count towards the document frequency
+            int df = 0;
+            PostingsIterator postings = index.getPostings(term);
+            while (postings.next()) {
+                df++;
+            }
+            double idf = Indexer.roundIDF(Indexer.computeIDF(df, collectionSize));
+
+            for (int i = 0; i < statistics.length; i++) {
+                int ordinal = index.getSegmentOrdinal(i, term);
+                if (ordinal >= 0) {
+                    statistics[i].setIDF(ordinal, idf);
+                }
+            }
+
+            postings = index.getPostings(term);
+            while (postings.next()) {
+                double w = postings.getFrequency() * idf;
+                documentLengthsSquared[postings.getDocumentId()] += w * w;
+            }
+        }
+
+        double[] documentLengths = new double[documentLengthsSquared.length];
+        for (int document = 0; document < documentLengths.length; document++) {
+            documentLengths[document] = Math.sqrt(documentLengthsSquared[document]);
+        }
+
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i].setCollectionSize(collectionSize);
+
+            int base = index.getDocumentBase(i);
+            for (int document = 0; document < index.getSegment(i).getNumberOfDocuments(); document++) {
+                statistics[i].setDocumentLength(document, documentLengths[base + document]);
+            }
+
+            // The term bounds depend on the document lengths
+            Path directory = index.getSegment(i).getDirectory();
+            double[] bounds = IndexWriter.computeTermBounds(MappedFile.map(directory.resolve(IndexFormat.DICTIONARY_FILE)),
+                    MappedFile.map(directory.resolve(IndexFormat.POSTINGS_FILE)), documentLengths, base);
+            for (int ordinal = 0; ordinal < bounds.length; ordinal++) {
+                statistics[i].setMaximumNormalisedFrequency(ordinal, bounds[ordinal]);
+            }
+
+            statistics[i].force();
+        }
+    }
+
+    // Merges every segment into one, leaving out the deleted documents
+    public void merge() throws IOException {
+        IndexReader index = IndexReader.open(this.indexDirectory);
+
+        // Number the documents that aren't deleted
+        int[] documentIds = new int[index.getNumberOfDocuments()];
+        ArrayList<String> names = new ArrayList<>();
+        DocumentSources sources = new DocumentSources();
+        for (int i = 0; i < index.getNumberOfSegments(); i++) {
+            SegmentReader segment = index.getSegment(i);
+            DocumentSources segmentSources = DocumentSources.read(segment.getDirectory());
+            for (int document = 0; document < segment.getNumberOfDocuments(); document++) {
+                if (segment.isDeleted(document)) {
+                    documentIds[index.getDocumentBase(i) + document] = -1;
+                } else {
+                    documentIds[index.getDocumentBase(i) + document] = names.size();
+                    names.add(segment.getDocumentName(document));
+                    sources.add(segmentSources.get(document));
+                }
+            }
+        }
+
+        // Copy the postings and their positions across, with the new document ids
+        Path merged = this.getNewSegmentDirectory();
+        int[] positions = new int[64];
+        try (IndexWriter writer = new IndexWriter(merged, index.getCollectionSize(), names)) {
+            for (int term : index.getOrdinalsInTermOrder()) {
+                PostingsList postingsList = new PostingsList();
+                PostingsIterator postings = index.getPositionalPostings(term);
+                while (postings.next()) {
+                    if (positions.length < postings.getFrequency()) {
+                        positions = new int[Math.max(postings.getFrequency(), 2 * positions.length)];
+                    }
+                    postings.getPositions(positions);
+                    postingsList.add(documentIds[postings.getDocumentId()], postings.getFrequency(), positions);
+                }
+
+                // Terms only found in deleted documents are dropped
+                if (postingsList.getDocumentFrequency() > 0) {
+                    writer.addTerm(index.getTerm(term), postingsList, index.getIDF(term));
+                }
+            }
+        }
+        sources.write(merged);
+
+        // List the merged segment, then remove the old ones
+        // Readers that already have the old segments open can keep using them
+        IndexSegments old = this.segments;
+        this.segments = new IndexSegments(old.getGeneration() + 1, Collections.singletonList(old.getNewSegmentName()));
+        this.segments.write(this.indexDirectory);
+        for (String segment : old.getSegments()) {
+            IndexSegments.deleteSegment(this.indexDirectory, segment);
+        }
+        this.deletions = new BitSet[] {new BitSet()};
+        this.mergeNeeded = false;
+    }
+
+    // Starts merging the segments on the updater's merge thread
+    public void mergeInBackground() {
+        this.merge = this.merger.submit(() -> {
+            this.merge();
+            return null;
+        });
+    }
+
+    // Waits for a merge started in the background to finish, if there is one
+    private void awaitMerge() throws IOException {
+        if (this.merge == null) {
+            return;
+        }
+
+        try {
+            this.merge.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not merge the index's segments. " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging the index's segments.");
+        } finally {
+            this.merge = null;
+        }
+    }
+
+    // Waits for a merge started in the background, then releases the lock on the index
+    // Closing more than once does nothing
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.lockChannel.isOpen()) {
+            return;
+        }
+
+        try {
+            this.awaitMerge();
+        } finally {
+            this.merger.shutdown();
+            try {
+                this.lock.release();
+            } finally {
+                this.lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Accessors
+     */
+
+    // New and modified files, in collection order
+    public List<Path> getDocumentsToIndex() {
+        return documentsToIndex;
+    }
+
+    public int getAddedDocuments() {
+        return addedDocuments;
+    }
+
+    public int getModifiedDocuments() {
+        return modifiedDocuments;
+    }
+
+    public int getDeletedDocuments() {
+        return deletedDocuments;
+    }
+
+    public boolean hasChanges() {
+        return addedDocuments + modifiedDocuments + deletedDocuments > 0;
+    }
+
+    // Whether the segments should be merged after the last commit
+    public boolean isMergeNeeded() {
+        return mergeNeeded;
+    }
+
+    public int getNumberOfSegments() {
+        return segments.size();
+    }
+}
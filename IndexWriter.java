@@ -0,0 +1,426 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes an index to disk in the binary format described in IndexFormat.
+ *
+ * Terms are streamed in one at a time in sorted order, so the writer never needs
+ * to hold more than a single postings list in memory.
+ */
+public class IndexWriter implements Closeable {
+
+    // Most postings kept in a term's champion list
+    public static final int CHAMPION_LIST_SIZE = 64;
+
+    // Number of postings between each skip
+    public static final int SKIP_INTERVAL = 64;
+
+    // Most bytes of document vectors built in memory at once, and a rough size of each term in them
+    private static final long VECTOR_BLOCK_BYTES = 64L * 1024 * 1024;
+    private static final int VECTOR_TERM_BYTES = 4;
+
+    // Metrics for every index written
+    private static final Metrics.Histogram WRITE_TIME = Metrics.getShared().histogram("index.write");
+    private static final LongAdder TERMS = Metrics.getShared().counter("index.terms");
+    private static final LongAdder POSTINGS_BYTES = Metrics.getShared().counter("index.postingsBytes");
+    private static final LongAdder POSITIONS_BYTES = Metrics.getShared().counter("index.positionsBytes");
+
+    // Properties
+    private final Path indexDirectory;
+    private final int collectionSize;
+    private final List<String> documents;
+    private final Path termPoolPath;
+    private final DataOutputStream dictionary;
+    private final DataOutputStream termPool;
+    private final DataOutputStream postings;
+    private final DataOutputStream positions;
+    private final DataOutputStream skips;
+    private final DataOutputStream champions;
+    private final double[] documentLengthsSquared;
+    private final int[] documentTermCounts;
+    private long postingsOffset;
+    private long positionsOffset;
+    private long skipsOffset;
+    private long championsOffset;
+    private int[] championTerms;
+    private long[] championOffsets;
+    private int championCount;
+    private int termPoolLength;
+    private int termCount;
+    private String lastTerm;
+    private boolean closed;
+    private final long start;
+    private final MetricsEvents.IndexWritten event;
+
+    // Opens a writer for the index directory, creating it if it doesn't exist
+    // Document ids are the positions of the documents in the given list
+    public IndexWriter(Path indexDirectory, int collectionSize, List<String> documents) throws IOException {
+        this.indexDirectory = indexDirectory;
+        this.collectionSize = collectionSize;
+        this.documents = documents;
+        this.documentLengthsSquared = new double[documents.size()];
+        this.documentTermCounts = new int[documents.size()];
+        this.start = System.nanoTime();
+        this.event = new MetricsEvents.IndexWritten();
+        this.event.begin();
+
+        Files.createDirectories(indexDirectory);
+
+        // The dictionary header is filled in once the number of terms is known
+        this.dictionary = open(indexDirectory.resolve(IndexFormat.DICTIONARY_FILE));
+        this.dictionary.write(new byte[IndexFormat.DICTIONARY_HEADER_SIZE]);
+
+        // Terms are collected separately and appended to the dictionary on close
+        this.termPoolPath = indexDirectory.resolve(IndexFormat.DICTIONARY_FILE + ".pool");
+        this.termPool = open(this.termPoolPath);
+
+        this.postings = open(indexDirectory.resolve(IndexFormat.POSTINGS_FILE));
+        this.postings.writeInt(IndexFormat.POSTINGS_MAGIC);
+        this.postings.writeInt(IndexFormat.VERSION);
+        this.postingsOffset = IndexFormat.POSTINGS_HEADER_SIZE;
+
+        this.positions = open(indexDirectory.resolve(IndexFormat.POSITIONS_FILE));
+        this.positions.writeInt(IndexFormat.POSITIONS_MAGIC);
+        this.positions.writeInt(IndexFormat.VERSION);
+        this.positionsOffset = IndexFormat.POSITIONS_HEADER_SIZE;
+
+        this.skips = open(indexDirectory.resolve(IndexFormat.SKIPS_FILE));
+        this.skips.writeInt(IndexFormat.SKIPS_MAGIC);
+        this.skips.writeInt(IndexFormat.VERSION);
+        this.skips.writeInt(SKIP_INTERVAL);
+        this.skipsOffset = IndexFormat.SKIPS_HEADER_SIZE;
+
+        // The champion lists header is filled in once the lists are written
+        this.champions = open(indexDirectory.resolve(IndexFormat.CHAMPIONS_FILE));
+        this.champions.write(new byte[IndexFormat.CHAMPIONS_HEADER_SIZE]);
+        this.championsOffset = IndexFormat.CHAMPIONS_HEADER_SIZE;
+        this.championTerms = new int[256];
+        this.championOffsets = new long[256];
+    }
+
+    // Opens a buffered output stream to a file, truncating it
+    private static DataOutputStream open(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    // Adds a term with its postings to the index
+    // Terms must be added in ascending order
+    public void addTerm(String term, PostingsList postingsList, double idf) throws IOException {
+        if (this.lastTerm != null && term.compareTo(this.lastTerm) <= 0) {
+            throw new IllegalStateException("Terms must be added in sorted order, got '" + term + "' after '" + this.lastTerm + "'");
+        }
+
+        // Write the dictionary entry
+        this.dictionary.writeLong(this.postingsOffset);
+        this.dictionary.writeDouble(idf);
+        this.dictionary.writeInt(this.termPoolLength);
+        this.dictionary.writeInt(term.length());
+        this.dictionary.writeInt(postingsList.getDocumentFrequency());
+
+        // The bound is filled in once the document lengths are known
+        this.dictionary.writeDouble(0.0);
+        this.dictionary.writeLong(this.positionsOffset);
+        this.dictionary.writeLong(this.skipsOffset);
+
+        this.termPool.writeChars(term);
+        this.termPoolLength += term.length();
+
+        // The postings are already encoded, so they are written as they are
+        this.postings.write(postingsList.getBytes(), 0, postingsList.getLength());
+        this.postingsOffset += postingsList.getLength();
+        this.positions.write(postingsList.getPositions(), 0, postingsList.getPositionsLength());
+        this.positionsOffset += postingsList.getPositionsLength();
+
+        // Add the tf.idf weights to the documents' vector lengths
+        // and write a skip after every skip interval postings, but the last
+        int df = postingsList.getDocumentFrequency();
+        boolean positional = postingsList.getPositionsLength() > 0;
+        PostingsIterator iterator = postingsList.positionalIterator();
+        for (int i = 1; iterator.next(); i++) {
+            double w = iterator.getFrequency() * idf;
+            this.documentLengthsSquared[iterator.getDocumentId()] += w * w;
+            this.documentTermCounts[iterator.getDocumentId()]++;
+
+            if (i % SKIP_INTERVAL == 0 && i < df) {
+                this.skips.writeInt(iterator.getDocumentId());
+                this.skips.writeInt(iterator.getNextPostingOffset());
+                this.skips.writeInt(positional ? iterator.getNextPositionsOffset() : 0);
+                this.skipsOffset += IndexFormat.SKIP_ENTRY_SIZE;
+            }
+        }
+
+        this.writeChampions(postingsList);
+
+        this.termCount++;
+        this.lastTerm = term;
+    }
+
+    // Writes the term's champion list: its postings with the highest tf, in document order
+    // Every posting of a term has the same idf, so these are also the postings with the highest tf.idf weight
+    // Terms with few enough postings use their full postings list, so nothing is written for them
+    private void writeChampions(PostingsList postingsList) throws IOException {
+        int df = postingsList.getDocumentFrequency();
+        if (df <= CHAMPION_LIST_SIZE) {
+            return;
+        }
+
+        // Sort by tf, highest first, then by document id
+        long[] postings = new long[df];
+        PostingsIterator iterator = postingsList.iterator();
+        for (int i = 0; iterator.next(); i++) {
+            postings[i] = (long) (Integer.MAX_VALUE - iterator.getFrequency()) << 32 | iterator.getDocumentId();
+        }
+        Arrays.sort(postings);
+
+        // Put the champions back in document order
+        long[] champions = new long[CHAMPION_LIST_SIZE];
+        for (int i = 0; i < champions.length; i++) {
+            int frequency = Integer.MAX_VALUE - (int) (postings[i] >>> 32);
+            champions[i] = (postings[i] & 0xFFFFFFFFL) << 32 | frequency;
+        }
+        Arrays.sort(champions);
+
+        PostingsList championList = new PostingsList();
+        for (long champion : champions) {
+            championList.add((int) (champion >>> 32), (int) champion);
+        }
+
+        if (this.championCount == this.championTerms.length) {
+            this.championTerms = Arrays.copyOf(this.championTerms, 2 * this.championCount);
+            this.championOffsets = Arrays.copyOf(this.championOffsets, 2 * this.championCount);
+        }
+        this.championTerms[this.championCount] = this.termCount;
+        this.championOffsets[this.championCount] = this.championsOffset;
+        this.championCount++;
+
+        this.champions.write(championList.getBytes(), 0, championList.getLength());
+        this.championsOffset += championList.getLength();
+    }
+
+    // Finishes the dictionary and writes the document table
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        this.postings.close();
+        this.positions.close();
+        this.skips.close();
+        this.termPool.close();
+        this.writeChampionsDirectory();
+
+        // Append the term pool to the dictionary
+        long termPoolOffset = IndexFormat.DICTIONARY_HEADER_SIZE + (long) this.termCount * IndexFormat.DICTIONARY_ENTRY_SIZE;
+        Files.copy(this.termPoolPath, this.dictionary);
+        this.dictionary.close();
+        Files.delete(this.termPoolPath);
+
+        // Fill in the dictionary header
+        ByteBuffer header = ByteBuffer.allocate(IndexFormat.DICTIONARY_HEADER_SIZE);
+        header.putInt(IndexFormat.DICTIONARY_MAGIC);
+        header.putInt(IndexFormat.VERSION);
+        header.putInt(this.termCount);
+        header.putInt(this.collectionSize);
+        header.putLong(termPoolOffset);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(this.indexDirectory.resolve(IndexFormat.DICTIONARY_FILE), StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+
+        this.writeDocuments();
+        this.writeTermBounds();
+        this.writeDocumentVectors();
+
+        // Record how long the index took to write, from when the writer was opened
+        WRITE_TIME.recordSince(this.start);
+        TERMS.add(this.termCount);
+        POSTINGS_BYTES.add(this.postingsOffset - IndexFormat.POSTINGS_HEADER_SIZE);
+        POSITIONS_BYTES.add(this.positionsOffset - IndexFormat.POSITIONS_HEADER_SIZE);
+        this.event.directory = this.indexDirectory.toString();
+        this.event.documents = this.documents.size();
+        this.event.terms = this.termCount;
+        this.event.postingsBytes = this.postingsOffset - IndexFormat.POSTINGS_HEADER_SIZE;
+        this.event.commit();
+    }
+
+    // Appends the term and offset of each champion list, then fills in the header
+    private void writeChampionsDirectory() throws IOException {
+        for (int i = 0; i < this.championCount; i++) {
+            this.champions.writeInt(this.championTerms[i]);
+            this.champions.writeLong(this.championOffsets[i]);
+        }
+        this.champions.close();
+
+        ByteBuffer header = ByteBuffer.allocate(IndexFormat.CHAMPIONS_HEADER_SIZE);
+        header.putInt(IndexFormat.CHAMPIONS_MAGIC);
+        header.putInt(IndexFormat.VERSION);
+        header.putInt(this.championCount);
+        header.putInt(CHAMPION_LIST_SIZE);
+        header.putLong(this.championsOffset);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(this.indexDirectory.resolve(IndexFormat.CHAMPIONS_FILE), StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+    }
+
+    // Writes the document table, with the length of each document's tf.idf vector
+    private void writeDocuments() throws IOException {
+        try (DataOutputStream out = open(this.indexDirectory.resolve(IndexFormat.DOCUMENTS_FILE))) {
+            byte[][] names = new byte[this.documents.size()][];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = this.documents.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+
+            out.writeInt(IndexFormat.DOCUMENTS_MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(names.length);
+            out.writeLong(IndexFormat.DOCUMENTS_HEADER_SIZE + (long) names.length * IndexFormat.DOCUMENT_ENTRY_SIZE);
+
+            // Entries, then the names themselves
+            int nameOffset = 0;
+            for (int i = 0; i < names.length; i++) {
+                out.writeInt(nameOffset);
+                out.writeInt(names[i].length);
+                out.writeDouble(Math.sqrt(this.documentLengthsSquared[i]));
+                nameOffset += names[i].length;
+            }
+            for (byte[] name : names) {
+                out.write(name);
+            }
+        }
+    }
+
+    // Fills in the bound of each term in the dictionary, now the document lengths are known
+    private void writeTermBounds() throws IOException {
+        double[] documentLengths = new double[this.documentLengthsSquared.length];
+        for (int i = 0; i < documentLengths.length; i++) {
+            documentLengths[i] = Math.sqrt(this.documentLengthsSquared[i]);
+        }
+
+        MappedFile dictionary = MappedFile.mapForWriting(this.indexDirectory.resolve(IndexFormat.DICTIONARY_FILE));
+        double[] bounds = computeTermBounds(dictionary, MappedFile.map(this.indexDirectory.resolve(IndexFormat.POSTINGS_FILE)), documentLengths, 0);
+        for (int term = 0; term < bounds.length; term++) {
+            dictionary.putDouble(IndexFormat.DICTIONARY_HEADER_SIZE + (long) term * IndexFormat.DICTIONARY_ENTRY_SIZE + IndexFormat.MAXIMUM_NORMALISED_TF_OFFSET, bounds[term]);
+        }
+        dictionary.force();
+    }
+
+    // Writes the terms of each document, by reading the postings back in blocks of documents
+    // Each block's vectors are built in memory, with each term's postings advanced to the block using its skips
+    private void writeDocumentVectors() throws IOException {
+        Path path = this.indexDirectory.resolve(IndexFormat.VECTORS_FILE);
+        int documentCount = this.documents.size();
+        long[] offsets = new long[documentCount];
+        long offset = IndexFormat.VECTORS_HEADER_SIZE;
+
+        MappedFile dictionary = MappedFile.map(this.indexDirectory.resolve(IndexFormat.DICTIONARY_FILE));
+        MappedFile postings = MappedFile.map(this.indexDirectory.resolve(IndexFormat.POSTINGS_FILE));
+        MappedFile skips = MappedFile.map(this.indexDirectory.resolve(IndexFormat.SKIPS_FILE));
+
+        try (DataOutputStream out = open(path)) {
+            // The header is filled in once the vectors are written
+            out.write(new byte[IndexFormat.VECTORS_HEADER_SIZE]);
+
+            int first = 0;
+            while (first < documentCount) {
+                // Take documents until the block is full, but always at least one
+                int last = first;
+                long blockBytes = 0;
+                do {
+                    blockBytes += (long) this.documentTermCounts[last] * VECTOR_TERM_BYTES;
+                    last++;
+                } while (last < documentCount && blockBytes + (long) this.documentTermCounts[last] * VECTOR_TERM_BYTES <= VECTOR_BLOCK_BYTES);
+
+                PostingsList[] vectors = new PostingsList[last - first];
+                for (int i = 0; i < vectors.length; i++) {
+                    vectors[i] = new PostingsList();
+                }
+
+                // Terms are in order, so each vector is built in term order
+                for (int term = 0; term < this.termCount; term++) {
+                    long entry = IndexFormat.DICTIONARY_HEADER_SIZE + (long) term * IndexFormat.DICTIONARY_ENTRY_SIZE;
+                    int df = dictionary.getInt(entry + 24);
+                    PostingsIterator iterator = new PostingsIterator(getPostings(dictionary, postings, term), 0, df);
+                    long skipCount = df == 0 ? 0 : (df - 1) / SKIP_INTERVAL;
+                    iterator.setSkips(skips.slice(dictionary.getLong(entry + IndexFormat.SKIPS_OFFSET), skipCount * IndexFormat.SKIP_ENTRY_SIZE), 0, SKIP_INTERVAL);
+                    if (!iterator.next() || !iterator.advance(first)) {
+                        continue;
+                    }
+                    do {
+                        if (iterator.getDocumentId() >= last) {
+                            break;
+                        }
+                        vectors[iterator.getDocumentId() - first].add(term, iterator.getFrequency());
+                    } while (iterator.next());
+                }
+
+                for (int i = 0; i < vectors.length; i++) {
+                    offsets[first + i] = offset;
+                    out.write(vectors[i].getBytes(), 0, vectors[i].getLength());
+                    offset += vectors[i].getLength();
+                }
+                first = last;
+            }
+
+            for (int document = 0; document < documentCount; document++) {
+                out.writeLong(offsets[document]);
+                out.writeInt(this.documentTermCounts[document]);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(IndexFormat.VECTORS_HEADER_SIZE);
+        header.putInt(IndexFormat.VECTORS_MAGIC);
+        header.putInt(IndexFormat.VERSION);
+        header.putInt(documentCount);
+        header.putLong(offset);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+    }
+
+    // Computes the largest tf divided by document length of each term in a segment's dictionary
+    // Document lengths are for the whole index, starting from the segment's document base
+    // Postings of deleted documents are included, which only makes the bounds looser
+    static double[] computeTermBounds(MappedFile dictionary, MappedFile postings, double[] documentLengths, int documentBase) {
+        int termCount = dictionary.getInt(8);
+        double[] bounds = new double[termCount];
+        for (int term = 0; term < termCount; term++) {
+            long entry = IndexFormat.DICTIONARY_HEADER_SIZE + (long) term * IndexFormat.DICTIONARY_ENTRY_SIZE;
+            PostingsIterator iterator = new PostingsIterator(getPostings(dictionary, postings, term), 0, dictionary.getInt(entry + 24));
+
+            double bound = 0.0;
+            while (iterator.next()) {
+                // Documents without a length can't be scored
+                double length = documentLengths[documentBase + iterator.getDocumentId()];
+                if (length > 0) {
+                    bound = Math.max(bound, iterator.getFrequency() / length);
+                }
+            }
+
+            bounds[term] = bound;
+        }
+
+        return bounds;
+    }
+
+    // Gets the postings of a term in a segment's files
+    // Postings are written in term order, so each term's postings end where the next term's begin
+    static ByteBuffer getPostings(MappedFile dictionary, MappedFile postings, int term) {
+        long entry = IndexFormat.DICTIONARY_HEADER_SIZE + (long) term * IndexFormat.DICTIONARY_ENTRY_SIZE;
+        long offset = dictionary.getLong(entry);
+        long end = term + 1 < dictionary.getInt(8) ? dictionary.getLong(entry + IndexFormat.DICTIONARY_ENTRY_SIZE) : postings.size();
+
+        return postings.slice(offset, end - offset);
+    }
+}
@@ -1,10 +1,11 @@
-
-import java.io.IOException;
-import java.lang.reflect.Array;
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,316 +18,644 @@ import java.util.regex.Pattern;
  */
 public class Indexer {
 
+    // Rough number of bytes used on the heap by each term in the index, besides its characters:
+    // its String, its slots in the term table and term arrays, and its two streams in the arena
+    private static final int TERM_OVERHEAD = 120;
+
+    // Metrics for each phase of indexing a document
+    private static final Metrics.Histogram DOCUMENT_TIME = Metrics.getShared().histogram("index.document");
+    private static final Metrics.Histogram READ_TIME = Metrics.getShared().histogram("index.read");
+    private static final Metrics.Histogram ANALYSE_TIME = Metrics.getShared().histogram("index.analyse");
+    private static final Metrics.Histogram INSERT_TIME = Metrics.getShared().histogram("index.insert");
+    private static final LongAdder DOCUMENTS = Metrics.getShared().counter("index.documents");
+    private static final LongAdder BYTES = Metrics.getShared().counter("index.bytes");
+    private static final LongAdder TOKENS = Metrics.getShared().counter("index.tokens");
+    private static final LongAdder POSTINGS = Metrics.getShared().counter("index.postings");
+
+    // Metrics for analysing queries
+    private static final Metrics.Histogram QUERY_ANALYSE_TIME = Metrics.getShared().histogram("search.analyse");
+
+    // Phrases in a query: words within single quotes, optionally followed by a slop (e.g. 'monash university'~2),
+    // and runs of capitalised words (e.g. Monash University)
+    private static final Pattern QUOTED_PHRASE_PATTERN = Pattern.compile("(?<!\\S)'([^']+)'(?:~(\\d{1,4}))?(?!\\S)");
+    private static final Pattern CAPITALISED_PHRASE_PATTERN = Pattern.compile("\\b[A-Z][a-zA-Z0-9-]*(?:\\s[A-Z][a-zA-Z0-9-]*)+");
+    private static final Pattern SLOP_PATTERN = Pattern.compile("(?<=')~\\d{1,4}(?!\\S)");
+
     // Properties
-    private String[] stopwords;
-    private HashMap<String, HashMap<String, Integer>> index;
-    private HashMap<String, String> localisation;
+    private CharArrayMap stopwords;
+    private TermTable terms;
+    private PostingsArena arena;
+    private int[] postingsStreams;
+    private int[] documentFrequencies;
+    private int[] lastDocumentIds;
+    private byte[] scratch;
+    private long numberOfPostings;
+    private CharArrayMap localisation;
+    private ArrayList<String> documents;
+    private Analyser analyser;
+    private DocumentTerms documentTerms;
+    private long memoryUsage;
 
     // Default constructor
     public Indexer(String stopwordsFilepath) {
         stopwords = this.readStopwords(stopwordsFilepath);
-        index = new HashMap<>();
-        localisation = new HashMap<>();
-        readLocalisation();
+        terms = new TermTable();
+        arena = new PostingsArena(new PostingsArena.Budget());
+        createTermArrays();
+        documentTerms = new DocumentTerms();
+        localisation = readLocalisation();
+        documents = new ArrayList<>();
+        analyser = createAnalyser();
     }
 
     public Indexer() {
-        stopwords = new String[0];
-        index = new HashMap<>();
-        localisation = new HashMap<>();
-        readLocalisation();
+        this(new CharArrayMap(Collections.emptyMap()));
     }
 
-    // Reads a file containing stopwords and stores them in a property
-    private String[] readStopwords(String filepath) {
-        // Get filepath
-        Path path = Paths.get(filepath);
+    // Creates an indexer for analysing queries to an index whose documents were analysed with the given stopwords
+    // Queries are analysed as the documents were, so a stopword in a phrase only takes up a position
+    public Indexer(CharArrayMap stopwords) {
+        this.stopwords = stopwords;
+        terms = new TermTable();
+        arena = new PostingsArena(new PostingsArena.Budget());
+        createTermArrays();
+        documentTerms = new DocumentTerms();
+        localisation = readLocalisation();
+        documents = new ArrayList<>();
+        analyser = createAnalyser();
+    }
 
-        // Array to hold each stopword
-        ArrayList<String> words = new ArrayList<>();
+    // Creates an empty indexer sharing another indexer's stopwords, localisation and postings budget
+    private Indexer(Indexer template) {
+        stopwords = template.stopwords;
+        terms = new TermTable();
+        arena = new PostingsArena(template.arena.getBudget());
+        createTermArrays();
+        documentTerms = new DocumentTerms();
+        localisation = template.localisation;
+        documents = new ArrayList<>();
+        analyser = createAnalyser();
+    }
 
-        // Read file at that path
+    // Creates an empty indexer for building a partial index
+    // The stopwords and localisation are only read, so they can be shared between threads
+    public Indexer createPartialIndexer() {
+        return new Indexer(this);
+    }
+
+    // Gets the name a document is indexed under
+    // Removes commas from file names
+    public static String getDocumentName(Path documentPath) {
+        return documentPath.getFileName().toString().replace(",", "");
+    }
+
+    // Gets the stopwords from a file
+    // The file is only read the first time, after which the compiled stopwords are shared
+    private CharArrayMap readStopwords(String filepath) {
         try {
-            Files.readAllLines(path).forEach(word -> {
-                // Add each stopword
-                words.add(word);
-            });
+            return AnalysisDictionaries.getStopwords(filepath);
         } catch (IOException e) {
             System.out.println("No stopwords list found.");
             System.exit(1);
+            return null;
         }
+    }
+
+    // Gets the localisation dictionary
+    // The file is only read the first time, after which the compiled dictionary is shared
+    private CharArrayMap readLocalisation() {
+        try {
+            return AnalysisDictionaries.getLocalisation();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new CharArrayMap(Collections.emptyMap());
+        }
+    }
 
-        // Cast to String array and return
-        String[] wordsArray = new String[words.size()];
-        wordsArray = words.toArray(wordsArray);
-        return wordsArray;
+    // Builds the analysis pipeline used for both documents and queries
+    private Analyser createAnalyser() {
+        return new Analyser()
+                .addFilter(TokenFilters.localise(this.localisation))
+                .addFilter(TokenFilters.lowerCase())
+                .addFilter(TokenFilters.removeCommas())
+                .addFilter(TokenFilters.removeStopwords(this.stopwords))
+                .addFilter(TokenFilters.removeEmptyTokens())
+                .addFilter(TokenFilters.stem(StemCache.getShared()));
     }
 
     // Tokenises a query and returns an arraylist of tokens
+    // The words of phrases are tokens like any other, so documents with only some of them still match
     public ArrayList<String> tokeniseQuery(String query) {
-        ArrayList<String> tokens;
-
-        tokens = this.tokeniseString(query);
-
-        // Localise
-        tokens = this.localiseTokens(tokens);
+        long start = System.nanoTime();
+        ArrayList<String> tokens = new ArrayList<>();
 
-        // Normalise the tokens
-        tokens = this.normaliseTokens(tokens);
+        String words = SLOP_PATTERN.matcher(query).replaceAll("");
+        this.analyser.analyse(words, (buffer, length) -> tokens.add(new String(buffer, 0, length)));
 
-        // Remove commas
-        tokens = this.removeCommas(tokens);
+        QUERY_ANALYSE_TIME.recordSince(start);
+        return tokens;
+    }
 
-        // Remove the stopwords
-        this.removeStopwords(tokens);
+    // Finds the phrases in a query
+    // Quoted phrases are found first, and their words can't also be part of a run of capitalised words
+    public ArrayList<Phrase> findPhrases(String query) {
+        ArrayList<Phrase> phrases = new ArrayList<>();
+        StringBuilder unquoted = new StringBuilder(query);
+
+        Matcher quoted = QUOTED_PHRASE_PATTERN.matcher(query);
+        while (quoted.find()) {
+            int slop = quoted.group(2) == null ? 0 : Integer.parseInt(quoted.group(2));
+            this.addPhrase(phrases, quoted.group(1), slop);
+            for (int i = quoted.start(); i < quoted.end(); i++) {
+                unquoted.setCharAt(i, ' ');
+            }
+        }
 
-        // Remove empty tokens that resulted from normalisation
-        this.removeEmptyTokens(tokens);
+        Matcher capitalised = CAPITALISED_PHRASE_PATTERN.matcher(unquoted);
+        while (capitalised.find()) {
+            this.addPhrase(phrases, capitalised.group(), 0);
+        }
 
-        // Stem the tokens
-        tokens = this.stemTokens(tokens);
+        return phrases;
+    }
 
-        return tokens;
+    // Analyses the words of a phrase, adding it to the list if it has more than one term
+    // Stopwords are left out, but still take up a position, so they leave a gap between the terms around them
+    private void addPhrase(ArrayList<Phrase> phrases, String text, int slop) {
+        ArrayList<String> terms = new ArrayList<>();
+        ArrayList<Integer> positions = new ArrayList<>();
+        this.analyser.analyse(text, (buffer, length, position) -> {
+            terms.add(new String(buffer, 0, length));
+            positions.add(position);
+        });
+
+        if (terms.size() > 1) {
+            int[] offsets = new int[terms.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = positions.get(i) - positions.get(0);
+            }
+            phrases.add(new Phrase(terms.toArray(new String[0]), offsets, slop));
+        }
     }
 
     // Tokenises a document and returns an arraylist of tokens
+    // The document is tokenised as it is read, rather than being read into memory first
     public ArrayList<String> tokeniseDocument(Path path) {
-        ArrayList<String> tokens;
-        StringBuilder sb = new StringBuilder();
+        ArrayList<String> tokens = new ArrayList<>();
 
-        // Read the file
-        try {
-            Files.readAllLines(path).forEach(line -> {
-                // Check if line ends with hyphen
-                if (line.endsWith("-")) {
-                    // Remove the hyphen
-                    line = line.substring(0, line.length() - 1);
-
-                    // The next line will not have a space.
-                    sb.append(line);
-                } else {
-                    // Add a space between line breaks
-                    sb.append(line + " ");
-                }
+        // Read and tokenise the file
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            this.analyser.analyse(reader, (buffer, length) -> tokens.add(new String(buffer, 0, length)));
+        } catch (IOException e) {
+            System.out.println("Error reading document.");
+
+            // Don't index part of a document
+            tokens.clear();
+        }
+
+        return tokens;
+    }
+
+    // Tokenises and indexes a document as it is read
+    // Only the document's distinct terms and their positions are held until it has been read
+    // Time spent reading the file is measured apart from time spent analysing it
+    public void indexDocument(String documentName, Path path) {
+        MetricsEvents.DocumentIndexed event = new MetricsEvents.DocumentIndexed();
+        event.begin();
+        long start = System.nanoTime();
+
+        DocumentTerms documentTerms = this.documentTerms;
+        documentTerms.clear();
+        int termsBefore = this.terms.size();
+        long[] tokens = new long[1];
+        long bytes = 0;
+        long readTime = 0;
+
+        // Read and tokenise the file, recording where each term is
+        // Terms are looked up straight from the token buffer, so only new terms create Strings
+        // Malformed UTF-8 is an error, as with Files.newBufferedReader
+        try (MeteredInputStream in = new MeteredInputStream(Files.newInputStream(path));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()))) {
+            this.analyser.analyse(reader, (buffer, length, position) -> {
+                tokens[0]++;
+                documentTerms.add(this.terms.add(buffer, length), position);
             });
+            bytes = in.getBytes();
+            readTime = in.getNanoseconds();
         } catch (IOException e) {
             System.out.println("Error reading document.");
+
+            // Don't index part of a document, or keep terms only it had
+            documentTerms.clear();
+            this.terms.truncate(termsBefore);
         }
 
-        // Tokenise the string
-        String documentString = sb.toString();
-        tokens = this.tokeniseString(documentString);
+        long analysed = System.nanoTime();
+        this.addPostings(documentName, documentTerms);
+        long end = INSERT_TIME.recordSince(analysed);
+
+        READ_TIME.record(readTime);
+        ANALYSE_TIME.record(analysed - start - readTime);
+        DOCUMENT_TIME.record(end - start);
+        BYTES.add(bytes);
+        TOKENS.add(tokens[0]);
+
+        event.document = documentName;
+        event.bytes = bytes;
+        event.tokens = tokens[0];
+        event.terms = documentTerms.size();
+        event.readTime = readTime;
+        event.commit();
+    }
 
-        // Localise
-        tokens = this.localiseTokens(tokens);
+    // Takes an arraylist of string and indexes it
+    // Each token's position is its place in the list
+    public void indexDocument(String documentName, ArrayList<String> documentTokens) {
+        DocumentTerms documentTerms = this.documentTerms;
+        documentTerms.clear();
 
-        // Normalise the tokens
-        tokens = this.normaliseTokens(tokens);
+        // Record where each term is
+        for (int i = 0; i < documentTokens.size(); i++) {
+            documentTerms.add(this.terms.add(documentTokens.get(i)), i);
+        }
 
-        // Remove commas
-        tokens = this.removeCommas(tokens);
+        this.addPostings(documentName, documentTerms);
+    }
 
-        // Remove the stopwords
-        this.removeStopwords(tokens);
+    // Gives a document the next id, and adds a posting to each of its terms
+    private void addPostings(String documentName, DocumentTerms documentTerms) {
+        int documentId = this.documents.size();
+        this.documents.add(documentName);
+
+        DOCUMENTS.increment();
+        POSTINGS.add(documentTerms.size());
+        this.numberOfPostings += documentTerms.size();
+
+        // Postings and positions are encoded straight into the term's streams, as in PostingsList
+        documentTerms.groupPositions();
+        this.ensureTermCapacity(this.terms.size());
+        int[] positions = documentTerms.getPositions();
+        for (int i = 0; i < documentTerms.size(); i++) {
+            int term = documentTerms.getTerm(i);
+            int stream = this.getStream(term);
+
+            int count = documentTerms.getCount(i);
+            this.arena.writeVByte(stream, documentId - this.lastDocumentIds[term]);
+            this.arena.writeVByte(stream, count);
+
+            int previous = 0;
+            int start = documentTerms.getPositionsStart(i);
+            for (int j = start; j < start + count; j++) {
+                this.arena.writeVByte(stream + 1, positions[j] - previous);
+                previous = positions[j];
+            }
 
-        // Remove empty tokens that resulted from normalisation
-        this.removeEmptyTokens(tokens);
+            this.lastDocumentIds[term] = documentId;
+            this.documentFrequencies[term]++;
+        }
+    }
 
-        // Stem the tokens
-        tokens = this.stemTokens(tokens);
+    // Gets the postings stream of a term, starting its postings and positions streams if it has none
+    // The positions stream is always the one after the postings stream
+    private int getStream(int term) {
+        if (this.documentFrequencies[term] == 0) {
+            this.postingsStreams[term] = this.arena.createStream();
+            this.arena.createStream();
+            this.memoryUsage += TERM_OVERHEAD + 2L * this.terms.getTerm(term).length();
+        }
 
-        return tokens;
+        return this.postingsStreams[term];
     }
 
-    // Takes an arraylist of string and indexes it
-    public void indexDocument(String documentName, ArrayList<String> documentTokens) {
-        for (String token : documentTokens) {
-            if (!this.index.containsKey(token)) {
-                // Create a key with that token
-                this.index.put(token, new HashMap<>());
-            }
+    private void createTermArrays() {
+        this.postingsStreams = new int[64];
+        this.documentFrequencies = new int[64];
+        this.lastDocumentIds = new int[64];
+        this.scratch = new byte[64];
+    }
 
-            // Get the HashMap associated with that term
-            HashMap<String, Integer> term = this.index.get(token);
+    private void ensureTermCapacity(int capacity) {
+        if (capacity > this.postingsStreams.length) {
+            int length = Math.max(capacity, 2 * this.postingsStreams.length);
+            this.postingsStreams = Arrays.copyOf(this.postingsStreams, length);
+            this.documentFrequencies = Arrays.copyOf(this.documentFrequencies, length);
+            this.lastDocumentIds = Arrays.copyOf(this.lastDocumentIds, length);
+        }
+    }
 
-            // Check if term has a posting for the document
-            if (term.containsKey(documentName)) {
-                // Increase its occurrence by 1
-                int occurrences = term.get(documentName);
-                term.put(documentName, ++occurrences);
-            } else {
-                // Create a new posting for the term
-                term.put(documentName, 1);
-            }
+    // Reads a stream into the scratch buffer, returning its length
+    private int readStream(int stream) {
+        int length = this.arena.getLength(stream);
+        if (length > this.scratch.length) {
+            this.scratch = new byte[Math.max(length, 2 * this.scratch.length)];
+        }
+        this.arena.read(stream, this.scratch);
+
+        return length;
+    }
+
+    // Removes all of the postings, keeping the documents
+    // Used once the postings have been written out, so new documents still get new ids
+    // The arena keeps its memory for the next block of postings
+    public void clearIndex() {
+        this.terms = new TermTable();
+        this.arena.clear();
+        createTermArrays();
+        this.documentTerms = new DocumentTerms();
+        this.numberOfPostings = 0;
+        this.memoryUsage = 0;
+    }
+
+    // Writes the index, with terms in sorted order so they can be binary searched
+    // Only one term's postings are copied onto the heap at a time
+    public void writeIndex(IndexWriter writer, int numberOfDocuments) throws IOException {
+        for (int term : this.terms.getIdsInOrder()) {
+            PostingsList postings = this.getPostings(term);
+            writer.addTerm(this.terms.getTerm(term), postings, roundIDF(this.computeIDF(postings, numberOfDocuments)));
         }
     }
 
+    // Writes a term's postings to a stream in the format of PostingsList.writeTo, without copying them onto the heap
+    public void writePostings(int term, DataOutput out) throws IOException {
+        int stream = this.postingsStreams[term];
+        out.writeInt(this.documentFrequencies[term]);
+        out.writeInt(this.lastDocumentIds[term]);
+
+        int length = this.readStream(stream);
+        out.writeInt(length);
+        out.write(this.scratch, 0, length);
+
+        length = this.readStream(stream + 1);
+        out.writeInt(length);
+        out.write(this.scratch, 0, length);
+    }
+
+    // Merges a partial index into this one
+    // Documents in the partial index are given ids after this index's documents, so merging
+    // partial indexes in collection order gives the same index as indexing sequentially
+    // The partial indexer's postings are released for other indexers sharing its budget, so it shouldn't be used afterwards
+    public void merge(Indexer partial) {
+        int documentOffset = this.documents.size();
+        this.documents.addAll(partial.documents);
+
+        // Postings from this index always come before postings from the partial index,
+        // whose document ids are shifted as they are appended
+        for (int partialTerm = 0; partialTerm < partial.terms.size(); partialTerm++) {
+            int term = this.terms.add(partial.terms.getTerm(partialTerm));
+            this.ensureTermCapacity(term + 1);
+            int stream = this.getStream(term);
+            int partialStream = partial.postingsStreams[partialTerm];
+
+            // Only the first gap changes, the rest can be copied as is
+            int length = partial.readStream(partialStream);
+            int firstGapLength = PostingsList.vByteLength(partial.scratch, 0);
+            int firstDocumentId = PostingsList.readVByte(partial.scratch, 0) + documentOffset;
+            this.arena.writeVByte(stream, firstDocumentId - this.lastDocumentIds[term]);
+            this.arena.write(stream, partial.scratch, firstGapLength, length - firstGapLength);
+
+            length = partial.readStream(partialStream + 1);
+            this.arena.write(stream + 1, partial.scratch, 0, length);
+
+            this.lastDocumentIds[term] = partial.lastDocumentIds[partialTerm] + documentOffset;
+            this.documentFrequencies[term] += partial.documentFrequencies[partialTerm];
+        }
+
+        this.numberOfPostings += partial.numberOfPostings;
+        partial.arena.release();
+    }
+
     // Computes the IDF for a given term
     // IDF formula denominator +1 to stop divide by zero errors
-    public double computeIDF(HashMap<String, Integer> termPostings, int documents) {
+    public double computeIDF(PostingsList termPostings, int documents) {
         // Document frequency is the number of postings
-        int df = termPostings.size();
+        return computeIDF(termPostings.getDocumentFrequency(), documents);
+    }
 
+    // Compute the IDF of a term from its document frequency
+    public static double computeIDF(int df, int documents) {
         return Math.log(((double) documents) / (df + 1));
     }
 
-    // Find tokens with consecutive capitals and within quotes, emails, urls, and IPs
-    // Sources: http://stackoverflow.com/a/4113082/6601606
-    // http://stackoverflow.com/a/16746437/6601606
-    // http://stackoverflow.com/a/16053961/6601606
-    // http://stackoverflow.com/a/1500501/6601606
-    private ArrayList<String> tokeniseString(String string) {
-        ArrayList<String> tokens = new ArrayList<>();
+    // Round an IDF to 3 decimal places, rounding up
+    // Source: http://stackoverflow.com/a/153785/6601606
+    public static double roundIDF(double idf) {
+        return BigDecimal.valueOf(idf).setScale(3, RoundingMode.CEILING).doubleValue();
+    }
 
-        // Regex that tokenises based on the rules of the assignment
-        String regex = "(https?:\\/\\/[^\\s]+)|((www)?[^\\s]+\\.[^\\s]+)|(?:[a-z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~-]+)*|\"(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21\\x23-\\x5b\\x5d-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])*\")@(?:(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z0-9](?:[a-z0-9-]*[a-z0-9])?|\\[(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?|[a-z0-9-]*[a-z0-9]:(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21-\\x5a\\x53-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])+)\\])|([A-Z][a-zA-Z0-9-]*)([\\s][A-Z][a-zA-Z0-9-]*)+|(?:^|\\s)'([^']*?)'(?:$|\\s)|[^\\s{.,:;”’()?!}]+";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(string);
+    /**
+     * Accessors and Mutators
+     */
+    public CharArrayMap getStopwords() {
+        return this.stopwords;
+    }
 
-        // Add all terms to the array
-        while (matcher.find()) {
-            tokens.add(matcher.group());
-        }
+    public TermTable getTerms() {
+        return terms;
+    }
 
-        ArrayList<String> processedTokens = new ArrayList<>();
+    // Copies the postings of a term, by its id in the term table, onto the heap
+    public PostingsList getPostings(int term) {
+        byte[] bytes = new byte[arena.getLength(postingsStreams[term])];
+        byte[] positions = new byte[arena.getLength(postingsStreams[term] + 1)];
+        arena.read(postingsStreams[term], bytes);
+        arena.read(postingsStreams[term] + 1, positions);
 
-        // Need to remove quotes, commas, etc. leading and trailing
-        for (String token : tokens) {
-            token = token.trim();
+        return PostingsList.of(bytes, documentFrequencies[term], lastDocumentIds[term], positions);
+    }
 
-            // Remove leading punctuation
-            while (token.startsWith(".") || token.startsWith(",") || token.startsWith("'") || token.startsWith("\"") || token.startsWith("_") || token.startsWith("[")) {
-                token = token.substring(1);
-            }
+    public int getNumberOfTerms() {
+        return terms.size();
+    }
 
-            // Remove trailing punctuation
-            while (token.endsWith(".") || token.endsWith(",") || token.endsWith("'") || token.endsWith("\"") || token.endsWith("_") || token.endsWith("]")) {
-                token = token.substring(0, token.length() - 1);
-            }
+    // Number of postings in the index
+    public long getNumberOfPostings() {
+        return numberOfPostings;
+    }
 
-            // Add to new array
-            processedTokens.add(token);
-        }
+    // Rough number of bytes used by the terms and postings in the index, on and off the heap
+    public long getMemoryUsage() {
+        return memoryUsage + arena.getAllocated();
+    }
 
-        return processedTokens;
+    // Bytes of postings and positions held off the heap
+    public long getOffHeapMemoryUsage() {
+        return arena.getAllocated();
     }
 
-    // Normalise an arraylist of tokens
-    private ArrayList<String> normaliseTokens(ArrayList<String> tokens) {
-        ArrayList<String> normalisedTokens = new ArrayList<>();
+    // Rough number of bytes used for each posting in the index, counting the terms and positions
+    public double getMemoryPerPosting() {
+        return numberOfPostings == 0 ? 0.0 : (double) getMemoryUsage() / numberOfPostings;
+    }
 
-        // Normalise to lower case and add
-        for (String token : tokens) {
-            token = token.toLowerCase();
-            normalisedTokens.add(token);
-        }
+    // Sets the most bytes of postings and positions that can be held off the heap, by this indexer and its partial indexers together
+    public void setPostingsBudget(long budget) {
+        arena.getBudget().setLimit(budget);
+    }
 
-        return normalisedTokens;
+    public Analyser getAnalyser() {
+        return analyser;
     }
 
-    // Remove stop words
-    private void removeStopwords(ArrayList<String> tokens) {
-        Iterator<String> it = tokens.iterator();
-        List<String> stopwords = Arrays.asList(this.stopwords);
-        while (it.hasNext()) {
-            if (stopwords.contains(it.next())) {
-                it.remove();
-            }
-        }
+    public ArrayList<String> getDocuments() {
+        return documents;
     }
 
-    // Remove empty tokens from a provided list
-    private void removeEmptyTokens(ArrayList<String> tokens) {
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            if (it.next().equals("")) {
-                it.remove();
-            }
+    /**
+     * The distinct terms of the document being indexed and their positions, in growable int arrays.
+     *
+     * Arrays indexed by term id give each term's place in the document's list of terms. They
+     * are only valid if they were set while indexing the current document, so they never need
+     * clearing. Positions are kept in the order they were read, then grouped by term once the
+     * document has been read, keeping each term's positions in ascending order.
+     */
+    private static final class DocumentTerms {
+
+        // By term id, the document the term was last seen in and its place in that document's terms
+        private int[] termDocuments = new int[0];
+        private int[] termIndexes = new int[0];
+        private int document = -1;
+
+        // The document's terms in the order they were first seen, and how many times each was seen
+        private int[] terms = new int[64];
+        private int[] counts = new int[64];
+        private int size;
+
+        // Each token's place in the document's terms, and its position
+        private int[] tokenIndexes = new int[256];
+        private int[] tokenPositions = new int[256];
+        private int tokens;
+
+        // The positions grouped by term, and where each term's positions start
+        private int[] positions = new int[256];
+        private int[] starts = new int[64];
+
+        // Starts a new document
+        void clear() {
+            this.document++;
+            this.size = 0;
+            this.tokens = 0;
         }
-    }
 
-    // Remove commas from each token in an arraylist as they are used as delimiters
-    private ArrayList<String> removeCommas(ArrayList<String> tokens) {
-        ArrayList<String> newTokens = new ArrayList<>();
-        for (String s : tokens) {
-            if (s.contains(",")) {
-                s = s.replace(",", "");
+        void add(int term, int position) {
+            if (term >= this.termDocuments.length) {
+                int capacity = Math.max(term + 1, 2 * this.termDocuments.length);
+                int length = this.termDocuments.length;
+                this.termDocuments = Arrays.copyOf(this.termDocuments, capacity);
+                this.termIndexes = Arrays.copyOf(this.termIndexes, capacity);
+                Arrays.fill(this.termDocuments, length, capacity, -1);
             }
-            newTokens.add(s);
-        }
 
-        return newTokens;
-    }
+            // Find the term's place in the document, giving it the next one the first time it's seen
+            int index;
+            if (this.termDocuments[term] == this.document) {
+                index = this.termIndexes[term];
+            } else {
+                if (this.size == this.terms.length) {
+                    this.terms = Arrays.copyOf(this.terms, 2 * this.size);
+                    this.counts = Arrays.copyOf(this.counts, 2 * this.size);
+                }
+                index = this.size++;
+                this.terms[index] = term;
+                this.counts[index] = 0;
+                this.termDocuments[term] = this.document;
+                this.termIndexes[term] = index;
+            }
+            this.counts[index]++;
 
-    // Stems an arraylist of tokens using the Porter Stemmer
-    // Porter Stemmer (Source: https://tartarus.org/martin/PorterStemmer/)
-    private ArrayList<String> stemTokens(ArrayList<String> tokens) {
-        ArrayList<String> stemmedTokens = new ArrayList<>();
-        for (String token : tokens) {
-            Stemmer stemmer = new Stemmer();
-            // Add each character into the stemmer
-            for (int i = 0; i < token.length(); i++) {
-                stemmer.add(token.charAt(i));
+            if (this.tokens == this.tokenIndexes.length) {
+                this.tokenIndexes = Arrays.copyOf(this.tokenIndexes, 2 * this.tokens);
+                this.tokenPositions = Arrays.copyOf(this.tokenPositions, 2 * this.tokens);
             }
+            this.tokenIndexes[this.tokens] = index;
+            this.tokenPositions[this.tokens] = position;
+            this.tokens++;
+        }
 
-            // Stem the token
-            stemmer.stem();
+        // Groups the positions by term with a counting sort, as tokens were read in position order
+        void groupPositions() {
+            if (this.starts.length < this.size + 1) {
+                this.starts = new int[Math.max(this.size + 1, 2 * this.starts.length)];
+            }
+            if (this.positions.length < this.tokens) {
+                this.positions = new int[Math.max(this.tokens, 2 * this.positions.length)];
+            }
 
-            // Retrieve the stemmed token
-            String stemmedToken = stemmer.toString();
+            int start = 0;
+            for (int i = 0; i < this.size; i++) {
+                this.starts[i] = start;
+                start += this.counts[i];
+            }
 
-            stemmedTokens.add(stemmedToken);
+            // Fill each term's positions from its start, then move the starts back
+            for (int i = 0; i < this.tokens; i++) {
+                this.positions[this.starts[this.tokenIndexes[i]]++] = this.tokenPositions[i];
+            }
+            for (int i = 0; i < this.size; i++) {
+                this.starts[i] -= this.counts[i];
+            }
         }
 
-        return stemmedTokens;
-    }
+        int size() {
+            return this.size;
+        }
 
-    // Reads the localisation file
-    // Source of spelling differences: http://www.tysto.com/uk-us-spelling-list.html
-    private void readLocalisation() {
-        ArrayList<String> linesArray = new ArrayList<>();
-        try {
-            Files.readAllLines(Paths.get("localisation.txt")).forEach(line -> {
-                linesArray.add(line);
-            });
-        } catch (Exception e) {
-            e.printStackTrace();
+        int getTerm(int i) {
+            return this.terms[i];
         }
-        // Split into two arrays
-        List<String> british = linesArray.subList(0, linesArray.size()/2);
-        List<String> american = linesArray.subList(linesArray.size()/2, linesArray.size());
 
-        // Put into hashmap
-        for (int i = 0; i < british.size(); i++) {
-            this.localisation.put(british.get(i), american.get(i));
+        int getCount(int i) {
+            return this.counts[i];
         }
-    }
 
-    // Converts all British spellings to American spellings for better indexing
-    private ArrayList<String> localiseTokens(ArrayList<String> tokens) {
-        for (int i = 0; i < tokens.size(); i++) {
-            // Check if token is a key
-            if (this.localisation.containsKey(tokens.get(i))) {
-                // Convert to American
-                tokens.set(i, this.localisation.get(tokens.get(i)));
-            }
+        int[] getPositions() {
+            return this.positions;
         }
 
-        return tokens;
+        int getPositionsStart(int i) {
+            return this.starts[i];
+        }
     }
 
     /**
-     * Accessors and Mutators
+     * An input stream that counts the bytes read through it and the time spent reading them.
      */
-    public String[] getStopwords() {
-        return this.stopwords;
-    }
+    private static final class MeteredInputStream extends FilterInputStream {
 
-    public HashMap<String, HashMap<String, Integer>> getIndex() {
-        return index;
-    }
+        private long bytes;
+        private long nanoseconds;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            this.nanoseconds += System.nanoTime() - start;
+            if (b >= 0) {
+                this.bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+            this.nanoseconds += System.nanoTime() - start;
+            if (read > 0) {
+                this.bytes += read;
+            }
+            return read;
+        }
+
+        long getBytes() {
+            return this.bytes;
+        }
 
-    public void setIndex(HashMap<String, HashMap<String, Integer>> index) {
-        this.index = index;
+        long getNanoseconds() {
+            return this.nanoseconds;
+        }
     }
 }
\ No newline at end of file
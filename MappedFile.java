@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An index file mapped into memory, however large it is.
+ *
+ * One mapping can't hold more than 2 GB, so the file is mapped in chunks. Each chunk starts
+ * a gigabyte after the one before and runs on for up to another gigabyte, so the chunks
+ * overlap: any range of bytes no longer than a gigabyte lies wholly inside the chunk its
+ * first byte falls in. Fields and almost all lists are read from a single mapping without
+ * ever crossing into the next one, and the rare longer list is mapped on its own.
+ *
+ * Offsets are longs. All reads and writes are absolute, so a file can be shared between threads.
+ */
+public final class MappedFile {
+
+    // Chunks start every gigabyte and are as long as a mapping can be
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_STRIDE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_SIZE = Integer.MAX_VALUE;
+
+    // Properties
+    private final Path path;
+    private final FileChannel.MapMode mode;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    private MappedFile(Path path, FileChannel.MapMode mode, MappedByteBuffer[] chunks, long size) {
+        this.path = path;
+        this.mode = mode;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    // Maps a whole file for reading
+    public static MappedFile map(Path path) throws IOException {
+        return map(path, FileChannel.MapMode.READ_ONLY);
+    }
+
+    // Maps a whole file for reading and writing in place
+    public static MappedFile mapForWriting(Path path) throws IOException {
+        return map(path, FileChannel.MapMode.READ_WRITE);
+    }
+
+    private static MappedFile map(Path path, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = mode == FileChannel.MapMode.READ_ONLY
+                ? FileChannel.open(path, StandardOpenOption.READ)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) Math.max(1, (size + CHUNK_STRIDE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(mode, start, Math.min(size - start, CHUNK_SIZE));
+            }
+
+            return new MappedFile(path, mode, chunks, size);
+        }
+    }
+
+    // Gets the chunk holding a range of bytes starting at an offset
+    private MappedByteBuffer chunk(long offset) {
+        return this.chunks[(int) (offset >>> CHUNK_SHIFT)];
+    }
+
+    // Gets where an offset is in its chunk
+    private static int position(long offset) {
+        return (int) (offset & (CHUNK_STRIDE - 1));
+    }
+
+    // Gets a buffer over a range of the file, starting at its first byte
+    // Ranges too long to fit in the chunk they start in are mapped on their own
+    public ByteBuffer slice(long offset, long length) {
+        MappedByteBuffer chunk = this.chunk(offset);
+        int position = position(offset);
+        if (position + length <= chunk.limit()) {
+            return chunk.slice(position, (int) length);
+        }
+
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + length + " bytes of " + this.path, e);
+        }
+    }
+
+    public int getInt(long offset) {
+        return this.chunk(offset).getInt(position(offset));
+    }
+
+    public long getLong(long offset) {
+        return this.chunk(offset).getLong(position(offset));
+    }
+
+    public double getDouble(long offset) {
+        return this.chunk(offset).getDouble(position(offset));
+    }
+
+    public char getChar(long offset) {
+        return this.chunk(offset).getChar(position(offset));
+    }
+
+    // Reads bytes into an array, which must be no longer than a gigabyte
+    public void get(long offset, byte[] bytes) {
+        this.chunk(offset).get(position(offset), bytes);
+    }
+
+    public void putInt(long offset, int value) {
+        this.chunk(offset).putInt(position(offset), value);
+    }
+
+    public void putDouble(long offset, double value) {
+        this.chunk(offset).putDouble(position(offset), value);
+    }
+
+    // Writes the changes made in place out to the file
+    public void force() {
+        if (this.mode == FileChannel.MapMode.READ_WRITE) {
+            for (MappedByteBuffer chunk : this.chunks) {
+                chunk.force();
+            }
+        }
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+}
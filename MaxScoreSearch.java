@@ -0,0 +1,276 @@
+import java.util.Arrays;
+
+/**
+ * Finds the top k documents for a query one document at a time, skipping documents that
+ * can't make the top k (MaxScore dynamic pruning).
+ *
+ * Each query term has an upper bound on what it can add to any document's cosine
+ * similarity: its query weight times its idf times the largest tf divided by document
+ * length among its postings, stored in the dictionary, over the query length. Terms are
+ * ordered by bound. Once k documents have been found, the terms with the smallest bounds
+ * whose bounds together can't beat the k-th score are non essential: a document only
+ * containing those terms can't make the top k, so their postings are never read through,
+ * only looked up for documents found through the essential terms. A document also stops
+ * being looked up as soon as its score so far plus the bounds of the terms left fall short.
+ *
+ * Phrases in the query are searched in the same way as terms, after them, using where the
+ * phrase was found and its bound worked out from that. A document's score counts the phrases
+ * it contains in its length, as PhraseNorms describes, which only lowers it below the bounds.
+ *
+ * Bounds are given a little slack, and every document that isn't skipped is scored with
+ * the same arithmetic in the same order as term at a time scoring, so the results are
+ * exactly those of scoring every document.
+ */
+public class MaxScoreSearch {
+
+    // Document of a list that has run out
+    private static final int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+
+    // Relative slack given to bounds, so rounding can never skip a document that belongs in the top k
+    private static final double BOUND_SLACK = 1e-9;
+
+    // Properties
+    private final IndexReader index;
+    private final PhraseNorms phraseNorms;
+    private final double queryLength;
+    private final double[] weights;
+    private final PostingsIterator[] postings;
+    private final int[] documents;
+    private final double[] idfs;
+    private final int[] order;
+    private final int[] ranks;
+    private final double[] cumulativeBounds;
+    private final int[] heap;
+    private int heapSize;
+    private long postingsScored;
+    private int documentsScored;
+
+    public MaxScoreSearch(IndexReader index, SparseVector query) {
+        this.index = index;
+        this.phraseNorms = new PhraseNorms(index, query);
+        this.queryLength = Math.sqrt(query.getLengthSquared());
+
+        int size = query.size() + query.getNumberOfPhrases();
+        this.weights = new double[size];
+        this.postings = new PostingsIterator[size];
+        this.documents = new int[size];
+        this.idfs = new double[size];
+        this.ranks = new int[size];
+        this.cumulativeBounds = new double[size];
+        this.heap = new int[size];
+
+        // Open each term's postings, or each phrase's matches, and work out its bound
+        double[] bounds = new double[size];
+        Integer[] byBound = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            double maximumNormalisedFrequency;
+            if (i < query.size()) {
+                int term = query.getTerm(i);
+                this.weights[i] = query.getWeight(i);
+                this.idfs[i] = index.getIDF(term);
+                this.postings[i] = index.getPostings(term);
+                maximumNormalisedFrequency = index.getMaximumNormalisedFrequency(term);
+            } else {
+                Phrase.Matches phrase = query.getPhrase(i - query.size());
+                this.weights[i] = query.getPhraseWeight(i - query.size());
+                this.idfs[i] = phrase.getIDF();
+                this.postings[i] = phrase.getPostings();
+                maximumNormalisedFrequency = phrase.getMaximumNormalisedFrequency();
+            }
+            bounds[i] = Math.abs(this.weights[i] * this.idfs[i]) * maximumNormalisedFrequency / this.queryLength;
+            byBound[i] = i;
+
+            this.documents[i] = this.postings[i].next() ? this.postings[i].getDocumentId() : NO_MORE_DOCUMENTS;
+        }
+
+        // Order the terms by bound, smallest first, with the total of the bounds up to each
+        Arrays.sort(byBound, (a, b) -> Double.compare(bounds[a], bounds[b]));
+        this.order = new int[size];
+        double total = 0.0;
+        for (int rank = 0; rank < size; rank++) {
+            this.order[rank] = byBound[rank];
+            this.ranks[byBound[rank]] = rank;
+            total += bounds[byBound[rank]];
+            this.cumulativeBounds[rank] = total;
+        }
+
+        // Every term is essential until k documents have been found
+        for (int i = 0; i < size; i++) {
+            if (this.documents[i] != NO_MORE_DOCUMENTS) {
+                this.push(i);
+            }
+        }
+    }
+
+    // Collects the k documents with the highest cosine similarity above 0, sorted best first
+    public TopKCollector collect(int k) {
+        TopKCollector results = new TopKCollector(k);
+        int[] matched = new int[this.postings.length];
+        int[] frequencies = new int[this.postings.length];
+        int firstEssential = 0;
+
+        while (k > 0 && this.heapSize > 0) {
+            // The next document of the essential terms
+            int document = this.documents[this.heap[0]];
+            double threshold = results.getMinimumScore();
+            double documentLength = this.index.getDocumentLength(document);
+
+            // Score the essential terms, moving their postings on
+            // Lists of terms that have become non essential are dropped from the heap, to be looked up instead
+            int count = 0;
+            double score = 0.0;
+            while (this.heapSize > 0 && this.documents[this.heap[0]] == document) {
+                int i = this.pop();
+                if (this.ranks[i] < firstEssential) {
+                    continue;
+                }
+
+                matched[count] = i;
+                frequencies[count] = this.postings[i].getFrequency();
+                score += this.contribution(i, frequencies[count], documentLength);
+                count++;
+                this.postingsScored++;
+
+                if (this.postings[i].next()) {
+                    this.documents[i] = this.postings[i].getDocumentId();
+                    this.push(i);
+                } else {
+                    this.documents[i] = NO_MORE_DOCUMENTS;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+
+            // Look up the non essential terms, largest bound first, while the document could still make it
+            boolean competitive = true;
+            for (int rank = firstEssential - 1; rank >= 0; rank--) {
+                if (!canBeat(score + this.cumulativeBounds[rank], threshold)) {
+                    competitive = false;
+                    break;
+                }
+
+                int i = this.order[rank];
+                if (this.documents[i] < document) {
+                    this.documents[i] = this.postings[i].advance(document) ? this.postings[i].getDocumentId() : NO_MORE_DOCUMENTS;
+                }
+                if (this.documents[i] == document) {
+                    matched[count] = i;
+                    frequencies[count] = this.postings[i].getFrequency();
+                    score += this.contribution(i, frequencies[count], documentLength);
+                    count++;
+                    this.postingsScored++;
+                }
+            }
+            if (!competitive) {
+                continue;
+            }
+
+            // Score the document exactly as term at a time scoring does, adding the terms in query order
+            sortByTerm(matched, frequencies, count);
+            double dotProduct = 0.0;
+            for (int j = 0; j < count; j++) {
+                double w = frequencies[j] * this.idfs[matched[j]];
+                dotProduct += w * this.weights[matched[j]];
+            }
+            double cosineSim = dotProduct / (this.phraseNorms.getDocumentLength(document) * this.queryLength);
+            this.documentsScored++;
+
+            if (cosineSim > 0.0) {
+                results.collect(document, cosineSim);
+
+                // Terms whose bounds together can't beat the k-th score no longer need reading through
+                threshold = results.getMinimumScore();
+                while (firstEssential < this.order.length && !canBeat(this.cumulativeBounds[firstEssential], threshold)) {
+                    firstEssential++;
+                }
+            }
+        }
+
+        results.sort();
+        return results;
+    }
+
+    // Roughly what a term adds to a document's cosine similarity, for comparing with bounds
+    private double contribution(int i, int frequency, double documentLength) {
+        return frequency * this.idfs[i] * this.weights[i] / (documentLength * this.queryLength);
+    }
+
+    // Whether a document with at most the given score could still be collected
+    // Later documents have higher ids, so they lose ties with the documents already collected
+    private static boolean canBeat(double bound, double threshold) {
+        return bound + Math.abs(bound) * BOUND_SLACK >= threshold;
+    }
+
+    // Sorts the matched terms of a document into query order, with phrases after the terms
+    // Documents rarely match more than a few terms, so an insertion sort is enough
+    private static void sortByTerm(int[] matched, int[] frequencies, int count) {
+        for (int j = 1; j < count; j++) {
+            int term = matched[j];
+            int frequency = frequencies[j];
+            int k = j - 1;
+            while (k >= 0 && matched[k] > term) {
+                matched[k + 1] = matched[k];
+                frequencies[k + 1] = frequencies[k];
+                k--;
+            }
+            matched[k + 1] = term;
+            frequencies[k + 1] = frequency;
+        }
+    }
+
+    // Adds a term to the heap of essential terms, ordered by their next document
+    private void push(int i) {
+        int position = this.heapSize++;
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (this.documents[this.heap[parent]] <= this.documents[i]) {
+                break;
+            }
+            this.heap[position] = this.heap[parent];
+            position = parent;
+        }
+        this.heap[position] = i;
+    }
+
+    // Removes and returns the term with the lowest next document
+    private int pop() {
+        int top = this.heap[0];
+        int last = this.heap[--this.heapSize];
+
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= this.heapSize) {
+                break;
+            }
+            if (child + 1 < this.heapSize && this.documents[this.heap[child + 1]] < this.documents[this.heap[child]]) {
+                child++;
+            }
+            if (this.documents[last] <= this.documents[this.heap[child]]) {
+                break;
+            }
+            this.heap[position] = this.heap[child];
+            position = child;
+        }
+        if (this.heapSize > 0) {
+            this.heap[position] = last;
+        }
+
+        return top;
+    }
+
+    /**
+     * Statistics
+     */
+
+    // Number of postings whose tf was used to score a document
+    public long getPostingsScored() {
+        return this.postingsScored;
+    }
+
+    // Number of documents scored in full
+    public int getDocumentsScored() {
+        return this.documentsScored;
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for each phase of indexing and searching.
+ *
+ * Metrics are registered by name the first time they are asked for, and the hot paths
+ * keep hold of them so recording is only an atomic add. Everything recorded in a run can
+ * be written out as text at the end of the run, or by the server while it's running.
+ * Recording is cheap enough to always be on.
+ */
+public final class Metrics {
+
+    // Metrics shared by the whole program
+    private static final Metrics SHARED = new Metrics();
+
+    // Properties
+    private final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    public static Metrics getShared() {
+        return SHARED;
+    }
+
+    // Gets the counter with a name
+    public LongAdder counter(String name) {
+        return this.counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    // Gets the histogram with a name
+    public Histogram histogram(String name) {
+        return this.histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    // Formats every metric as text, one per line, with latencies in milliseconds
+    // Metrics of phases that haven't happened yet are left out
+    public String format() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : this.counters.entrySet()) {
+            if (counter.getValue().sum() == 0) {
+                continue;
+            }
+            text.append(String.format("%-28s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        for (Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            text.append(String.format("%-28s count %d, total %.3f, mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                    entry.getKey(), histogram.getCount(), histogram.getTotal() / 1e6, histogram.getMean() / 1e6,
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMaximum() / 1e6));
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * A histogram of durations in nanoseconds.
+     *
+     * Durations are counted in buckets spaced exponentially, with 8 buckets for each power of
+     * two. A percentile is given as the longest duration its bucket can hold, so it is never
+     * less than the true percentile, and at most 12.5% more.
+     */
+    public static final class Histogram {
+
+        // Bits of a duration, after its leading bit, that pick its bucket
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong maximum = new AtomicLong();
+
+        // Records a duration
+        public void record(long nanoseconds) {
+            long value = Math.max(nanoseconds, 0);
+            this.buckets.incrementAndGet(bucketOf(value));
+            this.count.increment();
+            this.total.add(value);
+            this.maximum.accumulateAndGet(value, Math::max);
+        }
+
+        // Records the time since a start time from System.nanoTime(), returning the current time
+        public long recordSince(long start) {
+            long now = System.nanoTime();
+            this.record(now - start);
+            return now;
+        }
+
+        // Bucket of a duration: durations below 8 have their own bucket, and the rest go by their
+        // leading bit and the 3 bits after it
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        // Longest duration in a bucket
+        private static long valueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        // Duration that the given percentage of durations were at most
+        public double getPercentile(double percentile) {
+            long count = this.getCount();
+            if (count == 0) {
+                return 0.0;
+            }
+
+            long rank = Math.max((long) Math.ceil(percentile / 100.0 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(valueOf(i), this.getMaximum());
+                }
+            }
+
+            return this.getMaximum();
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getTotal() {
+            return this.total.sum();
+        }
+
+        public double getMean() {
+            long count = this.getCount();
+            return count == 0 ? 0.0 : (double) this.getTotal() / count;
+        }
+
+        public long getMaximum() {
+            return this.maximum.get();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for indexing and searching.
+ *
+ * The events are committed as the work happens, so a run started with
+ * -XX:StartFlightRecording (or a recording started with jcmd) records every document
+ * indexed and query searched, with how long it took, without anything being attached.
+ * An event costs next to nothing when no recording is running.
+ */
+final class MetricsEvents {
+
+    private MetricsEvents() {
+    }
+
+    @Name("mysearchengine.DocumentIndexed")
+    @Label("Document Indexed")
+    @Description("A document read, analysed and added to the postings in memory")
+    @Category({"MySearchEngine", "Indexing"})
+    @StackTrace(false)
+    static final class DocumentIndexed extends Event {
+
+        @Label("Document")
+        String document;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Terms")
+        int terms;
+
+        @Label("Read Time")
+        @Timespan
+        long readTime;
+    }
+
+    @Name("mysearchengine.RunFlushed")
+    @Label("Run Flushed")
+    @Description("A block of postings written to a run file when it filled the memory budget")
+    @Category({"MySearchEngine", "Indexing"})
+    @StackTrace(false)
+    static final class RunFlushed extends Event {
+
+        @Label("Run")
+        int run;
+
+        @Label("Terms")
+        int terms;
+
+        @Label("Postings")
+        long postings;
+
+        @Label("Memory Usage")
+        @DataAmount
+        long memoryUsage;
+    }
+
+    @Name("mysearchengine.IndexWritten")
+    @Label("Index Written")
+    @Description("A segment's dictionary, postings and documents written to disk")
+    @Category({"MySearchEngine", "Indexing"})
+    @StackTrace(false)
+    static final class IndexWritten extends Event {
+
+        @Label("Directory")
+        String directory;
+
+        @Label("Documents")
+        int documents;
+
+        @Label("Terms")
+        int terms;
+
+        @Label("Postings Bytes")
+        @DataAmount
+        long postingsBytes;
+    }
+
+    @Name("mysearchengine.QuerySearched")
+    @Label("Query Searched")
+    @Description("A query vector scored against the index and ranked, skipping documents that can't make the top results")
+    @Category({"MySearchEngine", "Searching"})
+    @StackTrace(false)
+    static final class QuerySearched extends Event {
+
+        @Label("Query Terms")
+        int terms;
+
+        @Label("Postings")
+        @Description("Number of postings of the query terms, including deleted documents")
+        long postings;
+
+        @Label("Postings Scored")
+        @Description("Number of postings used to score a document, the rest having been skipped")
+        long postingsScored;
+
+        @Label("Documents Scored")
+        int documents;
+
+        @Label("Results")
+        int results;
+    }
+
+    @Name("mysearchengine.RelevanceFeedback")
+    @Label("Relevance Feedback")
+    @Description("A query moved towards the relevant documents")
+    @Category({"MySearchEngine", "Searching"})
+    @StackTrace(false)
+    static final class RelevanceFeedback extends Event {
+
+        @Label("Relevant Documents")
+        int relevant;
+
+        @Label("Non Relevant Documents")
+        int nonRelevant;
+
+        @Label("Query Terms")
+        int terms;
+    }
+}
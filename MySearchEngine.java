@@ -2,9 +2,10 @@ import java.io.File;
 import java.io.IOException;
 import java.math.RoundingMode;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -16,6 +17,12 @@ import java.util.stream.Collectors;
  */
 public class MySearchEngine {
 
+    // Port the server listens on if none is given
+    private static final int DEFAULT_PORT = 8080;
+
+    // Megabytes of results the server caches if not told otherwise
+    private static final int DEFAULT_CACHE_SIZE = 16;
+
     // Properties
     Indexer indexer;
 
@@ -28,6 +35,15 @@ public class MySearchEngine {
     public static void main(String[] args) {
         MySearchEngine mySearchEngine = new MySearchEngine();
 
+        // Print the metrics when the program ends, however it ends
+        if (args.length > 0 && args[0].equals("--metrics")) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("\n===== Metrics (times in ms): =====");
+                System.out.print(Metrics.getShared().format());
+            }));
+        }
+
         // Check if any arguments given
         if (args.length == 0) {
             System.out.println("Error: No arguments given. Type 'java MySearchEngine -h' for help.");
@@ -37,20 +53,78 @@ public class MySearchEngine {
         // Check arguments
         if (args[0].equals("index")) {
             // Check if right number of arguments given
-            if (args.length == 4) {
-                // Index the collection
-                mySearchEngine.index(args[1], args[2], args[3]);
-            } else {
-                // Quit with message
+            if (args.length < 4) {
                 System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
                 System.exit(1);
             }
+
+            // Parse the options
+            int threads = 1;
+            int memory = 0;
+            int postingsMemory = 0;
+            boolean incremental = false;
+            for (int i = 4; i < args.length; i++) {
+                if (args[i].equals("--incremental")) {
+                    incremental = true;
+                    continue;
+                }
+
+                // The other options take a number
+                int value = 0;
+                try {
+                    value = Integer.parseInt(args[i + 1]);
+                } catch (Exception e) {
+                }
+
+                if (args[i].equals("--threads")) {
+                    if (value < 1) {
+                        System.out.println("Error: Number of threads must be a positive number.");
+                        System.exit(1);
+                    }
+                    threads = value;
+                } else if (args[i].equals("--memory")) {
+                    if (value < 1) {
+                        System.out.println("Error: Memory budget must be a positive number of megabytes.");
+                        System.exit(1);
+                    }
+                    memory = value;
+                } else if (args[i].equals("--postings-memory")) {
+                    if (value < 1 || value > PostingsArena.MAX_BUDGET >> 20) {
+                        System.out.println("Error: Postings memory must be between 1 and " + (PostingsArena.MAX_BUDGET >> 20) + " megabytes.");
+                        System.exit(1);
+                    }
+                    postingsMemory = value;
+                } else {
+                    System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                    System.exit(1);
+                }
+                i++;
+            }
+
+            // Blocks are flushed in document order, so they can't be built in parallel
+            if (threads > 1 && memory > 0) {
+                System.out.println("Error: --threads and --memory can't be used together.");
+                System.exit(1);
+            }
+
+            // A block can go over the memory budget by a document, so its postings need up to twice the budget
+            if (memory > 0 && postingsMemory > 0 && postingsMemory < 2 * memory) {
+                System.out.println("Error: --postings-memory must be at least twice --memory.");
+                System.exit(1);
+            }
+
+            // Index the collection
+            mySearchEngine.index(args[1], args[2], args[3], threads, memory, postingsMemory, incremental);
         } else if (args[0].equals("search")) {
+            // An approximate search is asked for before the query
+            boolean approximate = args.length > 3 && args[3].equals("--approximate");
+            int queryStart = approximate ? 4 : 3;
+
             // Check if right number of arguments given
-            if (args.length >= 4) {
+            if (args.length > queryStart) {
                 // Join the query string
                 StringBuilder sb = new StringBuilder();
-                for (int i = 3; i < args.length; i++) {
+                for (int i = queryStart; i < args.length; i++) {
                     sb.append(args[i] + " ");
                 }
 
@@ -64,27 +138,190 @@ public class MySearchEngine {
                 }
 
                 // Perform search
-                mySearchEngine.search(args[1], numberOfResults, sb.toString().trim());
+                mySearchEngine.search(args[1], numberOfResults, sb.toString().trim(), approximate);
             } else {
                 System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
                 System.exit(1);
             }
+        } else if (args[0].equals("batch")) {
+            // Check if right number of arguments given
+            if (args.length < 5) {
+                System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                System.exit(1);
+            }
+
+            // Parse number of results
+            int numberOfResults = 0;
+            try {
+                numberOfResults = Integer.parseInt(args[4]);
+            } catch (Exception e) {
+                System.out.println("Error: Incorrect number format for number of results to retrieve.");
+                System.exit(1);
+            }
+
+            // Parse the options
+            int threads = 1;
+            boolean approximate = false;
+            int feedbackDocuments = 0;
+            for (int i = 5; i < args.length; i++) {
+                if (args[i].equals("--approximate")) {
+                    approximate = true;
+                } else if (args[i].equals("--feedback") && i + 1 < args.length) {
+                    try {
+                        feedbackDocuments = Integer.parseInt(args[++i]);
+                    } catch (Exception e) {
+                        feedbackDocuments = 0;
+                    }
+                    if (feedbackDocuments < 1) {
+                        System.out.println("Error: Number of feedback documents must be a positive number.");
+                        System.exit(1);
+                    }
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (Exception e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        System.out.println("Error: Number of threads must be a positive number.");
+                        System.exit(1);
+                    }
+                } else {
+                    System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                    System.exit(1);
+                }
+            }
+
+            // Run the queries
+            mySearchEngine.batch(args[1], args[2], args[3], numberOfResults, threads, approximate, feedbackDocuments);
+        } else if (args[0].equals("benchmark")) {
+            // Check if right number of arguments given
+            if (args.length < 4 || args.length % 2 != 0) {
+                System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                System.exit(1);
+            }
+
+            // Parse the options
+            String savePath = null;
+            String baselinePath = null;
+            for (int i = 4; i < args.length; i += 2) {
+                if (args[i].equals("--save")) {
+                    savePath = args[i + 1];
+                } else if (args[i].equals("--baseline")) {
+                    baselinePath = args[i + 1];
+                } else {
+                    System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                    System.exit(1);
+                }
+            }
+
+            // Run the benchmarks
+            mySearchEngine.benchmark(args[1], args[2], args[3], savePath, baselinePath);
+        } else if (args[0].equals("serve")) {
+            // Check if right number of arguments given
+            if (args.length < 2) {
+                System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                System.exit(1);
+            }
+
+            // Parse port
+            int port = DEFAULT_PORT;
+            int option = 2;
+            if (args.length > 2 && !args[2].startsWith("--")) {
+                try {
+                    port = Integer.parseInt(args[2]);
+                } catch (Exception e) {
+                    port = -1;
+                }
+                if (port < 0 || port > 65535) {
+                    System.out.println("Error: Port must be a number from 0 to 65535.");
+                    System.exit(1);
+                }
+                option++;
+            }
+
+            // Parse the cache options
+            int cacheSize = DEFAULT_CACHE_SIZE;
+            ResultCache.Policy cachePolicy = ResultCache.Policy.LRU;
+            for (; option < args.length; option += 2) {
+                if (option + 1 >= args.length) {
+                    System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                    System.exit(1);
+                }
+
+                if (args[option].equals("--cache")) {
+                    try {
+                        cacheSize = Integer.parseInt(args[option + 1]);
+                    } catch (Exception e) {
+                        cacheSize = -1;
+                    }
+                    if (cacheSize < 0) {
+                        System.out.println("Error: Cache size must be a number of megabytes, or 0 for no cache.");
+                        System.exit(1);
+                    }
+                } else if (args[option].equals("--cache-policy")) {
+                    try {
+                        cachePolicy = ResultCache.Policy.valueOf(args[option + 1].toUpperCase());
+                    } catch (Exception e) {
+                        System.out.println("Error: Cache policy must be lru or lfu.");
+                        System.exit(1);
+                    }
+                } else {
+                    System.out.println("Error: Wrong arguments given. Type 'java MySearchEngine -h' for help.");
+                    System.exit(1);
+                }
+            }
+
+            // Start the server
+            ResultCache cache = cacheSize > 0 ? new ResultCache(cachePolicy, cacheSize * 1024L * 1024L) : null;
+            mySearchEngine.serve(args[1], port, cache);
         } else if (args[0].equals("-h")) {
-            System.out.println("=== Indexing ===: \nUsage: 'java MySearchEngine index COLLECTION_DIR INDEX_DIR STOPWORDS.TXT_PATH'\n\n" +
-                    "=== Searching ===: \nUsage: 'java MySearchEngine search INDEX_DIR NUMBER_OF_RESULTS KEYWORD1 [KEYWORD2 ... KEYWORDN]'\n\n" +
-                    "=== Help ===: \nQuerying: To use multiple words as one term, either type the words as capital case (e.g. Monash University), \nor enclose the words with escaped single quotes (e.g. \\'monash university\\')");
+            System.out.println("=== Indexing ===: \nUsage: 'java MySearchEngine index COLLECTION_DIR INDEX_DIR STOPWORDS.TXT_PATH [--threads NUMBER_OF_THREADS | --memory MEGABYTES] [--postings-memory MEGABYTES] [--incremental]'\n" +
+                    "Incremental indexing: With --incremental, only new, modified and deleted files are indexed, if the index already exists.\n" +
+                    "Postings memory: Postings are built off the heap, on every thread together, in up to --postings-memory megabytes. By default that is twice the --memory budget,\n" +
+                    "or otherwise seven eighths of the direct memory Java allows, which is " + (PostingsArena.Budget.getDirectMemoryLimit() >> 20) + " MB. Java's -XX:MaxDirectMemorySize must allow the postings memory.\n\n" +
+                    "=== Searching ===: \nUsage: 'java MySearchEngine search INDEX_DIR NUMBER_OF_RESULTS [--approximate] KEYWORD1 [KEYWORD2 ... KEYWORDN]'\n" +
+                    "Approximate searching: With --approximate, only the best " + IndexWriter.CHAMPION_LIST_SIZE + " documents of each term are scored, which is faster but can miss results. Rounds of relevance feedback are always exact.\n\n" +
+                    "=== Batch searching ===: \nUsage: 'java MySearchEngine batch INDEX_DIR QUERIES_FILE OUTPUT_FILE NUMBER_OF_RESULTS [--threads NUMBER_OF_THREADS] [--approximate] [--feedback NUMBER_OF_DOCUMENTS]'\n" +
+                    "Queries: One per line, optionally as QUERY_ID<tab>QUERY. Results: QUERY_ID<tab>RANK<tab>DOCUMENT<tab>SCORE per line\n" +
+                    "Feedback: With --feedback, the top documents of each query are taken as relevant, and the query is searched again with up to " + Searcher.DEFAULT_EXPANSION_TERMS + " of their terms added.\n" +
+                    "An approximate batch also reports how many of the exact top results it found.\n\n" +
+                    "=== Benchmarking ===: \nUsage: 'java MySearchEngine benchmark COLLECTION_DIR INDEX_DIR STOPWORDS.TXT_PATH [--save BASELINE_FILE] [--baseline BASELINE_FILE]'\n" +
+                    "The index must be of the collection. A baseline saved with --save can be compared with later runs using --baseline.\n\n" +
+                    "=== Serving ===: \nUsage: 'java MySearchEngine serve INDEX_DIR [PORT] [--cache MEGABYTES] [--cache-policy lru|lfu]'\n" +
+                    "Queries: GET http://localhost:PORT/search?q=QUERY&k=NUMBER_OF_RESULTS, with relevance feedback as &relevant=IDS&nonrelevant=IDS\n" +
+                    "and approximate searching as &approximate=true\n" +
+                    "Cache statistics: GET http://localhost:PORT/stats. Reload the index after updating it: POST http://localhost:PORT/reload\n" +
+                    "Metrics: GET http://localhost:PORT/metrics\n\n" +
+                    "=== Metrics ===: \nUsage: 'java MySearchEngine --metrics COMMAND ...' prints the counters and timings of each phase when the command ends.\n" +
+                    "Run with -XX:StartFlightRecording to record each document indexed and query searched as Flight Recorder events.\n\n" +
+                    "=== Help ===: \nQuerying: To search for words as a phrase, either type the words as capital case (e.g. Monash University), \nor enclose the words with escaped single quotes (e.g. \\'monash university\\'). Documents with the phrase rank higher than those with only some of its words.\n" +
+                    "Add ~N after the quotes to allow up to N other words between each word of the phrase (e.g. \\'monash university\\'~2).\n" +
+                    "Boolean queries: Use AND, OR and NOT in capitals, with brackets, to only find documents matching the query (e.g. architecture AND \\( gothic OR venetian \\) NOT ruskin).\n" +
+                    "Words without an operator between them must all be in a document. The documents found are ranked by the words that aren't negated.\n" +
+                    "Boolean queries are always searched exactly, even with --approximate.");
         } else {
             System.out.println("Error: Command not found. Type 'java MySearchEngine -h' for help.");
         }
     }
 
     // Index a collection at the specified path
-    private void index(String collectionPath, String indexPath, String stopwordsPath) {
+    // More than one thread indexes the documents in parallel, giving the same index
+    // A memory budget, in megabytes, writes the postings out in runs whenever they fill it, and merges the runs at the end
+    // A postings memory budget, in megabytes, is the most the postings can take off the heap, or 0 for the default
+    // An incremental index only indexes the files that have changed since the index was last written
+    private void index(String collectionPath, String indexPath, String stopwordsPath, int threads, int memory, int postingsMemory, boolean incremental) {
         // Get Indexer
         Indexer indexer = new Indexer(stopwordsPath);
+        if (postingsMemory > 0) {
+            indexer.setPostingsBudget(postingsMemory * 1024L * 1024L);
+        } else if (memory > 0) {
+            indexer.setPostingsBudget(Math.min(2 * memory * 1024L * 1024L + PostingsArena.SLAB_SIZE, PostingsArena.MAX_BUDGET));
+        }
 
         // Go through the collection path
         Path collection = Paths.get(collectionPath);
+        Path indexDirectory = Paths.get(indexPath);
 
         // Get number of files in the collection
         int tempNumberOfDocuments = 0;
@@ -101,159 +338,357 @@ public class MySearchEngine {
             System.exit(1);
         }
 
-        // Set up index file path
-        String indexFile = indexPath + "/index.txt";
+        // Log information to user
+        System.out.println("Indexing files in directory [" + collectionPath + "] to [" + indexPath + "]");
+        System.out.println("This may take a while...");
 
-        // Create folder if doesn't exist
-        if (!Files.exists(Paths.get(indexPath))) {
-            try {
-                Files.createDirectory(Paths.get(indexPath));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        // Walk through files at a path
+        // Adapted from: http://stackoverflow.com/a/1846349/6601606
+        List<Path> documentPaths = null;
+        try {
+            documentPaths = Files.walk(collection).filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (Exception e) {
+            System.out.println("Error: Collection directory doesn't contain any documents.");
+            System.exit(1);
         }
 
-        // Create file if doesn't exist
-        if (!Files.exists(Paths.get(indexFile))) {
-            try {
-                Files.createFile(Paths.get(indexFile));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        // Keep the stopwords with the index, so queries can leave them out too
+        try {
+            Files.createDirectories(indexDirectory);
+            Files.copy(Paths.get(stopwordsPath), indexDirectory.resolve(IndexFormat.STOPWORDS_FILE), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Error: Could not write the stopwords to the index. " + e.getMessage());
+            System.exit(1);
         }
 
-        // Empty the file
+        if (incremental && IndexSegments.exists(indexDirectory)) {
+            this.update(indexer, collection, documentPaths, indexDirectory, numberOfDocuments, threads, memory);
+            return;
+        }
+
+        // Replace whatever index was there before
         try {
-            Files.write(Paths.get(indexFile), "".getBytes());
+            IndexSegments.clear(indexDirectory);
         } catch (IOException e) {
             e.printStackTrace();
+            System.exit(1);
         }
 
-        // Log information to user
-        System.out.println("Indexing files in directory [" + collectionPath + "] to [" + indexFile + "]");
-        System.out.println("This may take a while...");
+        this.writeSegment(indexer, collection, documentPaths, indexDirectory, numberOfDocuments, threads, memory);
 
-        // Walk through files at a path
-        // Adapted from: http://stackoverflow.com/a/1846349/6601606
+        System.out.println("Indexing complete! The index has been written to: [" + indexPath + "]");
+        this.printStemCacheStatistics();
+    }
+
+    // Updates an index with the files of the collection that have changed
+    // New and modified files go into a new segment, and segments are merged in the background once there are too many
+    private void update(Indexer indexer, Path collection, List<Path> documentPaths, Path indexDirectory, int numberOfDocuments, int threads, int memory) {
+        IndexUpdater updater = null;
         try {
-            Files.walk(collection).forEachOrdered(documentPath -> {
-                if (Files.isRegularFile(documentPath)) {
-                    // Tokenise a document
-                    ArrayList<String> tokens = indexer.tokeniseDocument(documentPath);
-
-                    // Index a document
-                    // Removes commas from file names
-                    indexer.indexDocument(documentPath.getFileName().toString().replace(",", ""), tokens);
-                }
-            });
+            updater = IndexUpdater.open(indexDirectory, collection, documentPaths);
+        } catch (IOException e) {
+            System.out.println("Error: Could not update the index. " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println("Found " + updater.getAddedDocuments() + " new, " + updater.getModifiedDocuments() + " modified and "
+                + updater.getDeletedDocuments() + " deleted documents.");
+
+        try {
+            if (!updater.hasChanges()) {
+                System.out.println("The index is already up to date.");
+                updater.close();
+                return;
+            }
+
+            boolean addNewSegment = !updater.getDocumentsToIndex().isEmpty();
+            if (addNewSegment) {
+                this.writeSegment(indexer, collection, updater.getDocumentsToIndex(), updater.getNewSegmentDirectory(), numberOfDocuments, threads, memory);
+            }
+            updater.commit(addNewSegment, numberOfDocuments);
+
+            System.out.println("Indexing complete! The index has been updated at: [" + indexDirectory + "]");
+            this.printStemCacheStatistics();
 
-            // Write index to file
+            // The updated index can already be searched while the segments are merged
+            // Closing the updater waits for the merge, and only then releases the lock
+            boolean merging = updater.isMergeNeeded();
+            if (merging) {
+                System.out.println("Merging " + updater.getNumberOfSegments() + " segments in the background...");
+                updater.mergeInBackground();
+            }
             try {
-                // Write an entry to the index file for each term
-                indexer.getIndex().forEach((term, posting) -> {
-                    // Create a string for each document listing
-                    StringBuilder sb = new StringBuilder();
-                    posting.forEach((document, occurrences) -> {
-                        sb.append(document + "," + occurrences + ",");
-                    });
-
-                    // Compute IDF for the term
-                    double idf = indexer.computeIDF(posting, numberOfDocuments);
-
-                    // Round to 3 decimal places
-                    // Source: http://stackoverflow.com/a/153785/6601606
-                    DecimalFormat df = new DecimalFormat("#.###");
-                    df.setRoundingMode(RoundingMode.CEILING);
+                updater.close();
+                if (merging) {
+                    System.out.println("Merged the index into a single segment.");
+                }
+            } catch (IOException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
 
-                    try {
-                        Files.write(Paths.get(indexFile), (term + "," + sb.toString() + df.format(idf) + "\n").getBytes(), StandardOpenOption.APPEND);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
+    // Indexes documents and writes them to a segment directory
+    private void writeSegment(Indexer indexer, Path collection, List<Path> documentPaths, Path segmentDirectory, int numberOfDocuments, int threads, int memory) {
+        try {
+            // Record the files as they are before they are read
+            DocumentSources sources = DocumentSources.of(collection, documentPaths);
+
+            if (threads > 1) {
+                // Index the documents on multiple threads
+                new ParallelIndexer(indexer, threads).index(documentPaths);
+            } else if (memory == 0) {
+                for (Path documentPath : documentPaths) {
+                    // Tokenise and index a document
+                    indexer.indexDocument(Indexer.getDocumentName(documentPath), documentPath);
+                }
+            }
 
-                System.out.println("Indexing complete! You can view the inverted file at: [" + indexFile + "]");
-            } catch (Exception e) {
-                e.printStackTrace();
+            // Write index to disk
+            if (memory > 0) {
+                // Index the documents in blocks, then merge the blocks into the index
+                SpimiIndexer spimiIndexer = new SpimiIndexer(indexer, memory * 1024L * 1024L, segmentDirectory);
+                for (Path documentPath : documentPaths) {
+                    spimiIndexer.indexDocument(Indexer.getDocumentName(documentPath), documentPath);
+                }
+
+                try (IndexWriter writer = new IndexWriter(segmentDirectory, numberOfDocuments, indexer.getDocuments())) {
+                    spimiIndexer.writeIndex(writer, numberOfDocuments);
+                }
+                System.out.println("Merged " + spimiIndexer.getNumberOfRuns() + " runs into the index.");
+            } else {
+                System.out.println(String.format("Indexed %d terms and %d postings in memory, using about %.1f bytes per posting, %.1f MB of them off the heap.",
+                        indexer.getNumberOfTerms(), indexer.getNumberOfPostings(), indexer.getMemoryPerPosting(), indexer.getOffHeapMemoryUsage() / 1e6));
+                try (IndexWriter writer = new IndexWriter(segmentDirectory, numberOfDocuments, indexer.getDocuments())) {
+                    indexer.writeIndex(writer, numberOfDocuments);
+                }
+            }
+
+            sources.write(segmentDirectory);
+        } catch (IllegalStateException e) {
+            // The postings used up their budget, possibly on another thread, which wraps the exception
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
             }
+            System.out.println("Error: Could not index the collection. " + cause.getMessage() + ", so give --postings-memory more.");
+            System.exit(1);
         } catch (Exception e) {
-            System.out.println("Error: Collection directory doesn't contain any documents.");
+            e.printStackTrace();
             System.exit(1);
         }
     }
 
-    // Search an index at the specified location with a query
-    private void search(String indexPath, int numberOfResults, String queryString) {
-        System.out.println("Searching for query: '" + queryString + "' in [" + indexPath + "]...");
+    // Report how often stems were found in the cache
+    private void printStemCacheStatistics() {
+        StemCache stemCache = StemCache.getShared();
+        System.out.println(String.format("Stem cache hit rate: %.1f%% (%d hits, %d misses)",
+                stemCache.getHitRate() * 100, stemCache.getHits(), stemCache.getMisses()));
+    }
 
-        // Read the index
-        List<String> indexRows = new ArrayList<>();
+    // Open the index at the specified location, quitting if it can't be read
+    private static IndexReader openIndex(String indexPath) {
+        IndexReader index = null;
         try {
-            indexRows = Files.readAllLines(Paths.get(indexPath + "/index.txt"));
-        } catch (Exception e) {
+            index = IndexReader.open(Paths.get(indexPath));
+        } catch (NoSuchFileException e) {
             System.out.println("Error: Index doesn't exist at the specified location.");
             System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Error: Could not read the index. " + e.getMessage());
+            System.exit(1);
         }
 
+        return index;
+    }
+
+    // Search an index at the specified location with a query
+    // An approximate search only reads the champion lists of the query terms
+    // A query with AND, OR or NOT is searched as a boolean query, which is always exact
+    private void search(String indexPath, int numberOfResults, String queryString, boolean approximate) {
+        System.out.println("Searching for query: '" + queryString + "' in [" + indexPath + "]...");
+
         // Create new searcher object with the index
-        Searcher searcher = new Searcher(indexRows);
+        Searcher searcher = new Searcher(openIndex(indexPath));
 
-        // Get new indexer object so we can pre-process the query string
-        Indexer indexer = new Indexer();
+        // Get new indexer object so we can pre-process the query string as the documents were
+        Indexer indexer = new Indexer(searcher.getIndex().getStopwords());
 
-        // Tokenise the query
-        ArrayList<String> queryTokens = indexer.tokeniseQuery(queryString);
+        // Tokenise the query, and find its phrases
+        // A boolean query ranks the documents it matches by the words that aren't negated
+        BooleanQuery booleanQuery = null;
+        ArrayList<String> queryTokens;
+        ArrayList<Phrase> phrases;
+        if (BooleanQuery.isBoolean(queryString)) {
+            try {
+                booleanQuery = BooleanQuery.parse(queryString, indexer);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+            queryTokens = booleanQuery.getTerms();
+            phrases = booleanQuery.getPhrases();
+        } else {
+            queryTokens = indexer.tokeniseQuery(queryString);
+            phrases = indexer.findPhrases(queryString);
+        }
 
         // Create a query vector
-        List<Double> queryVector = searcher.createQueryVector(queryTokens);
+        SparseVector queryVector = searcher.createQueryVector(queryTokens, phrases);
 
         // Do the search
-        performSearch(searcher, queryVector, numberOfResults);
+        performSearch(searcher, booleanQuery, queryVector, numberOfResults, approximate);
+    }
+
+    // Search an index at the specified location with every query in a file, writing the results to another file
+    // With feedback documents, each query's top results are taken as relevant and it is searched again
+    private void batch(String indexPath, String queriesPath, String outputPath, int numberOfResults, int threads, boolean approximate, int feedbackDocuments) {
+        // Read the queries
+        List<String[]> queries = null;
+        try {
+            queries = BatchSearcher.readQueries(Paths.get(queriesPath));
+        } catch (IOException e) {
+            System.out.println("Error: Could not read the queries file.");
+            System.exit(1);
+        }
+
+        BatchSearcher batchSearcher = new BatchSearcher(new Searcher(openIndex(indexPath)), threads, approximate, feedbackDocuments);
+        System.out.println("Running " + queries.size() + " queries from [" + queriesPath + "] on " + threads + " threads...");
+
+        // Run the queries
+        BatchSearcher.Report report = null;
+        try {
+            report = batchSearcher.run(queries, numberOfResults, Paths.get(outputPath));
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println("Batch complete! The results have been written to: [" + outputPath + "]");
+        System.out.println(String.format("%d queries in %.3f s: %.1f queries per second",
+                report.getNumberOfQueries(), report.getElapsedSeconds(), report.getQueriesPerSecond()));
+        System.out.println(String.format("Latency (ms): p50 %.3f, p90 %.3f, p99 %.3f, max %.3f",
+                report.getLatencyPercentile(50), report.getLatencyPercentile(90),
+                report.getLatencyPercentile(99), report.getLatencyPercentile(100)));
+        if (approximate) {
+            System.out.println(String.format("Overlap with the exact top %d: %.1f%% on average", numberOfResults, report.getMeanOverlap() * 100));
+        }
+    }
+
+    // Benchmark indexing and searching with text from a collection and its index
+    // Results can be saved as a baseline, or compared with a baseline, quitting with an error if they have regressed
+    private void benchmark(String collectionPath, String indexPath, String stopwordsPath, String savePath, String baselinePath) {
+        Benchmark benchmark = new Benchmark(Paths.get(collectionPath), stopwordsPath, openIndex(indexPath));
+        System.out.println("Benchmarking with the documents in [" + collectionPath + "]...");
+
+        boolean regressed = false;
+        try {
+            List<Benchmark.Result> results = benchmark.run();
+
+            if (savePath != null) {
+                Benchmark.save(results, Paths.get(savePath));
+                System.out.println("Baseline saved to: [" + savePath + "]");
+            }
+            if (baselinePath != null) {
+                System.out.println("\n===== Compared with the baseline in [" + baselinePath + "]: =====");
+                regressed = Benchmark.compare(results, Paths.get(baselinePath));
+            }
+        } catch (IOException e) {
+            System.out.println("Error: Could not run the benchmarks. " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    // Serve queries over HTTP from an index at the specified location
+    // Results are cached if there is a cache
+    private void serve(String indexPath, int port, ResultCache cache) {
+        SearchServer server = null;
+        try {
+            server = new SearchServer(Paths.get(indexPath), port, cache);
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: Index doesn't exist at the specified location.");
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Error: Could not start the server. " + e.getMessage());
+            System.exit(1);
+        }
+
+        server.start();
+        System.out.println("Serving the index in [" + indexPath + "] at http://localhost:" + server.getPort() + "/search?q=QUERY");
     }
 
     // Does the calculations and performs the search, printing out the results
-    private void performSearch(Searcher searcher, List<Double> queryVector, int numberOfResults) {
-        // Compute cosine similarity for each document and the query
-        HashMap<String, List<Double>> documentVectors = searcher.getVectors();
-        HashMap<String, Double> rankedResults = new HashMap<>();
-
-        documentVectors.forEach((documentName, documentVector) -> {
-            double cosineSim = searcher.computeCosineSimilarity(queryVector, documentVector);
-
-            // Added to hashmap
-            rankedResults.put(documentName, cosineSim);
-        });
-
-        // Sort the hashmap
-        // Source :http://stackoverflow.com/a/19671853/6601606
-        Map<String, Double> sortedResults =
-                rankedResults.entrySet().stream()
-                        .sorted(Map.Entry.comparingByValue(Collections.reverseOrder()))
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                                (e1, e2) -> e1, LinkedHashMap::new));
+    // Only documents matching the boolean query are found, if there is one
+    // Rounds of relevance feedback share a session, so each only rescores the terms whose weights changed
+    private void performSearch(Searcher searcher, BooleanQuery booleanQuery, SparseVector queryVector, int numberOfResults, boolean approximate) {
+        // Find the top documents by cosine similarity
+        TopKCollector results;
+        if (booleanQuery != null) {
+            results = searcher.search(booleanQuery, queryVector, numberOfResults);
+        } else if (approximate) {
+            results = searcher.searchApproximately(queryVector, numberOfResults);
+        } else {
+            results = searcher.search(queryVector, numberOfResults);
+        }
+
+        FeedbackSession session = null;
+        Scanner scanner = new Scanner(System.in);
+        while (true) {
+            int resultsToPrint = printResults(searcher, results, numberOfResults);
+
+            // Ask the user if they wish to provide relevance feedback
+            System.out.print("\nWould you like to perform relevance feedback for a better set of results? (y/n): ");
+            char answer = scanner.next().charAt(0);
+            if (answer != 'y') {
+                System.exit(0);
+            }
+
+            // Ask whether each shown document is relevant
+            Set<Integer> relevant = new HashSet<>();
+            Set<Integer> nonRelevant = new HashSet<>();
+            for (int i = 0; i < resultsToPrint; i++) {
+                int document = results.getDocument(i);
+                System.out.print("Is the document '" + searcher.getIndex().getDocumentName(document) + "' relevant? (y/n): ");
+                if (scanner.next().charAt(0) == 'y') {
+                    relevant.add(document);
+                } else {
+                    nonRelevant.add(document);
+                }
+            }
 
+            // Do relevance feedback, scoring the original query in full the first time
+            if (session == null) {
+                session = new FeedbackSession(searcher, booleanQuery, queryVector);
+            }
+            session.performRelevanceFeedback(relevant, nonRelevant);
+
+            // Rank the documents with the new query
+            results = session.getResults(numberOfResults);
+        }
+    }
+
+    // Prints out the top results, returning how many were printed
+    private int printResults(Searcher searcher, TopKCollector results, int numberOfResults) {
         // Format the cosine sim
         DecimalFormat df = new DecimalFormat("#.###");
         df.setRoundingMode(RoundingMode.CEILING);
 
-        // Add sorted results to an array
-        ArrayList<String> sortedResultsArray = new ArrayList<>();
-        sortedResults.forEach((documentName, cosineSim) -> {
-            // Only add if word exists in the document
-            if (cosineSim > 0.0) {
-                sortedResultsArray.add(documentName + "," + df.format(cosineSim));
-            }
-        });
-
         // Show message if not enough results found
         int resultsToPrint = numberOfResults;
-        if (sortedResultsArray.size() < numberOfResults) {
-            resultsToPrint = sortedResultsArray.size();
-            if (sortedResultsArray.size() == 0) {
+        if (results.size() < numberOfResults) {
+            resultsToPrint = results.size();
+            if (results.size() == 0) {
                 System.out.println("Sorry, no results could be found matching your query. Please try again.");
                 System.exit(0);
             } else {
-                System.out.println("You requested " + numberOfResults + " results, but only " + sortedResultsArray.size() + " results were found matching your query:");
+                System.out.println("You requested " + numberOfResults + " results, but only " + results.size() + " results were found matching your query:");
             }
         } else {
             System.out.println("\n===== Showing top " + numberOfResults + " results: =====");
@@ -261,33 +696,9 @@ public class MySearchEngine {
 
         // Print out top results
         for (int i = 0; i < resultsToPrint; i++) {
-            System.out.println(sortedResultsArray.get(i));
+            System.out.println(searcher.getIndex().getDocumentName(results.getDocument(i)) + "," + df.format(results.getScore(i)));
         }
 
-        // Ask the user if they wish to provide relevance feedback
-        System.out.print("\nWould you like to perform relevance feedback for a better set of results? (y/n): ");
-        Scanner scanner = new Scanner(System.in);
-        char answer = scanner.next().charAt(0);
-        if (answer == 'y') {
-            // Add the document vectors to a map
-            HashMap<String, List<Double>> resultVectors = new HashMap<>();
-            int vectorsToAdd = resultsToPrint;
-            sortedResults.forEach((documentName, cosineSim) -> {
-                // Only add if word exists in the document
-                if (cosineSim > 0.0) {
-                    if (resultVectors.size() < vectorsToAdd) {
-                        resultVectors.put(documentName, documentVectors.get(documentName));
-                    }
-                }
-            });
-
-            // Do relevance feedback
-            List<Double> newQueryVector = searcher.performRelevanceFeedback(resultVectors, queryVector);
-
-            // Perform a new search
-            performSearch(searcher, newQueryVector, numberOfResults);
-        } else {
-            System.exit(0);
-        }
+        return resultsToPrint;
     }
 }
\ No newline at end of file
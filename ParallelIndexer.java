@@ -0,0 +1,73 @@
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Indexes a collection on several threads.
+ *
+ * The list of documents is split recursively with fork-join. Each piece is tokenised
+ * and indexed into its own partial Indexer, and the partial indexes are merged back
+ * together in collection order, so the result is the same as indexing sequentially.
+ */
+public class ParallelIndexer {
+
+    // Properties
+    private final Indexer indexer;
+    private final int threads;
+
+    public ParallelIndexer(Indexer indexer, int threads) {
+        this.indexer = indexer;
+        this.threads = threads;
+    }
+
+    // Indexes the documents, in order, into the indexer
+    public void index(List<Path> documentPaths) {
+        // Split into a few pieces per thread so the work can be balanced between them
+        int piece = Math.max(1, documentPaths.size() / (this.threads * 4));
+
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            Indexer partial = pool.invoke(new IndexTask(documentPaths, piece));
+            this.indexer.merge(partial);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Indexes a range of documents into a partial index
+    // Tasks are never serialised, though RecursiveTask is Serializable
+    @SuppressWarnings("serial")
+    private class IndexTask extends RecursiveTask<Indexer> {
+
+        private final List<Path> documentPaths;
+        private final int piece;
+
+        IndexTask(List<Path> documentPaths, int piece) {
+            this.documentPaths = documentPaths;
+            this.piece = piece;
+        }
+
+        @Override
+        protected Indexer compute() {
+            // Index small ranges directly
+            if (this.documentPaths.size() <= this.piece) {
+                Indexer partial = indexer.createPartialIndexer();
+                for (Path documentPath : this.documentPaths) {
+                    partial.indexDocument(Indexer.getDocumentName(documentPath), documentPath);
+                }
+                return partial;
+            }
+
+            // Otherwise split the range in two, and merge the right half into the left
+            int middle = this.documentPaths.size() / 2;
+            IndexTask left = new IndexTask(this.documentPaths.subList(0, middle), this.piece);
+            IndexTask right = new IndexTask(this.documentPaths.subList(middle, this.documentPaths.size()), this.piece);
+            right.fork();
+            Indexer leftIndex = left.compute();
+            leftIndex.merge(right.join());
+
+            return leftIndex;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.util.Arrays;
+
+/**
+ * A phrase in a query: words that must be found in order in a document, such as a name.
+ *
+ * Phrases are found with the term positions stored in the index. The documents holding
+ * every word of the phrase are found by intersecting the words' postings, then the
+ * positions of the words in each of those documents are checked against their positions
+ * in the query. Stopwords aren't indexed but still take up a position, so the phrase is
+ * analysed with the index's stopwords, and 'queen of scots' is found wherever "queen" is
+ * two positions before "scot". A phrase with a word that isn't in the index is in no document.
+ *
+ * A proximity phrase has some slop: each word may be up to that many positions further
+ * from the word before it than it is in the query.
+ *
+ * A phrase is scored as an extra query term, with the number of times it is found in a
+ * document as its tf, and its idf worked out from the number of documents it is found in.
+ *
+ * The documents a phrase is in can also be found one at a time, as a boolean query does, so
+ * only the documents its other operands lead to are checked.
+ */
+public class Phrase {
+
+    // Properties
+    private final String[] terms;
+    private final int[] offsets;
+    private final int slop;
+
+    // Creates a phrase from its terms and the position of each relative to the first
+    public Phrase(String[] terms, int[] offsets, int slop) {
+        if (terms.length != offsets.length) {
+            throw new IllegalArgumentException("Every term of a phrase needs an offset");
+        }
+
+        this.terms = terms;
+        this.offsets = offsets;
+        this.slop = slop;
+    }
+
+    // Finds every document the phrase is in, with the number of times it's found in each
+    public Matches match(IndexReader index) {
+        PostingsList matches = new PostingsList();
+        double maximumNormalisedFrequency = 0.0;
+        PostingsIterator postings = this.iterator(index);
+        while (postings.next()) {
+            matches.add(postings.getDocumentId(), postings.getFrequency());
+
+            // Documents without a length can't be scored
+            double length = index.getDocumentLength(postings.getDocumentId());
+            if (length > 0) {
+                maximumNormalisedFrequency = Math.max(maximumNormalisedFrequency, postings.getFrequency() / length);
+            }
+        }
+
+        double idf = Indexer.roundIDF(Indexer.computeIDF(matches.getDocumentFrequency(), index.getCollectionSize()));
+        return new Matches(this, matches, idf, maximumNormalisedFrequency);
+    }
+
+    // Finds the documents the phrase is in as they are read, with the number of times it's found in each as the tf
+    public PostingsIterator iterator(IndexReader index) {
+        // A phrase with a term that isn't in the index, or only in deleted documents, is in no document
+        PostingsIterator[] postings = new PostingsIterator[this.terms.length];
+        for (int i = 0; i < this.terms.length; i++) {
+            int term = index.findTerm(this.terms[i]);
+            if (term < 0) {
+                return new PostingsList().iterator();
+            }
+
+            postings[i] = index.getPositionalPostings(term);
+            if (!postings[i].next()) {
+                return new PostingsList().iterator();
+            }
+        }
+
+        return new MatchIterator(postings, this.offsets);
+    }
+
+    // Whether the terms from the i-th on can be found after the term before them, at the given position
+    private boolean matchesFrom(int i, int previous, int[] offsets, int[][] positions, int[] counts, int size) {
+        if (i == size) {
+            return true;
+        }
+
+        // Every position the term may be at, given where the term before it is
+        int lowest = previous + offsets[i] - offsets[i - 1];
+        int highest = lowest + this.slop;
+
+        int j = Arrays.binarySearch(positions[i], 0, counts[i], lowest);
+        for (j = j < 0 ? -j - 1 : j; j < counts[i] && positions[i][j] <= highest; j++) {
+            if (this.matchesFrom(i + 1, positions[i][j], offsets, positions, counts, size)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The documents a phrase is in, found by intersecting its terms' positional postings and
+     * checking their positions in each document they all have, one document at a time.
+     */
+    private final class MatchIterator extends PostingsIterator {
+
+        private final PostingsIterator[] postings;
+        private final int[] offsets;
+        private final int[][] positions;
+        private final int[] counts;
+        private boolean started;
+        private boolean exhausted;
+        private int document;
+        private int frequency;
+
+        // The postings must each be on their first document
+        MatchIterator(PostingsIterator[] postings, int[] offsets) {
+            this.postings = postings;
+            this.offsets = offsets;
+            this.positions = new int[postings.length][8];
+            this.counts = new int[postings.length];
+            this.document = -1;
+        }
+
+        @Override
+        public boolean next() {
+            if (this.exhausted) {
+                return false;
+            }
+            if (!this.started) {
+                this.started = true;
+            } else if (!this.postings[0].next()) {
+                return this.exhaust();
+            }
+
+            return this.find(this.postings[0].getDocumentId());
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (this.exhausted) {
+                return false;
+            }
+            if (this.document >= target) {
+                return true;
+            }
+            if (!this.postings[0].advance(target)) {
+                return this.exhaust();
+            }
+
+            return this.find(this.postings[0].getDocumentId());
+        }
+
+        // Finds the first document the phrase is in, from the given document on
+        private boolean find(int document) {
+            // Intersect the postings, moving every list up to the highest document any of them is on
+            search:
+            while (true) {
+                for (int i = 0; i < this.postings.length; i++) {
+                    if (this.postings[i].getDocumentId() < document && !this.postings[i].advance(document)) {
+                        return this.exhaust();
+                    }
+                    if (this.postings[i].getDocumentId() > document) {
+                        document = this.postings[i].getDocumentId();
+                        continue search;
+                    }
+                }
+
+                // Every term is in the document, so check their positions
+                for (int i = 0; i < this.postings.length; i++) {
+                    if (this.positions[i].length < this.postings[i].getFrequency()) {
+                        this.positions[i] = new int[Math.max(this.postings[i].getFrequency(), 2 * this.positions[i].length)];
+                    }
+                    this.counts[i] = this.postings[i].getPositions(this.positions[i]);
+                }
+
+                int frequency = 0;
+                for (int j = 0; j < this.counts[0]; j++) {
+                    if (matchesFrom(1, this.positions[0][j], this.offsets, this.positions, this.counts, this.postings.length)) {
+                        frequency++;
+                    }
+                }
+                if (frequency > 0) {
+                    this.document = document;
+                    this.frequency = frequency;
+                    return true;
+                }
+
+                if (!this.postings[0].next()) {
+                    return this.exhaust();
+                }
+                document = this.postings[0].getDocumentId();
+            }
+        }
+
+        private boolean exhaust() {
+            this.exhausted = true;
+            this.document = Integer.MAX_VALUE;
+            return false;
+        }
+
+        @Override
+        public int getDocumentId() {
+            return this.document;
+        }
+
+        @Override
+        public int getFrequency() {
+            return this.frequency;
+        }
+    }
+
+    // The phrase as it could be typed in a query, with a '_' in place of each word not indexed in between
+    @Override
+    public String toString() {
+        StringBuilder phrase = new StringBuilder("'");
+        for (int i = 0; i < this.terms.length; i++) {
+            if (i > 0) {
+                phrase.append(' ');
+                for (int gap = this.offsets[i - 1] + 1; gap < this.offsets[i]; gap++) {
+                    phrase.append("_ ");
+                }
+            }
+            phrase.append(this.terms[i]);
+        }
+        phrase.append('\'');
+        if (this.slop > 0) {
+            phrase.append('~').append(this.slop);
+        }
+
+        return phrase.toString();
+    }
+
+    /**
+     * Accessors
+     */
+    public int size() {
+        return this.terms.length;
+    }
+
+    public String getTerm(int i) {
+        return this.terms[i];
+    }
+
+    public int getSlop() {
+        return this.slop;
+    }
+
+    /**
+     * Where a phrase was found in an index: the documents it's in, and the number of times
+     * it's in each, as a postings list. A phrase is given an idf, and a bound for searches
+     * that skip documents, just as a term is in the dictionary.
+     */
+    public static final class Matches {
+
+        private final Phrase phrase;
+        private final PostingsList postings;
+        private final double idf;
+        private final double maximumNormalisedFrequency;
+
+        Matches(Phrase phrase, PostingsList postings, double idf, double maximumNormalisedFrequency) {
+            this.phrase = phrase;
+            this.postings = postings;
+            this.idf = idf;
+            this.maximumNormalisedFrequency = maximumNormalisedFrequency;
+        }
+
+        public Phrase getPhrase() {
+            return this.phrase;
+        }
+
+        // Gets an iterator over the documents the phrase is in
+        public PostingsIterator getPostings() {
+            return this.postings.iterator();
+        }
+
+        public int getDocumentFrequency() {
+            return this.postings.getDocumentFrequency();
+        }
+
+        public double getIDF() {
+            return this.idf;
+        }
+
+        // Largest number of times the phrase is in a document divided by the document's length
+        public double getMaximumNormalisedFrequency() {
+            return this.maximumNormalisedFrequency;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * The lengths of documents with a query's phrases counted as dimensions.
+ *
+ * A phrase is a dimension of the query vector, but not of the document vectors whose
+ * lengths are stored in the index, which only count terms. A document containing a phrase
+ * has the phrase's tf.idf weight as well, so for its score to be a cosine similarity, that
+ * weight has to be counted in its length too. Adding dimensions can only make a document
+ * longer, so bounds worked out from the stored lengths still hold.
+ *
+ * The phrases' matches are already in memory, so the squared weights of each document's
+ * phrases are summed up front, sorted by document to be binary searched.
+ */
+public final class PhraseNorms {
+
+    // Properties
+    private final IndexReader index;
+    private final int[] documents;
+    private final double[] lengthsSquared;
+    private final int size;
+
+    public PhraseNorms(IndexReader index, SparseVector query) {
+        this.index = index;
+
+        // Pack each match's document with its place in the list, so they can be sorted together
+        int count = 0;
+        for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+            count += query.getPhrase(i).getDocumentFrequency();
+        }
+        long[] order = new long[count];
+        double[] squares = new double[count];
+        int match = 0;
+        for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+            double idf = query.getPhrase(i).getIDF();
+            PostingsIterator postings = query.getPhrase(i).getPostings();
+            while (postings.next()) {
+                double w = postings.getFrequency() * idf;
+                order[match] = ((long) postings.getDocumentId() << 32) | match;
+                squares[match] = w * w;
+                match++;
+            }
+        }
+        Arrays.sort(order);
+
+        // Sum the squares of each document's phrases
+        this.documents = new int[count];
+        this.lengthsSquared = new double[count];
+        int size = 0;
+        for (long entry : order) {
+            int document = (int) (entry >>> 32);
+            if (size == 0 || this.documents[size - 1] != document) {
+                this.documents[size++] = document;
+            }
+            this.lengthsSquared[size - 1] += squares[(int) entry];
+        }
+        this.size = size;
+    }
+
+    // Gets the length of a document's vector, counting the dimensions of the query's phrases it contains
+    public double getDocumentLength(int document) {
+        double length = this.index.getDocumentLength(document);
+        if (this.size == 0) {
+            return length;
+        }
+
+        int i = Arrays.binarySearch(this.documents, 0, this.size, document);
+        return i >= 0 ? Math.sqrt(length * length + this.lengthsSquared[i]) : length;
+    }
+}
@@ -0,0 +1,319 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Off-heap memory for building byte streams, such as postings lists, while indexing.
+ *
+ * Memory is taken from the operating system in slabs of direct ByteBuffers, which the
+ * garbage collector never has to copy or scan. Each stream is a chain of blocks carved out
+ * of the slabs. A stream's first block is small, and each following block is twice the size
+ * of the one before, up to a limit, so short streams waste little and long ones need few
+ * blocks. The last 4 bytes of each block hold the address of the next block, in units of
+ * the smallest block size.
+ *
+ * Slabs are taken from a budget, which can be shared by several arenas and is a hard limit
+ * on the bytes they hold in slabs together: taking another slab beyond it throws an
+ * IllegalStateException. Direct memory also counts against the JVM's
+ * -XX:MaxDirectMemorySize, which must be at least the budget.
+ *
+ * Clearing the arena keeps its slabs to be used again, while releasing it gives them back
+ * to the budget for other arenas.
+ */
+public final class PostingsArena {
+
+    // Size of each slab
+    public static final int SLAB_SIZE = 1 << 20;
+    private static final int SLAB_SHIFT = 20;
+
+    // Block sizes go up in powers of two from the smallest to the largest
+    private static final int MIN_BLOCK_SHIFT = 4;
+    private static final int MAX_BLOCK_LEVEL = 11;
+
+    // Bytes at the end of each block holding the address of the next one
+    private static final int POINTER_SIZE = 4;
+
+    // Addresses are ints in units of the smallest block, so the arena can't hold more than this
+    public static final long MAX_BUDGET = (1L << 31) << MIN_BLOCK_SHIFT;
+
+    // Properties
+    private final Budget budget;
+    private ByteBuffer[] slabs;
+    private int numberOfSlabs;
+    private long allocated;
+
+    // By stream, its first block, where its next byte goes, where its last block's data ends,
+    // the level of its last block and its length
+    private int[] heads;
+    private long[] positions;
+    private long[] ends;
+    private byte[] levels;
+    private int[] lengths;
+    private int numberOfStreams;
+
+    // Creates an arena taking its slabs from a budget
+    public PostingsArena(Budget budget) {
+        this.budget = budget;
+        this.slabs = new ByteBuffer[16];
+        this.heads = new int[64];
+        this.positions = new long[64];
+        this.ends = new long[64];
+        this.levels = new byte[64];
+        this.lengths = new int[64];
+    }
+
+    // Starts a new, empty stream, returning its id
+    public int createStream() {
+        if (this.numberOfStreams == this.heads.length) {
+            int capacity = 2 * this.numberOfStreams;
+            this.heads = Arrays.copyOf(this.heads, capacity);
+            this.positions = Arrays.copyOf(this.positions, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+            this.levels = Arrays.copyOf(this.levels, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+        }
+
+        int stream = this.numberOfStreams++;
+        long block = this.allocate(0);
+        this.heads[stream] = (int) (block >>> MIN_BLOCK_SHIFT);
+        this.positions[stream] = block;
+        this.ends[stream] = block + blockSize(0) - POINTER_SIZE;
+        this.levels[stream] = 0;
+        this.lengths[stream] = 0;
+
+        return stream;
+    }
+
+    // Writes a byte to the end of a stream
+    public void write(int stream, int b) {
+        long position = this.positions[stream];
+        if (position == this.ends[stream]) {
+            position = this.nextBlock(stream);
+        }
+
+        this.slabs[(int) (position >>> SLAB_SHIFT)].put((int) (position & (SLAB_SIZE - 1)), (byte) b);
+        this.positions[stream] = position + 1;
+        this.lengths[stream]++;
+    }
+
+    // Writes a variable-byte encoded number to the end of a stream, as in PostingsList
+    public void writeVByte(int stream, int value) {
+        while ((value & ~0x7F) != 0) {
+            this.write(stream, (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.write(stream, value);
+    }
+
+    // Writes bytes from an array to the end of a stream
+    public void write(int stream, byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            long position = this.positions[stream];
+            if (position == this.ends[stream]) {
+                position = this.nextBlock(stream);
+            }
+
+            // Copy as much as fits in the stream's last block
+            int count = (int) Math.min(length, this.ends[stream] - position);
+            ByteBuffer slab = this.slabs[(int) (position >>> SLAB_SHIFT)];
+            slab.put((int) (position & (SLAB_SIZE - 1)), bytes, offset, count);
+
+            this.positions[stream] = position + count;
+            this.lengths[stream] += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    // Reads the whole of a stream into an array, which must have room for getLength(stream) bytes
+    public void read(int stream, byte[] bytes) {
+        long block = (long) this.heads[stream] << MIN_BLOCK_SHIFT;
+        int level = 0;
+        int offset = 0;
+        int length = this.lengths[stream];
+        while (true) {
+            int count = Math.min(length - offset, blockSize(level) - POINTER_SIZE);
+            ByteBuffer slab = this.slabs[(int) (block >>> SLAB_SHIFT)];
+            int slabOffset = (int) (block & (SLAB_SIZE - 1));
+            slab.get(slabOffset, bytes, offset, count);
+            offset += count;
+            if (offset == length) {
+                return;
+            }
+
+            // Follow the pointer at the end of the block
+            block = (long) slab.getInt(slabOffset + blockSize(level) - POINTER_SIZE) << MIN_BLOCK_SHIFT;
+            level = Math.min(level + 1, MAX_BLOCK_LEVEL);
+        }
+    }
+
+    // Removes every stream, keeping the slabs to use again
+    public void clear() {
+        this.numberOfStreams = 0;
+        this.allocated = 0;
+    }
+
+    // Removes every stream, giving the slabs back to the budget
+    public void release() {
+        for (int i = 0; i < this.numberOfSlabs; i++) {
+            this.budget.giveBack(this.slabs[i]);
+            this.slabs[i] = null;
+        }
+        this.numberOfSlabs = 0;
+        this.clear();
+    }
+
+    // Adds a block to the end of a stream's chain, returning its first byte
+    private long nextBlock(int stream) {
+        int level = Math.min(this.levels[stream] + 1, MAX_BLOCK_LEVEL);
+        long block = this.allocate(level);
+
+        // Point the stream's last block at the new one
+        long pointer = this.ends[stream];
+        this.slabs[(int) (pointer >>> SLAB_SHIFT)].putInt((int) (pointer & (SLAB_SIZE - 1)), (int) (block >>> MIN_BLOCK_SHIFT));
+
+        this.levels[stream] = (byte) level;
+        this.ends[stream] = block + blockSize(level) - POINTER_SIZE;
+        return block;
+    }
+
+    // Takes a block of a level from the slabs, moving on to the next slab if it doesn't fit in this one
+    // Blocks are never split across slabs, so the rest of a slab is left unused if a block doesn't fit
+    private long allocate(int level) {
+        int size = blockSize(level);
+        long block = this.allocated;
+        if ((block & (SLAB_SIZE - 1)) + size > SLAB_SIZE) {
+            block = ((block >>> SLAB_SHIFT) + 1) << SLAB_SHIFT;
+        }
+        if (block == this.getCapacity()) {
+            this.takeSlab();
+        }
+
+        this.allocated = block + size;
+        return block;
+    }
+
+    // Adds a slab to the end of the arena's memory, if the budget allows it
+    private void takeSlab() {
+        if (this.numberOfSlabs == this.slabs.length) {
+            this.slabs = Arrays.copyOf(this.slabs, 2 * this.numberOfSlabs);
+        }
+        this.slabs[this.numberOfSlabs++] = this.budget.takeSlab();
+    }
+
+    private static int blockSize(int level) {
+        return 1 << (MIN_BLOCK_SHIFT + level);
+    }
+
+    /**
+     * Accessors and Mutators
+     */
+    public int getLength(int stream) {
+        return this.lengths[stream];
+    }
+
+    public int getNumberOfStreams() {
+        return this.numberOfStreams;
+    }
+
+    // Bytes of blocks given to streams, including the rest of any slab left unused
+    public long getAllocated() {
+        return this.allocated;
+    }
+
+    // Bytes held in slabs
+    public long getCapacity() {
+        return (long) this.numberOfSlabs * SLAB_SIZE;
+    }
+
+    public Budget getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * The most memory that one or more arenas can hold in slabs together, such as the arenas
+     * of the partial indexes built on several threads.
+     *
+     * Slabs that arenas give back are kept to be handed out again, rather than left for the
+     * garbage collector to free, so the direct memory in use never goes over the limit.
+     * Without a limit of its own, a budget has most of the direct memory the JVM allows,
+     * leaving an eighth for other direct buffers, looked up when it's first needed.
+     */
+    public static final class Budget {
+
+        // Properties
+        private final ArrayList<ByteBuffer> free;
+        private long limit;
+        private long reserved;
+
+        // Creates a budget of most of the direct memory the JVM allows
+        public Budget() {
+            this.free = new ArrayList<>();
+            this.limit = -1;
+        }
+
+        // Creates a budget of a number of bytes
+        public Budget(long limit) {
+            this();
+            this.setLimit(limit);
+        }
+
+        // Hands out a slab, reusing one that was given back if there is one
+        synchronized ByteBuffer takeSlab() {
+            if (!this.free.isEmpty()) {
+                return this.free.remove(this.free.size() - 1);
+            }
+            if (this.reserved + SLAB_SIZE > this.getLimit()) {
+                throw new IllegalStateException("The postings budget of " + this.getLimit() + " bytes is used up");
+            }
+
+            this.reserved += SLAB_SIZE;
+            return ByteBuffer.allocateDirect(SLAB_SIZE);
+        }
+
+        synchronized void giveBack(ByteBuffer slab) {
+            this.free.add(slab);
+        }
+
+        // Gets the most direct memory the JVM allows: -XX:MaxDirectMemorySize, or the most heap if that isn't set
+        public static long getDirectMemoryLimit() {
+            try {
+                HotSpotDiagnosticMXBean options = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+                long size = Long.parseLong(options.getVMOption("MaxDirectMemorySize").getValue());
+                if (size > 0) {
+                    return size;
+                }
+            } catch (RuntimeException e) {
+                // Other JVMs are taken to have the same default as HotSpot
+            }
+            return Runtime.getRuntime().maxMemory();
+        }
+
+        /**
+         * Accessors and Mutators
+         */
+        public synchronized long getLimit() {
+            if (this.limit < 0) {
+                long directMemory = getDirectMemoryLimit();
+                this.limit = Math.min(directMemory - directMemory / 8, MAX_BUDGET);
+            }
+            return this.limit;
+        }
+
+        // Bytes of slabs handed out, including those given back to be handed out again
+        public synchronized long getReserved() {
+            return this.reserved;
+        }
+
+        // Changes the limit, which can't be below the slabs already handed out or above MAX_BUDGET
+        public synchronized void setLimit(long limit) {
+            if (limit < this.reserved || limit > MAX_BUDGET) {
+                throw new IllegalArgumentException("Postings budget must be between " + this.reserved + " and " + MAX_BUDGET + " bytes");
+            }
+            this.limit = limit;
+        }
+    }
+}
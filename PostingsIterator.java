@@ -0,0 +1,275 @@
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Iterates over a compressed postings list, such as one read straight out of the mapped postings file.
+ *
+ * Postings are decoded one at a time as described in PostingsList. Call next() to move
+ * to the next posting before reading it. Postings of deleted documents are skipped, and
+ * the lists of several segments can be chained one after another, with each segment's
+ * document ids shifted up by its base.
+ *
+ * An iterator can also be given the term's positions, stored apart from the postings.
+ * Positions are only decoded when asked for, and the positions of postings that are
+ * passed over are skipped without being decoded.
+ *
+ * An iterator over a list in the index can also be given the list's skips, described in
+ * IndexFormat, so that advancing to a document jumps over the blocks of postings before
+ * it instead of decoding them.
+ *
+ * Postings that are worked out as they are read, such as the documents matching a boolean
+ * query or a phrase, come from subclasses overriding next(), advance(), getDocumentId() and
+ * getFrequency().
+ */
+public class PostingsIterator {
+
+    // Properties
+    private ByteBuffer postings;
+    private int position;
+    private int remaining;
+    private int count;
+    private int postingsStart;
+    private int documentBase;
+    private BitSet deletions;
+    private PostingsIterator following;
+    private int documentId;
+    private int frequency;
+    private ByteBuffer positions;
+    private int positionsPosition;
+    private int unreadPositions;
+    private int positionsStart;
+    private ByteBuffer skips;
+    private int skipsOffset;
+    private int skipCount;
+    private int skipInterval;
+
+    public PostingsIterator(ByteBuffer postings, int offset, int count) {
+        this(postings, offset, count, 0, null);
+    }
+
+    // Creates an iterator for a subclass that works out its own postings
+    protected PostingsIterator() {
+
+    }
+
+    // Creates an iterator over a segment's list, shifting its document ids up by a base and skipping deleted documents
+    public PostingsIterator(ByteBuffer postings, int offset, int count, int documentBase, BitSet deletions) {
+        this.postings = postings;
+        this.position = offset;
+        this.remaining = count;
+        this.count = count;
+        this.postingsStart = offset;
+        this.documentBase = documentBase;
+        this.deletions = deletions;
+        this.documentId = 0;
+    }
+
+    // Creates an iterator over a segment's list and the positions of each of its postings
+    public PostingsIterator(ByteBuffer postings, int offset, int count, int documentBase, BitSet deletions, ByteBuffer positions, int positionsOffset) {
+        this(postings, offset, count, documentBase, deletions);
+        this.positions = positions;
+        this.positionsPosition = positionsOffset;
+        this.positionsStart = positionsOffset;
+    }
+
+    // Gives the iterator the skips of its list, one after every interval postings but the last
+    public void setSkips(ByteBuffer skips, int offset, int interval) {
+        this.skips = skips;
+        this.skipsOffset = offset;
+        this.skipInterval = interval;
+        this.skipCount = this.count == 0 ? 0 : (this.count - 1) / interval;
+    }
+
+    // Chains iterators so they are read one after another
+    // The document ids of each iterator must all come after those of the one before
+    public static PostingsIterator concatenate(PostingsIterator... iterators) {
+        for (int i = iterators.length - 1; i > 0; i--) {
+            iterators[i - 1].following = iterators[i];
+        }
+
+        return iterators[0];
+    }
+
+    // Moves to the next posting, returning false once the list is exhausted
+    public boolean next() {
+        while (true) {
+            if (this.remaining == 0) {
+                if (this.following == null) {
+                    return false;
+                }
+                this.moveToFollowing();
+                continue;
+            }
+
+            // Move past the positions of the posting before
+            if (this.positions != null) {
+                this.skipPositions();
+            }
+
+            this.documentId += this.readVByte();
+            this.frequency = this.readVByte();
+            this.unreadPositions = this.frequency;
+            this.remaining--;
+
+            if (this.deletions == null || !this.deletions.get(this.documentId)) {
+                return true;
+            }
+        }
+    }
+
+    // Moves to the first posting at or after a document, returning false once the list is exhausted
+    // Only call once next() has returned true. Segments and blocks of postings that all come before
+    // the document are jumped over, and only the postings from there on are decoded
+    public boolean advance(int target) {
+        // Every document of the segments before the one the document would be in comes before it
+        while (this.following != null && target >= this.following.documentBase) {
+            this.moveToFollowing();
+            if (!this.next()) {
+                return false;
+            }
+        }
+
+        if (this.skips != null && this.getDocumentId() < target) {
+            this.skipTo(target - this.documentBase);
+        }
+
+        while (this.getDocumentId() < target) {
+            if (!this.next()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Jumps to the last skip before a document in the current list, if that's past the current posting
+    // The skips are galloped through, doubling the step each time, then binary searched, so a jump
+    // costs the log of how far it goes rather than the number of skips passed over
+    private void skipTo(int target) {
+        // The first skip that moves past the current posting
+        int low = (this.count - this.remaining) / this.skipInterval + 1;
+        if (low > this.skipCount || this.getSkipDocument(low) >= target) {
+            return;
+        }
+
+        int step = 1;
+        while (low + step <= this.skipCount && this.getSkipDocument(low + step) < target) {
+            low += step;
+            step <<= 1;
+        }
+
+        int high = Math.min(low + step, this.skipCount + 1);
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (this.getSkipDocument(middle) < target) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+
+        // Carry on as if every posting up to the skip had been read
+        int entry = this.skipsOffset + (low - 1) * IndexFormat.SKIP_ENTRY_SIZE;
+        this.documentId = this.skips.getInt(entry);
+        this.position = this.postingsStart + this.skips.getInt(entry + 4);
+        this.remaining = this.count - low * this.skipInterval;
+        if (this.positions != null) {
+            this.positionsPosition = this.positionsStart + this.skips.getInt(entry + 8);
+            this.unreadPositions = 0;
+        }
+    }
+
+    // Gets the document id of the posting before a skip, counting skips from 1
+    private int getSkipDocument(int skip) {
+        return this.skips.getInt(this.skipsOffset + (skip - 1) * IndexFormat.SKIP_ENTRY_SIZE);
+    }
+
+    // Continues with the next iterator in the chain
+    private void moveToFollowing() {
+        PostingsIterator following = this.following;
+        this.postings = following.postings;
+        this.position = following.position;
+        this.remaining = following.remaining;
+        this.count = following.count;
+        this.postingsStart = following.postingsStart;
+        this.documentBase = following.documentBase;
+        this.deletions = following.deletions;
+        this.following = following.following;
+        this.documentId = following.documentId;
+        this.positions = following.positions;
+        this.positionsPosition = following.positionsPosition;
+        this.unreadPositions = following.unreadPositions;
+        this.positionsStart = following.positionsStart;
+        this.skips = following.skips;
+        this.skipsOffset = following.skipsOffset;
+        this.skipCount = following.skipCount;
+        this.skipInterval = following.skipInterval;
+    }
+
+    // Skips the positions of the current posting
+    private void skipPositions() {
+        for (; this.unreadPositions > 0; this.unreadPositions--) {
+            while ((this.positions.get(this.positionsPosition++) & 0x80) != 0) {
+                // Continuation byte
+            }
+        }
+    }
+
+    // Decodes the positions of the current posting into an array, which must hold at least its tf positions
+    // Only for iterators given positions. Returns the number of positions
+    public int getPositions(int[] buffer) {
+        int offset = this.positionsPosition;
+        int position = 0;
+        for (int i = 0; i < this.frequency; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.positions.get(offset++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            position += value;
+            buffer[i] = position;
+        }
+
+        return this.frequency;
+    }
+
+    // Offset of the next posting in the postings, for writing skips
+    int getNextPostingOffset() {
+        return this.position;
+    }
+
+    // Offset of the next posting's positions, for writing skips
+    int getNextPositionsOffset() {
+        this.skipPositions();
+        return this.positionsPosition;
+    }
+
+    // Reads a variable-byte encoded number
+    private int readVByte() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = this.postings.get(this.position++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Accessors
+     */
+    public int getDocumentId() {
+        return this.documentBase + this.documentId;
+    }
+
+    public int getFrequency() {
+        return this.frequency;
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable postings list for one term, compressed as it is built.
+ *
+ * Postings must be added in ascending document id order. Each is stored as the gap from
+ * the previous document id followed by the term frequency, both variable-byte encoded:
+ * 7 bits per byte, with the high bit set on every byte but the last. The first gap is
+ * from document 0. The on-disk postings use exactly the same encoding, so a list can be
+ * written out byte for byte.
+ *
+ * The positions of the term in each document are kept apart from the postings, so reading
+ * the postings for scoring never touches them. For each posting, in the same order, its tf
+ * positions are stored as the first position followed by the gaps between positions, all
+ * variable-byte encoded. Positions don't depend on document ids, so they never need
+ * rewriting when lists are appended. Lists built without positions, such as champion
+ * lists, have none stored.
+ */
+public class PostingsList {
+
+    // Properties
+    private byte[] bytes;
+    private int length;
+    private int count;
+    private int lastDocumentId;
+    private byte[] positions;
+    private int positionsLength;
+
+    public PostingsList() {
+        this.bytes = new byte[8];
+        this.positions = new byte[0];
+        this.length = 0;
+        this.count = 0;
+        this.lastDocumentId = 0;
+    }
+
+    // Adds a posting for a document after the last one in the list
+    public void add(int documentId, int frequency) {
+        if (this.count > 0 && documentId <= this.lastDocumentId) {
+            throw new IllegalArgumentException("Document " + documentId + " added after document " + this.lastDocumentId);
+        }
+
+        this.writeVByte(documentId - this.lastDocumentId);
+        this.writeVByte(frequency);
+        this.lastDocumentId = documentId;
+        this.count++;
+    }
+
+    // Adds a posting for a document after the last one in the list, with the term's positions in the document
+    // The positions must be in ascending order, and there must be one for each occurrence
+    public void add(int documentId, int frequency, int[] positions) {
+        this.add(documentId, frequency, positions, 0);
+    }
+
+    // Adds a posting with the term's positions taken from an array starting at an offset
+    public void add(int documentId, int frequency, int[] positions, int offset) {
+        this.add(documentId, frequency);
+
+        int previous = 0;
+        for (int i = offset; i < offset + frequency; i++) {
+            this.writePositionVByte(positions[i] - previous);
+            previous = positions[i];
+        }
+    }
+
+    // Appends another list, with its document ids shifted up by an offset, to the end of this one
+    // The other list's documents must all come after this list's documents once shifted
+    public void append(PostingsList other, int documentOffset) {
+        if (other.count == 0) {
+            return;
+        }
+
+        // Only the first gap of the other list changes, the rest can be copied as is
+        int firstGapLength = vByteLength(other.bytes, 0);
+        int firstDocumentId = readVByte(other.bytes, 0) + documentOffset;
+        if (this.count > 0 && firstDocumentId <= this.lastDocumentId) {
+            throw new IllegalArgumentException("Document " + firstDocumentId + " appended after document " + this.lastDocumentId);
+        }
+
+        this.writeVByte(firstDocumentId - this.lastDocumentId);
+        this.ensureCapacity(this.length + other.length - firstGapLength);
+        System.arraycopy(other.bytes, firstGapLength, this.bytes, this.length, other.length - firstGapLength);
+        this.length += other.length - firstGapLength;
+
+        this.lastDocumentId = other.lastDocumentId + documentOffset;
+        this.count += other.count;
+
+        if (other.positionsLength > 0) {
+            this.ensurePositionsCapacity(this.positionsLength + other.positionsLength);
+            System.arraycopy(other.positions, 0, this.positions, this.positionsLength, other.positionsLength);
+            this.positionsLength += other.positionsLength;
+        }
+    }
+
+    // Creates a list from postings and positions already encoded, as by an Indexer
+    static PostingsList of(byte[] bytes, int count, int lastDocumentId, byte[] positions) {
+        PostingsList postings = new PostingsList();
+        postings.bytes = bytes;
+        postings.length = bytes.length;
+        postings.count = count;
+        postings.lastDocumentId = lastDocumentId;
+        postings.positions = positions;
+        postings.positionsLength = positions.length;
+
+        return postings;
+    }
+
+    // Writes a variable-byte encoded number
+    private void writeVByte(int value) {
+        this.ensureCapacity(this.length + 5);
+        while ((value & ~0x7F) != 0) {
+            this.bytes[this.length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.bytes[this.length++] = (byte) value;
+    }
+
+    // Writes a variable-byte encoded position
+    private void writePositionVByte(int value) {
+        this.ensurePositionsCapacity(this.positionsLength + 5);
+        while ((value & ~0x7F) != 0) {
+            this.positions[this.positionsLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.positions[this.positionsLength++] = (byte) value;
+    }
+
+    // Reads a variable-byte encoded number from an array
+    static int readVByte(byte[] bytes, int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    // Number of bytes taken by the variable-byte encoded number at an offset
+    static int vByteLength(byte[] bytes, int offset) {
+        int start = offset;
+        while ((bytes[offset] & 0x80) != 0) {
+            offset++;
+        }
+
+        return offset - start + 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(capacity, this.bytes.length + (this.bytes.length >> 1)));
+        }
+    }
+
+    private void ensurePositionsCapacity(int capacity) {
+        if (capacity > this.positions.length) {
+            this.positions = Arrays.copyOf(this.positions, Math.max(capacity, Math.max(8, this.positions.length + (this.positions.length >> 1))));
+        }
+    }
+
+    // Writes the list to a stream, such as a run file
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.count);
+        out.writeInt(this.lastDocumentId);
+        out.writeInt(this.length);
+        out.write(this.bytes, 0, this.length);
+        out.writeInt(this.positionsLength);
+        out.write(this.positions, 0, this.positionsLength);
+    }
+
+    // Reads a list written by writeTo
+    public static PostingsList readFrom(DataInput in) throws IOException {
+        PostingsList postings = new PostingsList();
+        postings.count = in.readInt();
+        postings.lastDocumentId = in.readInt();
+        postings.length = in.readInt();
+        postings.bytes = new byte[Math.max(postings.length, 8)];
+        in.readFully(postings.bytes, 0, postings.length);
+        postings.positionsLength = in.readInt();
+        postings.positions = new byte[postings.positionsLength];
+        in.readFully(postings.positions, 0, postings.positionsLength);
+
+        return postings;
+    }
+
+    // Gets an iterator over the postings
+    public PostingsIterator iterator() {
+        return new PostingsIterator(ByteBuffer.wrap(this.bytes), 0, this.count);
+    }
+
+    // Gets an iterator over the postings and their positions, if the list has any
+    public PostingsIterator positionalIterator() {
+        if (this.positionsLength == 0) {
+            return this.iterator();
+        }
+
+        return new PostingsIterator(ByteBuffer.wrap(this.bytes), 0, this.count, 0, null, ByteBuffer.wrap(this.positions), 0);
+    }
+
+    /**
+     * Accessors
+     */
+
+    // Number of documents in the list
+    public int getDocumentFrequency() {
+        return this.count;
+    }
+
+    // The encoded postings, valid up to getLength()
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    // The encoded positions, valid up to getPositionsLength()
+    public byte[] getPositions() {
+        return this.positions;
+    }
+
+    public int getPositionsLength() {
+        return this.positionsLength;
+    }
+}
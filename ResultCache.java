@@ -0,0 +1,252 @@
+import java.util.*;
+
+/**
+ * A bounded cache of search results, keyed by the analysed query, the number of results and
+ * whether the search was approximate.
+ *
+ * Queries are keyed by their tokens after analysis, sorted, so queries that differ only
+ * in case, spelling variant, word form or word order share an entry. The cache holds at
+ * most a given number of bytes, estimated from the size of each entry, and evicts either
+ * the least recently used or the least frequently used entry to make room (ties between
+ * equally frequent entries go to the least recently used).
+ *
+ * Results are only valid for the index they were computed on, so the cache must be
+ * invalidated whenever the index is reloaded. Each invalidation starts a new generation,
+ * and results are only added and found for the index of the current generation. All
+ * methods are synchronized, so one cache can be shared by every request.
+ */
+public class ResultCache {
+
+    /**
+     * Which entry to evict when the cache is full.
+     */
+    public enum Policy {
+        LRU, LFU
+    }
+
+    // Rough number of bytes used by an entry, besides its key and results
+    private static final int ENTRY_OVERHEAD = 128;
+
+    // Properties
+    private final Policy policy;
+    private final long maximumBytes;
+    private final HashMap<String, Entry> entries;
+    private final TreeMap<Integer, LinkedHashSet<Entry>> entriesByFrequency;
+    private final LinkedHashSet<Entry> entriesByUse;
+    private long bytes;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ResultCache(Policy policy, long maximumBytes) {
+        this.policy = policy;
+        this.maximumBytes = maximumBytes;
+        this.entries = new HashMap<>();
+        this.entriesByFrequency = new TreeMap<>();
+        this.entriesByUse = new LinkedHashSet<>();
+    }
+
+    // Creates the key for a query from its analysed tokens and phrases
+    // Tokens are trimmed of quotes, so a phrase can't be mistaken for a token
+    public static String createKey(List<String> queryTokens, List<Phrase> phrases, int numberOfResults, boolean approximate) {
+        ArrayList<String> tokens = new ArrayList<>(queryTokens);
+        for (Phrase phrase : phrases) {
+            tokens.add(phrase.toString());
+        }
+        Collections.sort(tokens);
+
+        StringBuilder key = new StringBuilder().append(approximate ? '~' : '=').append(numberOfResults);
+        for (String token : tokens) {
+            key.append('\u0000').append(token);
+        }
+
+        return key.toString();
+    }
+
+    // Creates the key of a boolean query's results, from its analysed form
+    // Boolean queries are always searched exactly
+    public static String createKey(BooleanQuery query, int numberOfResults) {
+        return "&" + numberOfResults + '\u0000' + query;
+    }
+
+    // Gets the results for a key on the index of a generation, or null if they aren't cached
+    public synchronized Results get(String key, long generation) {
+        Entry entry = generation == this.generation ? this.entries.get(key) : null;
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        this.touch(entry);
+        return entry.results;
+    }
+
+    // Caches results computed on the index of a generation
+    // Results for the index from before the cache was last invalidated are ignored
+    public synchronized void put(String key, Results results, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+
+        long size = ENTRY_OVERHEAD + 2L * key.length() + results.getSizeInBytes();
+        if (size > this.maximumBytes) {
+            return;
+        }
+
+        Entry old = this.entries.remove(key);
+        if (old != null) {
+            this.unlink(old);
+        }
+
+        // Make room for the new entry
+        while (this.bytes + size > this.maximumBytes) {
+            this.evict();
+        }
+
+        Entry entry = new Entry(key, results, size);
+        this.entries.put(key, entry);
+        this.bytes += size;
+        this.link(entry);
+    }
+
+    // Removes every entry, as the index has changed, returning the new generation
+    public synchronized long invalidate() {
+        this.entries.clear();
+        this.entriesByFrequency.clear();
+        this.entriesByUse.clear();
+        this.bytes = 0;
+        return ++this.generation;
+    }
+
+    // Records a use of an entry
+    private void touch(Entry entry) {
+        this.unlink(entry);
+        entry.frequency++;
+        this.link(entry);
+    }
+
+    private void link(Entry entry) {
+        if (this.policy == Policy.LRU) {
+            this.entriesByUse.add(entry);
+        } else {
+            this.entriesByFrequency.computeIfAbsent(entry.frequency, frequency -> new LinkedHashSet<>()).add(entry);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (this.policy == Policy.LRU) {
+            this.entriesByUse.remove(entry);
+        } else {
+            LinkedHashSet<Entry> sameFrequency = this.entriesByFrequency.get(entry.frequency);
+            sameFrequency.remove(entry);
+            if (sameFrequency.isEmpty()) {
+                this.entriesByFrequency.remove(entry.frequency);
+            }
+        }
+    }
+
+    // Evicts the entry chosen by the policy
+    private void evict() {
+        Iterator<Entry> candidates = this.policy == Policy.LRU
+                ? this.entriesByUse.iterator()
+                : this.entriesByFrequency.firstEntry().getValue().iterator();
+        Entry entry = candidates.next();
+
+        this.unlink(entry);
+        this.entries.remove(entry.key);
+        this.bytes -= entry.size;
+        this.evictions++;
+    }
+
+    /**
+     * Statistics
+     */
+
+    // Generation of the index the cache holds results for
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return this.bytes;
+    }
+
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    public long getMaximumBytes() {
+        return this.maximumBytes;
+    }
+
+    /**
+     * The results of a search, best first.
+     */
+    public static final class Results {
+
+        private final int[] documents;
+        private final double[] scores;
+
+        // Copies the sorted results out of a collector
+        public Results(TopKCollector collector) {
+            this.documents = new int[collector.size()];
+            this.scores = new double[collector.size()];
+            for (int i = 0; i < this.documents.length; i++) {
+                this.documents[i] = collector.getDocument(i);
+                this.scores[i] = collector.getScore(i);
+            }
+        }
+
+        public int size() {
+            return this.documents.length;
+        }
+
+        public int getDocument(int i) {
+            return this.documents[i];
+        }
+
+        public double getScore(int i) {
+            return this.scores[i];
+        }
+
+        long getSizeInBytes() {
+            return 32 + 12L * this.documents.length;
+        }
+    }
+
+    /**
+     * A cached query.
+     */
+    private static final class Entry {
+
+        private final String key;
+        private final Results results;
+        private final long size;
+        private int frequency;
+
+        Entry(String key, Results results, long size) {
+            this.key = key;
+            this.results = results;
+            this.size = size;
+            this.frequency = 1;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Per-document score accumulators for term-at-a-time scoring.
+ *
+ * Scores are held in a primitive array indexed by document id, and the documents
+ * that have been given a score are tracked so they can be visited (and reset)
+ * without scanning the whole collection.
+ */
+public class ScoreAccumulator {
+
+    // Properties
+    private final double[] scores;
+    private final boolean[] scored;
+    private final int[] documents;
+    private int size;
+
+    public ScoreAccumulator(int numberOfDocuments) {
+        this.scores = new double[numberOfDocuments];
+        this.scored = new boolean[numberOfDocuments];
+        this.documents = new int[numberOfDocuments];
+        this.size = 0;
+    }
+
+    // Adds to the score of a document
+    public void add(int documentId, double score) {
+        if (!this.scored[documentId]) {
+            this.scored[documentId] = true;
+            this.documents[this.size++] = documentId;
+        }
+
+        this.scores[documentId] += score;
+    }
+
+    // Clears the scores of every document that has been given one
+    public void reset() {
+        for (int i = 0; i < this.size; i++) {
+            this.scores[this.documents[i]] = 0.0;
+            this.scored[this.documents[i]] = false;
+        }
+
+        this.size = 0;
+    }
+
+    /**
+     * Accessors and Mutators
+     */
+
+    // Number of documents that have been given a score
+    public int size() {
+        return this.size;
+    }
+
+    // Id of the i-th document that was given a score
+    public int getDocument(int i) {
+        return this.documents[i];
+    }
+
+    public double getScore(int documentId) {
+        return this.scores[documentId];
+    }
+
+    public void setScore(int documentId, double score) {
+        this.scores[documentId] = score;
+    }
+}
@@ -0,0 +1,351 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers queries over HTTP, with the index opened once and kept for every query.
+ *
+ * Listens on the loopback address and responds with JSON:
+ *
+ *   GET /search?q=QUERY[&k=NUMBER_OF_RESULTS][&relevant=IDS][&nonrelevant=IDS][&approximate=true]
+ *       The top k documents for the query. Relevant and non relevant documents, given as
+ *       comma separated document ids from an earlier response, perform relevance feedback
+ *       on the query before searching. An approximate search only reads the champion
+ *       lists, for quick results such as while a query is being typed. Queries with AND,
+ *       OR or NOT only find the documents matching them, and are always searched exactly.
+ *
+ *   POST /reload
+ *       Opens the index again, such as after it has been updated.
+ *
+ *   GET /stats
+ *       The result cache's hits, misses, evictions and size.
+ *
+ *   GET /metrics
+ *       The counters and latency histograms of everything done since the server started,
+ *       as plain text.
+ *
+ * Results of queries without relevance feedback are cached, if there is a cache.
+ *
+ * Each request is handled on its own virtual thread when the JVM has them, otherwise on
+ * a pooled thread.
+ */
+public class SearchServer {
+
+    // Number of results when the request doesn't say
+    private static final int DEFAULT_RESULTS = 10;
+
+    // Time to handle each search request, including any time in the cache
+    private static final Metrics.Histogram REQUEST_TIME = Metrics.getShared().histogram("server.search");
+
+    // Properties
+    private final Path indexDirectory;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ResultCache cache;
+    private volatile Snapshot snapshot;
+
+    // Opens the index and creates a server for it on a port
+    // The cache can be null to not cache any results
+    public SearchServer(Path indexDirectory, int port, ResultCache cache) throws IOException {
+        this.indexDirectory = indexDirectory;
+        this.cache = cache;
+        this.snapshot = new Snapshot(new Searcher(IndexReader.open(indexDirectory)), cache == null ? 0 : cache.getGeneration());
+
+        this.executor = createExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/search", this::handleSearch);
+        this.server.createContext("/reload", this::handleReload);
+        this.server.createContext("/stats", this::handleStats);
+        this.server.createContext("/metrics", this::handleMetrics);
+    }
+
+    // Creates a virtual thread per request if the JVM supports it
+    // Looked up by reflection so the server still runs on JVMs without virtual threads
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+    // Opens the index again, so queries see the latest version
+    // Queries already running finish on the old index
+    public void reload() throws IOException {
+        Searcher searcher = new Searcher(IndexReader.open(this.indexDirectory));
+        this.snapshot = new Snapshot(searcher, this.cache == null ? 0 : this.cache.invalidate());
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "Use GET to search.");
+                return;
+            }
+
+            long start = System.nanoTime();
+            Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+            String queryString = parameters.get("q");
+            if (queryString == null || queryString.trim().isEmpty()) {
+                sendError(exchange, 400, "No query given.");
+                return;
+            }
+
+            int numberOfResults = DEFAULT_RESULTS;
+            if (parameters.containsKey("k")) {
+                try {
+                    numberOfResults = Integer.parseInt(parameters.get("k"));
+                } catch (NumberFormatException e) {
+                    numberOfResults = 0;
+                }
+                if (numberOfResults < 1) {
+                    sendError(exchange, 400, "Number of results must be a positive number.");
+                    return;
+                }
+            }
+
+            boolean approximate = Boolean.parseBoolean(parameters.get("approximate")) || "1".equals(parameters.get("approximate"));
+
+            // Every query uses the index as it was when the query started
+            Snapshot snapshot = this.snapshot;
+            Searcher searcher = snapshot.searcher;
+
+            // Tokenise the query and find its phrases
+            // A boolean query ranks the documents it matches by the words that aren't negated
+            Indexer indexer = new Indexer(searcher.getIndex().getStopwords());
+            BooleanQuery booleanQuery = null;
+            ArrayList<String> queryTokens;
+            ArrayList<Phrase> phrases;
+            if (BooleanQuery.isBoolean(queryString)) {
+                try {
+                    booleanQuery = BooleanQuery.parse(queryString, indexer);
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 400, e.getMessage());
+                    return;
+                }
+                queryTokens = booleanQuery.getTerms();
+                phrases = booleanQuery.getPhrases();
+            } else {
+                queryTokens = indexer.tokeniseQuery(queryString);
+                phrases = indexer.findPhrases(queryString);
+            }
+
+            Set<Integer> relevant = parseDocuments(parameters.get("relevant"), searcher.getIndex());
+            Set<Integer> nonRelevant = parseDocuments(parameters.get("nonrelevant"), searcher.getIndex());
+            if (relevant == null || nonRelevant == null) {
+                sendError(exchange, 400, "Relevance feedback must be given as comma separated document ids.");
+                return;
+            }
+            boolean feedback = !relevant.isEmpty() || !nonRelevant.isEmpty();
+
+            // Look for the results in the cache
+            String key = null;
+            ResultCache.Results results = null;
+            if (this.cache != null && !feedback) {
+                key = booleanQuery != null
+                        ? ResultCache.createKey(booleanQuery, numberOfResults)
+                        : ResultCache.createKey(queryTokens, phrases, numberOfResults, approximate);
+                results = this.cache.get(key, snapshot.generation);
+            }
+            boolean cached = results != null;
+
+            if (!cached) {
+                SparseVector queryVector = searcher.createQueryVector(queryTokens, phrases);
+
+                // Move the query towards the relevant documents
+                if (feedback) {
+                    queryVector = searcher.performRelevanceFeedback(relevant, nonRelevant, queryVector);
+                }
+
+                if (booleanQuery != null) {
+                    results = new ResultCache.Results(searcher.search(booleanQuery, queryVector, numberOfResults));
+                } else {
+                    results = new ResultCache.Results(approximate
+                            ? searcher.searchApproximately(queryVector, numberOfResults)
+                            : searcher.search(queryVector, numberOfResults));
+                }
+                if (key != null) {
+                    this.cache.put(key, results, snapshot.generation);
+                }
+            }
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"query\":\"").append(escape(queryString)).append("\",\"results\":[");
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":").append(results.getDocument(i))
+                        .append(",\"name\":\"").append(escape(searcher.getIndex().getDocumentName(results.getDocument(i))))
+                        .append("\",\"score\":").append(results.getScore(i)).append('}');
+            }
+            long elapsed = System.nanoTime() - start;
+            REQUEST_TIME.record(elapsed);
+            json.append("],\"cached\":").append(cached).append(",\"milliseconds\":").append(elapsed / 1e6).append('}');
+
+            send(exchange, 200, json.toString());
+        } catch (RuntimeException e) {
+            System.out.println("Error: Could not search the index. " + e.getMessage());
+            sendError(exchange, 500, "Could not search the index.");
+        }
+    }
+
+    private void handleReload(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Use POST to reload the index.");
+            return;
+        }
+
+        try {
+            this.reload();
+            send(exchange, 200, "{\"documents\":" + this.snapshot.searcher.getIndex().getNumberOfDocuments() + "}");
+        } catch (IOException e) {
+            sendError(exchange, 500, "Could not read the index. " + e.getMessage());
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Use GET to get the statistics.");
+            return;
+        }
+
+        if (this.cache == null) {
+            send(exchange, 200, "{\"cache\":null}");
+            return;
+        }
+
+        send(exchange, 200, "{\"cache\":{\"policy\":\"" + this.cache.getPolicy()
+                + "\",\"hits\":" + this.cache.getHits()
+                + ",\"misses\":" + this.cache.getMisses()
+                + ",\"evictions\":" + this.cache.getEvictions()
+                + ",\"entries\":" + this.cache.size()
+                + ",\"bytes\":" + this.cache.getSizeInBytes()
+                + ",\"maximumBytes\":" + this.cache.getMaximumBytes() + "}}");
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Use GET to get the metrics.");
+            return;
+        }
+
+        send(exchange, 200, "text/plain; charset=utf-8", Metrics.getShared().format());
+    }
+
+    // Parses the parameters of a query string
+    private static Map<String, String> parseParameters(String rawQuery) {
+        HashMap<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return parameters;
+    }
+
+    // Parses comma separated document ids, or returns null if they aren't documents in the index
+    private static Set<Integer> parseDocuments(String ids, IndexReader index) {
+        HashSet<Integer> documents = new HashSet<>();
+        if (ids == null || ids.trim().isEmpty()) {
+            return documents;
+        }
+
+        for (String id : ids.split(",")) {
+            int document;
+            try {
+                document = Integer.parseInt(id.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (document < 0 || document >= index.getNumberOfDocuments() || index.isDeleted(document)) {
+                return null;
+            }
+            documents.add(document);
+        }
+
+        return documents;
+    }
+
+    // Escapes a string for a JSON string literal
+    private static String escape(String string) {
+        StringBuilder escaped = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "{\"error\":\"" + escape(message) + "\"}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", json);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Accessors
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * An opened index, with the cache generation of its results.
+     */
+    private static final class Snapshot {
+
+        private final Searcher searcher;
+        private final long generation;
+
+        Snapshot(Searcher searcher, long generation) {
+            this.searcher = searcher;
+            this.generation = generation;
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Class that handles all the search functionality for the MySearchEngine program.
@@ -7,68 +8,39 @@ import java.util.*;
  */
 public class Searcher {
 
-    private List<String> invertedIndex;
-    private HashMap<String, List<Double>> vectors;
-
-    public Searcher(List<String> index) {
-        this.invertedIndex = index;
-
-        // Sort the index by alpha
-        Collections.sort(this.invertedIndex);
-
-        this.createDocumentVectors();
+    // Number of terms relevance feedback adds to a query if not told otherwise
+    public static final int DEFAULT_EXPANSION_TERMS = 20;
+
+    // Metrics for each phase of a search
+    private static final Metrics.Histogram QUERY_VECTOR_TIME = Metrics.getShared().histogram("search.queryVector");
+    private static final Metrics.Histogram SCORE_TIME = Metrics.getShared().histogram("search.score");
+    private static final Metrics.Histogram RANK_TIME = Metrics.getShared().histogram("search.rank");
+    private static final Metrics.Histogram SEARCH_TIME = Metrics.getShared().histogram("search.search");
+    private static final Metrics.Histogram FEEDBACK_TIME = Metrics.getShared().histogram("search.feedback");
+    private static final LongAdder QUERIES = Metrics.getShared().counter("search.queries");
+    private static final LongAdder POSTINGS = Metrics.getShared().counter("search.postings");
+    private static final LongAdder DOCUMENTS_SCORED = Metrics.getShared().counter("search.documentsScored");
+    private static final Metrics.Histogram APPROXIMATE_TIME = Metrics.getShared().histogram("search.approximate");
+    private static final LongAdder CHAMPION_FALLBACKS = Metrics.getShared().counter("search.championFallbacks");
+    private static final Metrics.Histogram BOOLEAN_TIME = Metrics.getShared().histogram("search.boolean");
+    private static final LongAdder BOOLEAN_MATCHES = Metrics.getShared().counter("search.booleanMatches");
+    private static final LongAdder EXPANSION_TERMS = Metrics.getShared().counter("search.expansionTerms");
+
+    private IndexReader index;
+
+    public Searcher(IndexReader index) {
+        this.index = index;
     }
 
-    // Creates the document vectors with current index
-    private void createDocumentVectors() {
-        this.vectors = new HashMap<>();
-        invertedIndex.forEach(term -> {
-            // Get the substring containing the postings
-            String postings = term.substring(term.indexOf(",") + 1, term.lastIndexOf(","));
-
-            // Add document name to vectors if it isn't already there
-            String[] splitPostings = postings.split(",");
-            for (String s : splitPostings) {
-                // Don't add if it's a number
-                // Source: http://stackoverflow.com/a/10575676/6601606
-                if (s.matches("[0-9]+")) {
-                    continue;
-                } else if (this.vectors.containsKey(s)) {
-                    continue;
-                } else {
-                    this.vectors.put(s, new ArrayList<>());
-                }
-            }
-        });
-
-        // Search through the index for each term, and compute the tf.idf for each term in each document
-        invertedIndex.forEach(term -> {
-            // Check if a document contains that term
-            vectors.forEach((document, weightings) -> {
-                int tf = 0;
-
-                // Get the tf if a document contains the term
-                if (term.contains(document)) {
-                    // Get the tf of the term in that document
-                    // This finds the first occurrence of the document name in the posting, and then gets the next number (which is the tf)
-                    String tfString = term.substring(term.indexOf(document) + document.length() + 1);
-
-                    tf = Integer.parseInt(tfString.substring(0, tfString.indexOf(",")));
-                }
-
-                // Compute the tf.idf
-                double idf = Double.parseDouble(term.substring(term.lastIndexOf(",") + 1, term.length()));
-                double tfidf = tf * idf;
-
-                // Insert into vector array
-                this.vectors.get(document).add(tfidf);
-            });
-        });
+    // Create a query vector with the current index
+    // Only the query terms found in the index have a dimension in the vector
+    public SparseVector createQueryVector(ArrayList<String> queryTokens) {
+        return this.createQueryVector(queryTokens, Collections.emptyList());
     }
 
-    // Create a query vector with the current index
-    public List<Double> createQueryVector(ArrayList<String> queryTokens) {
-        ArrayList<Double> queryVector = new ArrayList<>();
+    // Create a query vector with the current index, with a dimension for each phrase found in the index as well
+    public SparseVector createQueryVector(ArrayList<String> queryTokens, List<Phrase> phrases) {
+        long start = System.nanoTime();
 
         // Create hashmap of query tokens and tf
         HashMap<String, Integer> queryTF = new HashMap<>();
@@ -80,127 +52,342 @@ public class Searcher {
             }
         });
 
-        // Get collection vocabulary
-        this.invertedIndex.forEach(line -> {
-            String term = line.substring(0, line.indexOf(",")); // Gets the term from the index
-
-            // Get term frequency
-            int tf = 0;
-            if (queryTF.containsKey(term)) {
-                tf = queryTF.get(term);
+        // Look up each query term in the dictionary
+        int[] terms = new int[queryTF.size()];
+        double[] weights = new double[queryTF.size()];
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : queryTF.entrySet()) {
+            int term = this.index.findTerm(entry.getKey());
+
+            // Terms not in the index have no weight
+            if (term >= 0) {
+                terms[size] = term;
+                weights[size] = entry.getValue() * this.index.getIDF(term);
+                size++;
             }
+        }
 
-            // Get the idf
-            double idf = Double.parseDouble(line.substring(line.lastIndexOf(",") + 1, line.length()));
-            double tfidf = tf * idf;
+        // Find the phrases in the index, counting a phrase given twice as twice the weight
+        // Phrases that aren't found in any document have no weight
+        LinkedHashMap<String, Phrase.Matches> phraseMatches = new LinkedHashMap<>();
+        HashMap<String, Integer> phraseTF = new HashMap<>();
+        for (Phrase phrase : phrases) {
+            String key = phrase.toString();
+            if (phraseTF.merge(key, 1, Integer::sum) == 1) {
+                phraseMatches.put(key, phrase.match(this.index));
+            }
+        }
+        phraseMatches.values().removeIf(matches -> matches.getDocumentFrequency() == 0);
 
-            // Add to query vector
-            queryVector.add(tfidf);
-        });
+        Phrase.Matches[] phraseDimensions = phraseMatches.values().toArray(new Phrase.Matches[0]);
+        double[] phraseWeights = new double[phraseDimensions.length];
+        for (int i = 0; i < phraseDimensions.length; i++) {
+            phraseWeights[i] = phraseTF.get(phraseDimensions[i].getPhrase().toString()) * phraseDimensions[i].getIDF();
+        }
 
-        return queryVector;
+        QUERY_VECTOR_TIME.recordSince(start);
+        return new SparseVector(terms, weights, size, phraseDimensions, phraseWeights);
     }
 
-    // Compute cosine similarity for two given vectors
-    public double computeCosineSimilarity(List<Double> query, List<Double> document) {
-        double dotProduct = 0.0;
-        double docLengthSquared = 0.0;
-        double queryLengthSquared = 0.0;
+    // Computes the cosine similarity between the query and every document containing a query term
+    // Scores are accumulated one query term at a time, so only the postings of the query terms are read
+    public ScoreAccumulator computeCosineSimilarities(SparseVector query) {
+        long start = System.nanoTime();
+        ScoreAccumulator accumulator = new ScoreAccumulator(this.index.getNumberOfDocuments());
 
-        // Computations for each dimension
+        // Accumulate the dot products
+        long postingsScored = 0;
         for (int i = 0; i < query.size(); i++) {
-            double w = document.get(i);
-            double q = query.get(i);
+            double q = query.getWeight(i);
+            double idf = this.index.getIDF(query.getTerm(i));
+            PostingsIterator postings = this.index.getPostings(query.getTerm(i));
+            while (postings.next()) {
+                double w = postings.getFrequency() * idf;
+                accumulator.add(postings.getDocumentId(), w * q);
+                postingsScored++;
+            }
+        }
 
-            dotProduct += w * q;
-            docLengthSquared += w * w;
-            queryLengthSquared += q * q;
+        // Then the phrases, in the same way
+        for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+            double q = query.getPhraseWeight(i);
+            double idf = query.getPhrase(i).getIDF();
+            PostingsIterator postings = query.getPhrase(i).getPostings();
+            while (postings.next()) {
+                double w = postings.getFrequency() * idf;
+                accumulator.add(postings.getDocumentId(), w * q);
+                postingsScored++;
+            }
         }
 
-        // Square root the sums to get the document and query lengths
-        double docLength = Math.sqrt(docLengthSquared);
-        double queryLength = Math.sqrt(queryLengthSquared);
+        // Divide by the document and query lengths
+        // Document lengths are precomputed at index time, then the query's phrases are counted in them
+        PhraseNorms phraseNorms = new PhraseNorms(this.index, query);
+        double queryLength = Math.sqrt(query.getLengthSquared());
+        for (int i = 0; i < accumulator.size(); i++) {
+            int document = accumulator.getDocument(i);
+            double cosineSim = accumulator.getScore(document) / (phraseNorms.getDocumentLength(document) * queryLength);
+            accumulator.setScore(document, cosineSim);
+        }
+
+        SCORE_TIME.recordSince(start);
+        POSTINGS.add(postingsScored);
+        DOCUMENTS_SCORED.add(accumulator.size());
+        return accumulator;
+    }
 
-        // Compute the cosine similarity
-        double cosineSim = dotProduct / (docLength * queryLength);
+    // Finds the k documents most similar to the query, best first
+    // Only documents containing a query term (with a cosine similarity above 0) are returned
+    // Documents are scored one at a time, skipping those that can't make the top k, with the same results as
+    // scoring every document
+    public TopKCollector search(SparseVector query, int k) {
+        MetricsEvents.QuerySearched event = new MetricsEvents.QuerySearched();
+        event.begin();
+        long start = System.nanoTime();
+
+        MaxScoreSearch search = new MaxScoreSearch(this.index, query);
+        TopKCollector results = search.collect(k);
+
+        SEARCH_TIME.recordSince(start);
+        QUERIES.increment();
+        POSTINGS.add(search.getPostingsScored());
+        DOCUMENTS_SCORED.add(search.getDocumentsScored());
+
+        if (event.shouldCommit()) {
+            event.terms = query.size() + query.getNumberOfPhrases();
+            for (int i = 0; i < query.size(); i++) {
+                event.postings += this.index.getDocumentFrequency(query.getTerm(i));
+            }
+            for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+                event.postings += query.getPhrase(i).getDocumentFrequency();
+            }
+            event.postingsScored = search.getPostingsScored();
+            event.documents = search.getDocumentsScored();
+            event.results = results.size();
+            event.commit();
+        }
 
-        return cosineSim;
+        return results;
     }
 
-    // Performs relevance feedback
-    // Uses Rocchio's Algorithm
-    // Weight of relevant is 0.5, weight is non relevant is 0.25
-    public List<Double> performRelevanceFeedback(HashMap<String, List<Double>> resultVectors, List<Double> queryVector) {
-        List<List<Double>> relevant = new ArrayList<>();
-        List<List<Double>> nonRelevant = new ArrayList<>();
-
-        // Loop through documents
-        resultVectors.forEach((docName, vector) -> {
-            System.out.print("Is the document '" + docName + "' relevant? (y/n): ");
-            Scanner scanner = new Scanner(System.in);
-            char answer = scanner.next().charAt(0);
-            if (answer == 'y') {
-                // Add to list of relevant vectors
-                relevant.add(vector);
+    // Finds the k documents matching a boolean query that are most similar to a query vector, best first
+    // Only the matching documents are scored, with each of the vector's postings moved up to them in turn
+    public TopKCollector search(BooleanQuery query, SparseVector vector, int k) {
+        long start = System.nanoTime();
+        PostingsIterator matches = query.match(this.index);
+
+        // Open each term's postings, or each phrase's matches
+        int size = vector.size() + vector.getNumberOfPhrases();
+        PostingsIterator[] postings = new PostingsIterator[size];
+        int[] documents = new int[size];
+        double[] weights = new double[size];
+        double[] idfs = new double[size];
+        for (int i = 0; i < size; i++) {
+            if (i < vector.size()) {
+                postings[i] = this.index.getPostings(vector.getTerm(i));
+                weights[i] = vector.getWeight(i);
+                idfs[i] = this.index.getIDF(vector.getTerm(i));
             } else {
-                // Add to list of non relevant vectors
-                nonRelevant.add(vector);
+                postings[i] = vector.getPhrase(i - vector.size()).getPostings();
+                weights[i] = vector.getPhraseWeight(i - vector.size());
+                idfs[i] = vector.getPhrase(i - vector.size()).getIDF();
             }
-        });
+            documents[i] = postings[i].next() ? postings[i].getDocumentId() : Integer.MAX_VALUE;
+        }
 
-        // Compute the relevant and non relevant centroids
-        List<Double> relevantCentroid = new ArrayList<>();
-        List<Double> nonRelevantCentroid = new ArrayList<>();
-        int vocabSize = queryVector.size();
-        for (int i = 0; i < vocabSize; i++) {
-            // Relevant
-            double relevantSum = 0.0;
-            for (List<Double> vector : relevant) {
-                relevantSum += vector.get(i);
+        // Score each matching document, adding the terms in query order as term at a time scoring does
+        PhraseNorms phraseNorms = new PhraseNorms(this.index, vector);
+        double queryLength = Math.sqrt(vector.getLengthSquared());
+        TopKCollector results = new TopKCollector(k);
+        long postingsScored = 0;
+        int documentsScored = 0;
+        while (matches.next()) {
+            int document = matches.getDocumentId();
+            double dotProduct = 0.0;
+            for (int i = 0; i < size; i++) {
+                if (documents[i] < document) {
+                    documents[i] = postings[i].advance(document) ? postings[i].getDocumentId() : Integer.MAX_VALUE;
+                }
+                if (documents[i] == document) {
+                    double w = postings[i].getFrequency() * idfs[i];
+                    dotProduct += w * weights[i];
+                    postingsScored++;
+                }
             }
-            double relevantAverage = 0.0;
-            if (relevant.size() > 0) {
-                relevantAverage = relevantSum / relevant.size();
+
+            double cosineSim = dotProduct / (phraseNorms.getDocumentLength(document) * queryLength);
+            if (cosineSim > 0.0) {
+                results.collect(document, cosineSim);
             }
-            relevantCentroid.add(relevantAverage);
+            documentsScored++;
+        }
+        results.sort();
+
+        BOOLEAN_TIME.recordSince(start);
+        QUERIES.increment();
+        POSTINGS.add(postingsScored);
+        DOCUMENTS_SCORED.add(documentsScored);
+        BOOLEAN_MATCHES.add(documentsScored);
+        return results;
+    }
 
-            // Non relevant
-            double nonRelevantSum = 0.0;
-            for (List<Double> vector : nonRelevant) {
-                nonRelevantSum += vector.get(i);
+    // Finds the k documents most similar to the query by scoring every document containing a query term
+    public TopKCollector searchExhaustively(SparseVector query, int k) {
+        ScoreAccumulator scores = this.computeCosineSimilarities(query);
+
+        long scored = System.nanoTime();
+        TopKCollector results = new TopKCollector(k);
+        for (int i = 0; i < scores.size(); i++) {
+            int document = scores.getDocument(i);
+            double cosineSim = scores.getScore(document);
+            if (cosineSim > 0.0) {
+                results.collect(document, cosineSim);
             }
-            double nonRelevantAverage = 0.0;
-            if (nonRelevant.size() > 0) {
-                nonRelevantAverage = nonRelevantSum / nonRelevant.size();
+        }
+        results.sort();
+        RANK_TIME.recordSince(scored);
+
+        return results;
+    }
+
+    // Finds roughly the k documents most similar to the query, best first, only reading the champion lists of the query terms
+    // A document is only scored for the query terms it's a champion of, so its score can be lower than its cosine similarity
+    // If fewer than k documents are found, and a champion list left postings out, the full postings are searched instead
+    public TopKCollector searchApproximately(SparseVector query, int k) {
+        long start = System.nanoTime();
+
+        // Only the documents in the champion lists and the phrases' matches can be given a score
+        long candidates = 0;
+        for (int i = 0; i < query.size(); i++) {
+            candidates += this.index.getChampionFrequency(query.getTerm(i));
+        }
+        for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+            candidates += query.getPhrase(i).getDocumentFrequency();
+        }
+        SparseScoreAccumulator accumulator = new SparseScoreAccumulator((int) Math.min(candidates, this.index.getNumberOfDocuments()));
+
+        // Accumulate the dot products over the champion lists
+        boolean complete = true;
+        for (int i = 0; i < query.size(); i++) {
+            double q = query.getWeight(i);
+            double idf = this.index.getIDF(query.getTerm(i));
+            PostingsIterator champions = this.index.getChampions(query.getTerm(i));
+            while (champions.next()) {
+                double w = champions.getFrequency() * idf;
+                accumulator.add(champions.getDocumentId(), w * q);
             }
-            nonRelevantCentroid.add(nonRelevantAverage);
+            complete &= this.index.hasCompleteChampions(query.getTerm(i));
         }
 
-        // Add relevant centroid to query vector
-        List<Double> newQueryVector = new ArrayList<>();
-        for (int i = 0; i < vocabSize; i++) {
-            newQueryVector.add(queryVector.get(i) + (0.5 * relevantCentroid.get(i)) + (0.25 * nonRelevantCentroid.get(i)));
+        // Phrases have no champion lists, but have already been found in full
+        for (int i = 0; i < query.getNumberOfPhrases(); i++) {
+            double q = query.getPhraseWeight(i);
+            double idf = query.getPhrase(i).getIDF();
+            PostingsIterator postings = query.getPhrase(i).getPostings();
+            while (postings.next()) {
+                double w = postings.getFrequency() * idf;
+                accumulator.add(postings.getDocumentId(), w * q);
+            }
+        }
+
+        PhraseNorms phraseNorms = new PhraseNorms(this.index, query);
+        double queryLength = Math.sqrt(query.getLengthSquared());
+        TopKCollector results = new TopKCollector(k);
+        for (int i = 0; i < accumulator.size(); i++) {
+            int document = accumulator.getDocument(i);
+            double cosineSim = accumulator.getScoreAt(i) / (phraseNorms.getDocumentLength(document) * queryLength);
+            if (cosineSim > 0.0) {
+                results.collect(document, cosineSim);
+            }
         }
 
-        return newQueryVector;
+        // Too few candidates: search properly
+        if (results.size() < k && !complete) {
+            CHAMPION_FALLBACKS.increment();
+            return this.search(query, k);
+        }
+
+        results.sort();
+        APPROXIMATE_TIME.recordSince(start);
+        return results;
     }
 
-    /**
-     * Getters and setters
-     */
-    public List<String> getInvertedIndex() {
-        return invertedIndex;
+    // Performs relevance feedback with documents already judged
+    // Uses Rocchio's Algorithm. The query's phrases are kept as they are
+    // Weight of relevant is 0.5, weight of non relevant is 0.25
+    public SparseVector performRelevanceFeedback(Set<Integer> relevant, Set<Integer> nonRelevant, SparseVector queryVector) {
+        return this.performRelevanceFeedback(relevant, nonRelevant, queryVector, DEFAULT_EXPANSION_TERMS);
+    }
+
+    // Performs relevance feedback with documents already judged, adding at most the given number of terms to the query
+    // Only the vectors of the judged documents are read, so the centroids only have the terms of those documents
+    // Every term of the query is kept, and the terms it doesn't have with the highest positive weights are added
+    public SparseVector performRelevanceFeedback(Set<Integer> relevant, Set<Integer> nonRelevant, SparseVector queryVector, int expansionTerms) {
+        MetricsEvents.RelevanceFeedback event = new MetricsEvents.RelevanceFeedback();
+        event.begin();
+        long start = System.nanoTime();
+
+        // Move the query towards the centroid of the relevant documents, and away from the centroid of the non relevant ones
+        HashMap<Integer, Double> newWeights = new HashMap<>();
+        for (int i = 0; i < queryVector.size(); i++) {
+            newWeights.put(queryVector.getTerm(i), queryVector.getWeight(i));
+        }
+        for (int document : relevant) {
+            this.addDocumentVector(newWeights, document, 0.5 / relevant.size());
+        }
+        for (int document : nonRelevant) {
+            this.addDocumentVector(newWeights, document, -0.25 / nonRelevant.size());
+        }
+
+        int[] terms = new int[queryVector.size() + Math.max(expansionTerms, 0)];
+        double[] weights = new double[terms.length];
+        int size = 0;
+        for (int i = 0; i < queryVector.size(); i++) {
+            terms[size] = queryVector.getTerm(i);
+            weights[size] = newWeights.remove(queryVector.getTerm(i));
+            size++;
+        }
+
+        // Pick the new terms with the highest weights, lowest term ordinal first on ties
+        TopKCollector expansion = new TopKCollector(expansionTerms);
+        newWeights.forEach((term, weight) -> {
+            if (weight > 0.0) {
+                expansion.collect(term, weight);
+            }
+        });
+        expansion.sort();
+        for (int i = 0; i < expansion.size(); i++) {
+            terms[size] = expansion.getDocument(i);
+            weights[size] = expansion.getScore(i);
+            size++;
+        }
+
+        FEEDBACK_TIME.recordSince(start);
+        EXPANSION_TERMS.add(expansion.size());
+        event.relevant = relevant.size();
+        event.nonRelevant = nonRelevant.size();
+        event.terms = size;
+        event.commit();
+
+        return queryVector.withTerms(terms, weights, size);
     }
 
-    public void setInvertedIndex(List<String> invertedIndex) {
-        this.invertedIndex = invertedIndex;
+    // Adds a document's tf.idf vector, times a factor, to the weights of each term
+    private void addDocumentVector(HashMap<Integer, Double> weights, int document, double factor) {
+        SparseVector vector = this.index.getDocumentVector(document);
+        for (int i = 0; i < vector.size(); i++) {
+            weights.merge(vector.getTerm(i), factor * vector.getWeight(i), Double::sum);
+        }
     }
 
-    public HashMap<String, List<Double>> getVectors() {
-        return vectors;
+    /**
+     * Getters and setters
+     */
+    public IndexReader getIndex() {
+        return index;
     }
 
-    public void setVectors(HashMap<String, List<Double>> vectors) {
-        this.vectors = vectors;
+    public void setIndex(IndexReader index) {
+        this.index = index;
     }
 }
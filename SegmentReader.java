@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+/**
+ * Reads one segment of an index, as written by IndexWriter.
+ *
+ * The segment files are memory-mapped, so opening a segment is cheap and a query only
+ * touches the pages holding its own dictionary entries and postings. Files can be larger
+ * than a single mapping, as MappedFile describes, so offsets into them are longs. A list is
+ * handed to its iterator as a buffer of its own, its length found from where the next list
+ * starts. All reads are absolute, so a reader can be shared between threads. Document ids
+ * are local to the segment, and postings of deleted documents are skipped.
+ *
+ * Once the index has been updated, the idf of each term, the length of each document and
+ * the deleted documents come from the segment's statistics for the generation being read,
+ * in place of the values the segment was written with.
+ */
+public class SegmentReader {
+
+    // Properties
+    private final Path directory;
+    private final MappedFile dictionary;
+    private final MappedFile postings;
+    private final MappedFile positions;
+    private final MappedFile skips;
+    private final MappedFile documents;
+    private final MappedFile vectors;
+    private final MappedFile champions;
+    private final SegmentStatistics statistics;
+    private final int termCount;
+    private final int collectionSize;
+    private final long termPoolOffset;
+    private final int skipInterval;
+    private final int documentCount;
+    private final long namePoolOffset;
+    private final BitSet deletions;
+
+    private SegmentReader(Path directory, MappedFile dictionary, MappedFile postings, MappedFile positions, MappedFile skips, MappedFile documents, MappedFile vectors, MappedFile champions, SegmentStatistics statistics) {
+        this.directory = directory;
+        this.dictionary = dictionary;
+        this.postings = postings;
+        this.positions = positions;
+        this.skips = skips;
+        this.documents = documents;
+        this.vectors = vectors;
+        this.champions = champions;
+        this.statistics = statistics;
+
+        this.termCount = dictionary.getInt(8);
+        this.collectionSize = statistics == null ? dictionary.getInt(12) : statistics.getCollectionSize();
+        this.termPoolOffset = dictionary.getLong(16);
+        this.skipInterval = skips.getInt(8);
+
+        this.documentCount = documents.getInt(8);
+        this.namePoolOffset = documents.getLong(12);
+        this.deletions = readDeletions(statistics);
+    }
+
+    // Opens the segment in the given directory, with the values it was written with
+    public static SegmentReader open(Path segmentDirectory) throws IOException {
+        return open(segmentDirectory, SegmentStatistics.NONE);
+    }
+
+    // Opens the segment in the given directory, with its statistics for a generation
+    // Segments written without champion lists use their full postings in place of them
+    public static SegmentReader open(Path segmentDirectory, int statisticsGeneration) throws IOException {
+        Path championsPath = segmentDirectory.resolve(IndexFormat.CHAMPIONS_FILE);
+        return new SegmentReader(segmentDirectory,
+                map(segmentDirectory.resolve(IndexFormat.DICTIONARY_FILE), IndexFormat.DICTIONARY_MAGIC),
+                map(segmentDirectory.resolve(IndexFormat.POSTINGS_FILE), IndexFormat.POSTINGS_MAGIC),
+                map(segmentDirectory.resolve(IndexFormat.POSITIONS_FILE), IndexFormat.POSITIONS_MAGIC),
+                map(segmentDirectory.resolve(IndexFormat.SKIPS_FILE), IndexFormat.SKIPS_MAGIC),
+                map(segmentDirectory.resolve(IndexFormat.DOCUMENTS_FILE), IndexFormat.DOCUMENTS_MAGIC),
+                map(segmentDirectory.resolve(IndexFormat.VECTORS_FILE), IndexFormat.VECTORS_MAGIC),
+                Files.exists(championsPath) ? map(championsPath, IndexFormat.CHAMPIONS_MAGIC) : null,
+                SegmentStatistics.open(segmentDirectory, statisticsGeneration));
+    }
+
+    // Reads the deleted documents from a segment's statistics, or null if none have been deleted
+    private static BitSet readDeletions(SegmentStatistics statistics) {
+        if (statistics == null) {
+            return null;
+        }
+
+        BitSet deletions = statistics.readDeletions();
+        return deletions.isEmpty() ? null : deletions;
+    }
+
+    // Maps an index file into memory and checks its header
+    private static MappedFile map(Path path, int magic) throws IOException {
+        MappedFile file = MappedFile.map(path);
+        if (file.size() < 8 || file.getInt(0) != magic) {
+            throw new IOException("Not an index file: " + path);
+        }
+        if (file.getInt(4) != IndexFormat.VERSION) {
+            throw new IOException("Unsupported index version " + file.getInt(4) + " in " + path);
+        }
+
+        return file;
+    }
+
+    // Finds the ordinal of a term in the dictionary, or -1 if it isn't in the index
+    public int findTerm(CharSequence term) {
+        int low = 0;
+        int high = this.termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = this.compareTerm(middle, term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    // Compares the term at an ordinal with the given term, in String.compareTo order
+    private int compareTerm(int ordinal, CharSequence term) {
+        long entry = entryOffset(ordinal);
+        long offset = this.termPoolOffset + 2L * this.dictionary.getInt(entry + 16);
+        int length = this.dictionary.getInt(entry + 20);
+
+        int shared = Math.min(length, term.length());
+        for (int i = 0; i < shared; i++) {
+            char c = this.dictionary.getChar(offset + 2 * i);
+            if (c != term.charAt(i)) {
+                return c - term.charAt(i);
+            }
+        }
+
+        return length - term.length();
+    }
+
+    // Offset of a dictionary entry
+    private static long entryOffset(int ordinal) {
+        return IndexFormat.DICTIONARY_HEADER_SIZE + (long) ordinal * IndexFormat.DICTIONARY_ENTRY_SIZE;
+    }
+
+    // Gets the bytes of the list of the term at an ordinal in a file, whose offset is at a field of the dictionary entry
+    // Lists are written in term order, so each one ends where the next term's starts
+    private ByteBuffer getList(MappedFile file, int ordinal, int field) {
+        long entry = entryOffset(ordinal);
+        long offset = this.dictionary.getLong(entry + field);
+        long end = ordinal + 1 < this.termCount ? this.dictionary.getLong(entry + IndexFormat.DICTIONARY_ENTRY_SIZE + field) : file.size();
+
+        return file.slice(offset, end - offset);
+    }
+
+    // Gets the skips of the term at an ordinal, one after every skip interval postings but the last
+    private ByteBuffer getSkips(int ordinal) {
+        int df = this.getDocumentFrequency(ordinal);
+        int skipCount = df == 0 ? 0 : (df - 1) / this.skipInterval;
+
+        return this.skips.slice(this.dictionary.getLong(entryOffset(ordinal) + IndexFormat.SKIPS_OFFSET), (long) skipCount * IndexFormat.SKIP_ENTRY_SIZE);
+    }
+
+    // Gets the term at an ordinal
+    public String getTerm(int ordinal) {
+        long entry = entryOffset(ordinal);
+        long offset = this.termPoolOffset + 2L * this.dictionary.getInt(entry + 16);
+        int length = this.dictionary.getInt(entry + 20);
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = this.dictionary.getChar(offset + 2 * i);
+        }
+
+        return new String(chars);
+    }
+
+    // Gets the idf of the term at an ordinal
+    public double getIDF(int ordinal) {
+        if (this.statistics != null) {
+            return this.statistics.getIDF(ordinal);
+        }
+        return this.dictionary.getDouble(entryOffset(ordinal) + IndexFormat.IDF_OFFSET);
+    }
+
+    // Gets the largest tf divided by document length among the postings of the term at an ordinal
+    public double getMaximumNormalisedFrequency(int ordinal) {
+        if (this.statistics != null) {
+            return this.statistics.getMaximumNormalisedFrequency(ordinal);
+        }
+        return this.dictionary.getDouble(entryOffset(ordinal) + IndexFormat.MAXIMUM_NORMALISED_TF_OFFSET);
+    }
+
+    // Gets the number of postings of the term at an ordinal, including those of deleted documents
+    public int getDocumentFrequency(int ordinal) {
+        return this.dictionary.getInt(entryOffset(ordinal) + 24);
+    }
+
+    // Gets an iterator over the postings of the term at an ordinal
+    public PostingsIterator getPostings(int ordinal) {
+        return this.getPostings(ordinal, 0);
+    }
+
+    // Gets an iterator over the postings of the term at an ordinal, with document ids shifted up by a base
+    public PostingsIterator getPostings(int ordinal, int documentBase) {
+        PostingsIterator iterator = new PostingsIterator(this.getList(this.postings, ordinal, 0), 0, this.getDocumentFrequency(ordinal), documentBase, this.deletions);
+        iterator.setSkips(this.getSkips(ordinal), 0, this.skipInterval);
+        return iterator;
+    }
+
+    // Gets an iterator over the postings of the term at an ordinal and their positions, with document ids shifted up by a base
+    public PostingsIterator getPositionalPostings(int ordinal, int documentBase) {
+        PostingsIterator iterator = new PostingsIterator(this.getList(this.postings, ordinal, 0), 0, this.getDocumentFrequency(ordinal), documentBase, this.deletions,
+                this.getList(this.positions, ordinal, IndexFormat.POSITIONS_OFFSET), 0);
+        iterator.setSkips(this.getSkips(ordinal), 0, this.skipInterval);
+        return iterator;
+    }
+
+    // Gets an iterator over the champion list of the term at an ordinal, with document ids shifted up by a base
+    public PostingsIterator getChampions(int ordinal, int documentBase) {
+        long entry = this.findChampions(ordinal);
+        if (entry < 0) {
+            return this.getPostings(ordinal, documentBase);
+        }
+
+        // Lists are in the same order as the directory, which comes after the last of them
+        long offset = this.champions.getLong(entry + 4);
+        long end = entry + IndexFormat.CHAMPIONS_ENTRY_SIZE < this.getChampionsDirectoryEnd()
+                ? this.champions.getLong(entry + IndexFormat.CHAMPIONS_ENTRY_SIZE + 4)
+                : this.champions.getLong(16);
+
+        return new PostingsIterator(this.champions.slice(offset, end - offset), 0, this.champions.getInt(12), documentBase, this.deletions);
+    }
+
+    // Offset of the end of the champion lists' directory
+    private long getChampionsDirectoryEnd() {
+        return this.champions.getLong(16) + (long) this.champions.getInt(8) * IndexFormat.CHAMPIONS_ENTRY_SIZE;
+    }
+
+    // Gets the number of postings in the champion list of the term at an ordinal, including those of deleted documents
+    public int getChampionFrequency(int ordinal) {
+        return this.findChampions(ordinal) < 0 ? this.getDocumentFrequency(ordinal) : this.champions.getInt(12);
+    }
+
+    // Finds the directory entry of the champion list of the term at an ordinal, or -1 if it uses its full postings
+    private long findChampions(int ordinal) {
+        if (this.champions == null) {
+            return -1;
+        }
+
+        long directory = this.champions.getLong(16);
+        int low = 0;
+        int high = this.champions.getInt(8) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long entry = directory + (long) middle * IndexFormat.CHAMPIONS_ENTRY_SIZE;
+            int term = this.champions.getInt(entry);
+            if (term < ordinal) {
+                low = middle + 1;
+            } else if (term > ordinal) {
+                high = middle - 1;
+            } else {
+                return entry;
+            }
+        }
+
+        return -1;
+    }
+
+    // Gets the name of a document
+    public String getDocumentName(int documentId) {
+        long entry = IndexFormat.DOCUMENTS_HEADER_SIZE + (long) documentId * IndexFormat.DOCUMENT_ENTRY_SIZE;
+        byte[] name = new byte[this.documents.getInt(entry + 4)];
+        this.documents.get(this.namePoolOffset + this.documents.getInt(entry), name);
+
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // Gets the length of a document's tf.idf vector, computed at index time or by the last update
+    public double getDocumentLength(int documentId) {
+        if (this.statistics != null) {
+            return this.statistics.getDocumentLength(documentId);
+        }
+        return this.documents.getDouble(IndexFormat.DOCUMENTS_HEADER_SIZE + (long) documentId * IndexFormat.DOCUMENT_ENTRY_SIZE + IndexFormat.DOCUMENT_LENGTH_OFFSET);
+    }
+
+    // Gets an iterator over the terms of a document with their tfs, in term order
+    // The iterator's document ids are the ordinals of the terms
+    // Vectors are in document order, followed by their directory
+    public PostingsIterator getDocumentVector(int documentId) {
+        long directory = this.vectors.getLong(12);
+        long entry = directory + (long) documentId * IndexFormat.VECTOR_ENTRY_SIZE;
+        long offset = this.vectors.getLong(entry);
+        long end = documentId + 1 < this.documentCount ? this.vectors.getLong(entry + IndexFormat.VECTOR_ENTRY_SIZE) : directory;
+
+        return new PostingsIterator(this.vectors.slice(offset, end - offset), 0, this.vectors.getInt(entry + 8));
+    }
+
+    // Whether a document has been deleted
+    public boolean isDeleted(int documentId) {
+        return this.deletions != null && this.deletions.get(documentId);
+    }
+
+    /**
+     * Accessors
+     */
+    public int getNumberOfTerms() {
+        return this.termCount;
+    }
+
+    public int getNumberOfDocuments() {
+        return this.documentCount;
+    }
+
+    public int getCollectionSize() {
+        return this.collectionSize;
+    }
+
+    public int getNumberOfDeletedDocuments() {
+        return this.deletions == null ? 0 : this.deletions.cardinality();
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+}
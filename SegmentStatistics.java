@@ -0,0 +1,158 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The statistics of a segment as of one generation of the index: the collection size, the
+ * idf and bound of each term, the length of each document, and which documents are deleted.
+ *
+ * They depend on every segment, so they change whenever the index is updated. Rather than
+ * being rewritten in the segment's own files, which readers may have mapped, they go into a
+ * new file named after the update's generation. The file is filled in before the segments
+ * file lists it, so readers only ever see the statistics of a whole generation. Readers
+ * still on the generation before keep its file until the update after next removes it.
+ */
+public final class SegmentStatistics {
+
+    // Generation of a segment with no statistics, which uses the values it was written with
+    public static final int NONE = -1;
+
+    // Properties
+    private final MappedFile file;
+    private final int termCount;
+    private final int documentCount;
+
+    private SegmentStatistics(MappedFile file) {
+        this.file = file;
+        this.termCount = file.getInt(12);
+        this.documentCount = file.getInt(16);
+    }
+
+    // Gets the path of a segment's statistics for a generation
+    public static Path getPath(Path segmentDirectory, int generation) {
+        return segmentDirectory.resolve(IndexFormat.STATISTICS_FILE_PREFIX + generation);
+    }
+
+    // Opens a segment's statistics for a generation, or returns null for a segment with none
+    public static SegmentStatistics open(Path segmentDirectory, int generation) throws IOException {
+        if (generation == NONE) {
+            return null;
+        }
+
+        Path path = getPath(segmentDirectory, generation);
+        MappedFile file = MappedFile.map(path);
+        if (file.size() < IndexFormat.STATISTICS_HEADER_SIZE || file.getInt(0) != IndexFormat.STATISTICS_MAGIC) {
+            throw new IOException("Not a statistics file: " + path);
+        }
+        if (file.getInt(4) != IndexFormat.VERSION) {
+            throw new IOException("Unsupported index version " + file.getInt(4) + " in " + path);
+        }
+
+        return new SegmentStatistics(file);
+    }
+
+    // Creates a segment's statistics for a generation, with its deleted documents and every other value 0
+    // The values are then set in place, before the generation is listed
+    public static SegmentStatistics create(Path segmentDirectory, int generation, int termCount, int documentCount, BitSet deletions) throws IOException {
+        Path path = getPath(segmentDirectory, generation);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(IndexFormat.STATISTICS_MAGIC);
+            out.writeInt(IndexFormat.VERSION);
+            out.writeInt(0);
+            out.writeInt(termCount);
+            out.writeInt(documentCount);
+
+            byte[] zeros = new byte[8192];
+            for (long remaining = ((long) termCount * IndexFormat.STATISTICS_TERM_SIZE) + 8L * documentCount; remaining > 0; remaining -= zeros.length) {
+                out.write(zeros, 0, (int) Math.min(remaining, zeros.length));
+            }
+            for (long word : Arrays.copyOf(deletions.toLongArray(), (documentCount + 63) / 64)) {
+                out.writeLong(word);
+            }
+        }
+
+        return new SegmentStatistics(MappedFile.mapForWriting(path));
+    }
+
+    // Deletes a segment's statistics from generations before the given one
+    public static void deleteBefore(Path segmentDirectory, int generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentDirectory, IndexFormat.STATISTICS_FILE_PREFIX + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(IndexFormat.STATISTICS_FILE_PREFIX.length());
+                try {
+                    if (Integer.parseInt(suffix) < generation) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a statistics file, such as one left half written
+                }
+            }
+        }
+    }
+
+    // Offsets of the values
+    private static long termOffset(int ordinal) {
+        return IndexFormat.STATISTICS_HEADER_SIZE + (long) ordinal * IndexFormat.STATISTICS_TERM_SIZE;
+    }
+
+    private long documentOffset(int documentId) {
+        return termOffset(this.termCount) + 8L * documentId;
+    }
+
+    // Reads the deleted documents
+    public BitSet readDeletions() {
+        long offset = this.documentOffset(this.documentCount);
+        long[] words = new long[(this.documentCount + 63) / 64];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = this.file.getLong(offset + 8L * i);
+        }
+
+        return BitSet.valueOf(words);
+    }
+
+    // Writes the values set in place out to the file
+    public void force() {
+        this.file.force();
+    }
+
+    /**
+     * Accessors and Mutators
+     */
+    public int getCollectionSize() {
+        return this.file.getInt(8);
+    }
+
+    public void setCollectionSize(int collectionSize) {
+        this.file.putInt(8, collectionSize);
+    }
+
+    public double getIDF(int ordinal) {
+        return this.file.getDouble(termOffset(ordinal));
+    }
+
+    public void setIDF(int ordinal, double idf) {
+        this.file.putDouble(termOffset(ordinal), idf);
+    }
+
+    // Largest tf divided by document length among the postings of the term at an ordinal
+    public double getMaximumNormalisedFrequency(int ordinal) {
+        return this.file.getDouble(termOffset(ordinal) + 8);
+    }
+
+    public void setMaximumNormalisedFrequency(int ordinal, double maximumNormalisedFrequency) {
+        this.file.putDouble(termOffset(ordinal) + 8, maximumNormalisedFrequency);
+    }
+
+    public double getDocumentLength(int documentId) {
+        return this.file.getDouble(this.documentOffset(documentId));
+    }
+
+    public void setDocumentLength(int documentId, double length) {
+        this.file.putDouble(this.documentOffset(documentId), length);
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * Score accumulators for a few documents out of many, such as the candidates found in champion lists.
+ *
+ * Works like ScoreAccumulator, but costs memory for the documents given a score rather than
+ * for every document in the collection. Documents are found through an open addressing hash
+ * table of positions in arrays that hold the documents and their scores in the order they
+ * were first given one, so they are visited in the same order as with ScoreAccumulator.
+ */
+public class SparseScoreAccumulator {
+
+    // Golden ratio multiplier spreading document ids over the table
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    // Properties
+    private int[] slots;
+    private int shift;
+    private int[] documents;
+    private double[] scores;
+    private int size;
+
+    // Creates accumulators with room for about the given number of documents, growing if more are given a score
+    public SparseScoreAccumulator(int expectedDocuments) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedDocuments) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        this.documents = new int[Math.max(8, expectedDocuments)];
+        this.scores = new double[this.documents.length];
+        this.size = 0;
+    }
+
+    // Adds to the score of a document
+    public void add(int documentId, double score) {
+        int slot = this.find(documentId);
+        if (this.slots[slot] == 0) {
+            if (this.size == this.documents.length) {
+                this.grow();
+                slot = this.find(documentId);
+            }
+
+            this.documents[this.size] = documentId;
+            this.slots[slot] = ++this.size;
+        }
+
+        this.scores[this.slots[slot] - 1] += score;
+    }
+
+    // Finds the slot of a document, or the empty slot where it would go
+    // Slots hold positions in the arrays plus one, so 0 is empty
+    private int find(int documentId) {
+        int mask = this.slots.length - 1;
+        int slot = (documentId * HASH_MULTIPLIER) >>> this.shift;
+        while (this.slots[slot] != 0 && this.documents[this.slots[slot] - 1] != documentId) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    // Doubles the room for documents, keeping the table at most half full
+    private void grow() {
+        this.documents = Arrays.copyOf(this.documents, 2 * this.documents.length);
+        this.scores = Arrays.copyOf(this.scores, this.documents.length);
+        this.slots = new int[2 * this.slots.length];
+        this.shift--;
+        for (int i = 0; i < this.size; i++) {
+            this.slots[this.find(this.documents[i])] = i + 1;
+        }
+    }
+
+    /**
+     * Accessors
+     */
+
+    // Number of documents that have been given a score
+    public int size() {
+        return this.size;
+    }
+
+    // Id of the i-th document that was given a score
+    public int getDocument(int i) {
+        return this.documents[i];
+    }
+
+    // Score of the i-th document that was given a score
+    public double getScoreAt(int i) {
+        return this.scores[i];
+    }
+
+    public double getScore(int documentId) {
+        int slot = this.find(documentId);
+        return this.slots[slot] == 0 ? 0.0 : this.scores[this.slots[slot] - 1];
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * A vector over the index vocabulary that only stores its non-zero dimensions.
+ *
+ * Dimensions are term ordinals from the index dictionary, kept in ascending order. A query
+ * vector can also have a dimension for each phrase in the query, after the terms, which
+ * isn't part of the vocabulary: its postings are where the phrase was found in the index.
+ * Document lengths in the index don't count phrases, so scorers count them with PhraseNorms.
+ */
+public class SparseVector {
+
+    // Properties
+    private final int[] terms;
+    private final double[] weights;
+    private final int size;
+    private final Phrase.Matches[] phrases;
+    private final double[] phraseWeights;
+
+    // Creates a vector from parallel arrays of term ordinals and weights
+    // The arrays are sorted by term ordinal if they aren't already
+    public SparseVector(int[] terms, double[] weights, int size) {
+        this(terms, weights, size, new Phrase.Matches[0], new double[0]);
+    }
+
+    // Creates a vector with phrases as well as terms
+    public SparseVector(int[] terms, double[] weights, int size, Phrase.Matches[] phrases, double[] phraseWeights) {
+        this.phrases = phrases;
+        this.phraseWeights = phraseWeights;
+        this.terms = new int[size];
+        this.weights = new double[size];
+        this.size = size;
+
+        // Sort by term ordinal, packing each term with its position so the weights move with their terms
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) terms[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        for (int i = 0; i < size; i++) {
+            int position = (int) order[i];
+            this.terms[i] = terms[position];
+            this.weights[i] = weights[position];
+        }
+    }
+
+    // Creates a vector with other terms and the same phrases
+    public SparseVector withTerms(int[] terms, double[] weights, int size) {
+        return new SparseVector(terms, weights, size, this.phrases, this.phraseWeights);
+    }
+
+    // Gets the weight of a term, or 0 if the vector doesn't contain it
+    public double getWeightOf(int term) {
+        int i = Arrays.binarySearch(this.terms, 0, this.size, term);
+        return i >= 0 ? this.weights[i] : 0.0;
+    }
+
+    // Computes the squared length of the vector
+    public double getLengthSquared() {
+        double lengthSquared = 0.0;
+        for (int i = 0; i < this.size; i++) {
+            lengthSquared += this.weights[i] * this.weights[i];
+        }
+        for (double weight : this.phraseWeights) {
+            lengthSquared += weight * weight;
+        }
+
+        return lengthSquared;
+    }
+
+    /**
+     * Accessors
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public int getTerm(int i) {
+        return this.terms[i];
+    }
+
+    public double getWeight(int i) {
+        return this.weights[i];
+    }
+
+    public int getNumberOfPhrases() {
+        return this.phrases.length;
+    }
+
+    public Phrase.Matches getPhrase(int i) {
+        return this.phrases[i];
+    }
+
+    public double getPhraseWeight(int i) {
+        return this.phraseWeights[i];
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Indexes a collection in blocks that fit in a memory budget (single-pass in-memory indexing).
+ *
+ * Documents are indexed in memory as usual until the postings use up the budget. The block
+ * is then written to a run file in term order and cleared. Once every document has been
+ * indexed, the runs are merged term by term into the final index, holding only one postings
+ * list per run in memory. Document ids are assigned across the whole collection, so each
+ * run's postings come after the previous run's and can simply be appended.
+ *
+ * The index is the same as one built entirely in memory.
+ */
+public class SpimiIndexer {
+
+    // Directory for run files, inside the index directory
+    private static final String RUNS_DIRECTORY = "runs-tmp";
+
+    // Metrics for the runs flushed
+    private static final Metrics.Histogram FLUSH_TIME = Metrics.getShared().histogram("index.flush");
+    private static final LongAdder RUNS = Metrics.getShared().counter("index.runs");
+
+    // Properties
+    private final Indexer indexer;
+    private final long memoryBudget;
+    private final Path runsDirectory;
+    private final List<Path> runs;
+
+    // Creates an indexer that flushes a run to the index directory whenever the postings use more than the budget, in bytes
+    // The postings can go over the budget by those of the document that fills the block, so the
+    // indexer's postings budget should allow up to twice the budget off the heap
+    public SpimiIndexer(Indexer indexer, long memoryBudget, Path indexDirectory) {
+        this.indexer = indexer;
+        this.memoryBudget = memoryBudget;
+        this.runsDirectory = indexDirectory.resolve(RUNS_DIRECTORY);
+        this.runs = new ArrayList<>();
+    }
+
+    // Tokenise and index a document, flushing the block if it is full
+    public void indexDocument(String documentName, Path documentPath) throws IOException {
+        this.indexer.indexDocument(documentName, documentPath);
+
+        if (this.indexer.getMemoryUsage() > this.memoryBudget) {
+            this.flush();
+        }
+    }
+
+    // Writes the block in memory to a new run file
+    private void flush() throws IOException {
+        if (this.indexer.getNumberOfTerms() == 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        MetricsEvents.RunFlushed event = new MetricsEvents.RunFlushed();
+        event.begin();
+
+        Files.createDirectories(this.runsDirectory);
+        Path run = this.runsDirectory.resolve("run-" + this.runs.size());
+
+        TermTable terms = this.indexer.getTerms();
+        int[] termIds = terms.getIdsInOrder();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            out.writeInt(termIds.length);
+            for (int term : termIds) {
+                out.writeInt(terms.getTerm(term).length());
+                out.writeChars(terms.getTerm(term));
+                this.indexer.writePostings(term, out);
+            }
+        }
+
+        event.run = this.runs.size();
+        event.terms = termIds.length;
+        event.postings = this.indexer.getNumberOfPostings();
+        event.memoryUsage = this.indexer.getMemoryUsage();
+        event.commit();
+        FLUSH_TIME.recordSince(start);
+        RUNS.increment();
+
+        this.runs.add(run);
+        this.indexer.clearIndex();
+    }
+
+    // Merges the runs into the index, then deletes them
+    public void writeIndex(IndexWriter writer, int numberOfDocuments) throws IOException {
+        // A collection that fits in one block doesn't need a merge
+        if (this.runs.isEmpty()) {
+            this.indexer.writeIndex(writer, numberOfDocuments);
+            return;
+        }
+
+        this.flush();
+
+        // Runs are ordered by their next term, then by run so postings stay in document order
+        PriorityQueue<Run> queue = new PriorityQueue<>((a, b) -> {
+            int comparison = a.term.compareTo(b.term);
+            return comparison != 0 ? comparison : Integer.compare(a.number, b.number);
+        });
+
+        try {
+            for (int i = 0; i < this.runs.size(); i++) {
+                Run run = new Run(i, this.runs.get(i));
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                // Join the term's postings from every run that has it
+                Run run = queue.poll();
+                String term = run.term;
+                PostingsList postings = run.postings;
+                this.advance(run, queue);
+
+                while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+                    run = queue.poll();
+                    postings.append(run.postings, 0);
+                    this.advance(run, queue);
+                }
+
+                writer.addTerm(term, postings, Indexer.roundIDF(this.indexer.computeIDF(postings, numberOfDocuments)));
+            }
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+            this.deleteRuns();
+        }
+    }
+
+    // Moves a run to its next term, putting it back in the queue unless it's finished
+    private void advance(Run run, PriorityQueue<Run> queue) throws IOException {
+        if (run.next()) {
+            queue.add(run);
+        } else {
+            run.close();
+        }
+    }
+
+    private void deleteRuns() throws IOException {
+        for (Path run : this.runs) {
+            Files.deleteIfExists(run);
+        }
+        Files.deleteIfExists(this.runsDirectory);
+    }
+
+    /**
+     * Accessors
+     */
+    public Indexer getIndexer() {
+        return indexer;
+    }
+
+    // Number of runs written
+    public int getNumberOfRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Reads the terms of a run file in order.
+     */
+    private static final class Run implements Closeable {
+
+        private final int number;
+        private final DataInputStream in;
+        private int remaining;
+        private String term;
+        private PostingsList postings;
+
+        Run(int number, Path path) throws IOException {
+            this.number = number;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+            this.remaining = this.in.readInt();
+        }
+
+        // Reads the next term and its postings, returning false at the end of the run
+        boolean next() throws IOException {
+            if (this.remaining == 0) {
+                return false;
+            }
+
+            char[] chars = new char[this.in.readInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = this.in.readChar();
+            }
+            this.term = new String(chars);
+            this.postings = PostingsList.readFrom(this.in);
+            this.remaining--;
+
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache from words to their Porter stems.
+ *
+ * Natural language repeats the same few thousand words, so most tokens only need a
+ * lookup. The cache is a fixed-size table with one entry per slot: a word replaces
+ * whatever was in its slot before, so the memory used never grows. Entries are
+ * immutable, so threads can read and replace them without locking. Words missing
+ * from the cache are stemmed with a Stemmer reused by each thread.
+ */
+public class StemCache {
+
+    // Cache shared by every analyser
+    private static final StemCache SHARED = new StemCache(1 << 16);
+
+    // Longer words are rare, so they are stemmed without being cached
+    private static final int MAX_CACHED_LENGTH = 32;
+
+    // Each thread reuses one stemmer
+    private static final ThreadLocal<Stemmer> STEMMERS = ThreadLocal.withInitial(Stemmer::new);
+
+    // Properties
+    private final Entry[] entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Creates a cache with room for at least the given number of words
+    public StemCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    public static StemCache getShared() {
+        return SHARED;
+    }
+
+    // Replaces a token with its stem
+    public void stem(TokenBuffer token) {
+        char[] word = token.getBuffer();
+        int length = token.length();
+        if (length > MAX_CACHED_LENGTH) {
+            this.stemUncached(token);
+            return;
+        }
+
+        // Look in the word's slot
+        int slot = hash(word, length) & this.mask;
+        Entry entry = this.entries[slot];
+        if (entry != null && entry.matches(word, length)) {
+            this.hits.increment();
+            token.set(entry.stem, entry.stem.length);
+            return;
+        }
+
+        // Stem the word and replace the slot
+        this.misses.increment();
+        char[] surface = Arrays.copyOf(word, length);
+        this.stemUncached(token);
+        this.entries[slot] = new Entry(surface, Arrays.copyOf(token.getBuffer(), token.length()));
+    }
+
+    // Stems a token with this thread's stemmer
+    private void stemUncached(TokenBuffer token) {
+        Stemmer stemmer = STEMMERS.get();
+        stemmer.add(token.getBuffer(), token.length());
+        stemmer.stem();
+        token.set(stemmer.getResultBuffer(), stemmer.getResultLength());
+    }
+
+    private static int hash(char[] word, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+
+        // Spread the high bits into the low bits used for the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Statistics
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    // Fraction of lookups found in the cache
+    public double getHitRate() {
+        long hits = this.getHits();
+        long lookups = hits + this.getMisses();
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * A word and its stem.
+     */
+    private static final class Entry {
+
+        private final char[] surface;
+        private final char[] stem;
+
+        Entry(char[] surface, char[] stem) {
+            this.surface = surface;
+            this.stem = stem;
+        }
+
+        boolean matches(char[] word, int length) {
+            if (this.surface.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.surface[i] != word[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+/**
+ * A growable hash table giving each distinct term a dense id, counting from 0.
+ *
+ * Tokens are looked up straight from the analyser's buffer, so a String is only created the
+ * first time a term is seen. The table holds ids in an open-addressing array with linear
+ * probing, alongside the terms and their hashes by id, so there is no entry object per term.
+ * Terms added since a given size can be removed again, newest first, which keeps every probe
+ * sequence intact.
+ */
+public final class TermTable {
+
+    // Properties
+    private int[] slots;
+    private String[] terms;
+    private int[] hashes;
+    private int mask;
+    private int size;
+
+    public TermTable() {
+        this.slots = new int[64];
+        this.terms = new String[32];
+        this.hashes = new int[32];
+        this.mask = this.slots.length - 1;
+        Arrays.fill(this.slots, -1);
+    }
+
+    // Gets the id of a term held in the first length chars of a buffer, adding it if it's new
+    public int add(char[] buffer, int length) {
+        int hash = hash(buffer, length);
+        int slot = hash & this.mask;
+        while (this.slots[slot] >= 0) {
+            int id = this.slots[slot];
+            if (this.hashes[id] == hash && equals(this.terms[id], buffer, length)) {
+                return id;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        return this.insert(slot, new String(buffer, 0, length), hash);
+    }
+
+    // Gets the id of a term, adding it if it's new
+    public int add(String term) {
+        int slot = this.find(term);
+        if (this.slots[slot] >= 0) {
+            return this.slots[slot];
+        }
+
+        return this.insert(slot, term, hash(term));
+    }
+
+    // Gets the id of a term, or -1 if it isn't in the table
+    public int get(String term) {
+        return this.slots[this.find(term)];
+    }
+
+    // Removes the terms with ids of at least the given size, so the next term added gets that id
+    public void truncate(int size) {
+        // Removing the newest terms first means no term after them in a probe sequence is left behind
+        for (int id = this.size - 1; id >= size; id--) {
+            int slot = this.hashes[id] & this.mask;
+            while (this.slots[slot] != id) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.slots[slot] = -1;
+            this.terms[id] = null;
+        }
+        this.size = Math.min(this.size, size);
+    }
+
+    // Gets the ids of the terms in String.compareTo order
+    public int[] getIdsInOrder() {
+        String[] sorted = Arrays.copyOf(this.terms, this.size);
+        Arrays.sort(sorted);
+
+        int[] ids = new int[this.size];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.get(sorted[i]);
+        }
+
+        return ids;
+    }
+
+    // Finds the slot holding a term, or the empty slot where it would go
+    private int find(String term) {
+        int hash = hash(term);
+        int slot = hash & this.mask;
+        while (this.slots[slot] >= 0) {
+            int id = this.slots[slot];
+            if (this.hashes[id] == hash && this.terms[id].equals(term)) {
+                break;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        return slot;
+    }
+
+    // Gives a new term the next id, growing the table if it's more than half full
+    private int insert(int slot, String term, int hash) {
+        int id = this.size++;
+        if (id == this.terms.length) {
+            this.terms = Arrays.copyOf(this.terms, 2 * id);
+            this.hashes = Arrays.copyOf(this.hashes, 2 * id);
+        }
+        this.terms[id] = term;
+        this.hashes[id] = hash;
+        this.slots[slot] = id;
+
+        if (2 * this.size > this.slots.length) {
+            this.rehash();
+        }
+
+        return id;
+    }
+
+    // Doubles the number of slots, putting the ids back in order
+    private void rehash() {
+        this.slots = new int[2 * this.slots.length];
+        this.mask = this.slots.length - 1;
+        Arrays.fill(this.slots, -1);
+
+        for (int id = 0; id < this.size; id++) {
+            int slot = this.hashes[id] & this.mask;
+            while (this.slots[slot] >= 0) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.slots[slot] = id;
+        }
+    }
+
+    /**
+     * Accessors
+     */
+    public String getTerm(int id) {
+        return this.terms[id];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private static int hash(char[] buffer, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+
+        // Spread the high bits into the low bits used for the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(String term) {
+        int hash = term.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String term, char[] buffer, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
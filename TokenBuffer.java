@@ -0,0 +1,71 @@
+/**
+ * A reusable, growable buffer holding the token currently being analysed.
+ *
+ * Token filters change the token in place rather than creating new Strings.
+ */
+public class TokenBuffer implements CharSequence {
+
+    // Properties
+    private char[] buffer;
+    private int length;
+
+    public TokenBuffer() {
+        this.buffer = new char[64];
+        this.length = 0;
+    }
+
+    // Replaces the token with the given characters
+    public void set(char[] chars, int length) {
+        this.ensureCapacity(length);
+        System.arraycopy(chars, 0, this.buffer, 0, length);
+        this.length = length;
+    }
+
+    // Replaces the token with the given string
+    public void set(String string) {
+        this.ensureCapacity(string.length());
+        string.getChars(0, string.length(), this.buffer, 0);
+        this.length = string.length();
+    }
+
+    // Makes sure the buffer can hold a token of the given length
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.buffer.length) {
+            char[] newBuffer = new char[Math.max(capacity, this.buffer.length * 2)];
+            System.arraycopy(this.buffer, 0, newBuffer, 0, this.length);
+            this.buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Accessors and Mutators
+     */
+    public char[] getBuffer() {
+        return this.buffer;
+    }
+
+    public void setLength(int length) {
+        this.ensureCapacity(length);
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return this.buffer[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(this.buffer, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buffer, 0, this.length);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * A single stage of the analysis pipeline.
+ */
+public interface TokenFilter {
+
+    // Processes a token in place, returning false if the token should be dropped
+    boolean process(TokenBuffer token);
+}
@@ -0,0 +1,77 @@
+/**
+ * The token filters used by the Indexer's analysis pipeline.
+ */
+public final class TokenFilters {
+
+    // Whether the default locale lower cases ASCII letters to ASCII letters, so they can be lower cased in place
+    private static final boolean ASCII_LOWER_CASE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+
+    private TokenFilters() {
+
+    }
+
+    // Converts British spellings to American spellings for better indexing
+    // Source of spelling differences: http://www.tysto.com/uk-us-spelling-list.html
+    public static TokenFilter localise(CharArrayMap localisation) {
+        return token -> {
+            String american = localisation.get(token);
+            if (american != null) {
+                token.set(american);
+            }
+            return true;
+        };
+    }
+
+    // Normalises tokens to lower case
+    public static TokenFilter lowerCase() {
+        return token -> {
+            char[] buffer = token.getBuffer();
+            for (int i = 0; i < token.length(); i++) {
+                char c = buffer[i];
+                if (c >= 128 || !ASCII_LOWER_CASE) {
+                    // Leave anything but plain ASCII to String.toLowerCase, which handles special cases
+                    token.set(token.toString().toLowerCase());
+                    return true;
+                }
+                if (c >= 'A' && c <= 'Z') {
+                    buffer[i] = (char) (c + ('a' - 'A'));
+                }
+            }
+            return true;
+        };
+    }
+
+    // Removes commas from tokens as they were used as delimiters
+    public static TokenFilter removeCommas() {
+        return token -> {
+            char[] buffer = token.getBuffer();
+            int length = 0;
+            for (int i = 0; i < token.length(); i++) {
+                if (buffer[i] != ',') {
+                    buffer[length++] = buffer[i];
+                }
+            }
+            token.setLength(length);
+            return true;
+        };
+    }
+
+    // Removes stop words
+    public static TokenFilter removeStopwords(CharArrayMap stopwords) {
+        return token -> !stopwords.contains(token);
+    }
+
+    // Removes empty tokens, such as those that were only punctuation
+    public static TokenFilter removeEmptyTokens() {
+        return token -> token.length() > 0;
+    }
+
+    // Stems tokens using the Porter Stemmer, remembering the stems of common words
+    // Porter Stemmer (Source: https://tartarus.org/martin/PorterStemmer/)
+    public static TokenFilter stem(StemCache cache) {
+        return token -> {
+            cache.stem(token);
+            return true;
+        };
+    }
+}
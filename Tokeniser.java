@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into raw tokens.
+ *
+ * Documents are tokenised as a stream: text is read into a small window, and tokens are
+ * emitted as soon as reading more text can no longer change them, so memory use doesn't
+ * grow with the size of the document. Tokens are handed to a TokenConsumer in a reused
+ * char buffer, trimmed of leading and trailing punctuation.
+ */
+public class Tokeniser {
+
+    // Find emails, urls, IPs and words
+    // Runs of capitalised words and quoted spans are split into words like any other text, and searched
+    // for as phrases using the positions of their words
+    // Sources: http://stackoverflow.com/a/4113082/6601606
+    // http://stackoverflow.com/a/16746437/6601606
+    // http://stackoverflow.com/a/16053961/6601606
+    // http://stackoverflow.com/a/1500501/6601606
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("(https?:\\/\\/[^\\s]+)|((www)?[^\\s]+\\.[^\\s]+)|(?:[a-z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~-]+)*|\"(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21\\x23-\\x5b\\x5d-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])*\")@(?:(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z0-9](?:[a-z0-9-]*[a-z0-9])?|\\[(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?|[a-z0-9-]*[a-z0-9]:(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21-\\x5a\\x53-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])+)\\])|[^\\s{.,:;”’()?!}]+");
+
+    // Number of characters read into the window at a time
+    private static final int READ_SIZE = 8192;
+
+    /**
+     * Receives each token as it is found.
+     * The buffer is reused, so it is only valid until accept returns.
+     */
+    public interface TokenConsumer {
+        void accept(char[] buffer, int length);
+    }
+
+    // Properties
+    private char[] tokenBuffer = new char[64];
+
+    // Tokenises a string, such as a query
+    public void tokenise(CharSequence text, TokenConsumer consumer) {
+        Matcher matcher = TOKEN_PATTERN.matcher(text);
+
+        // Add all terms
+        while (matcher.find()) {
+            this.emit(text, matcher.start(), matcher.end(), consumer);
+        }
+    }
+
+    // Tokenises a document as it is read
+    // Line breaks are read as spaces, except after a hyphen, where the hyphen is removed and the lines are joined
+    public void tokenise(Reader reader, TokenConsumer consumer) throws IOException {
+        DocumentWindow window = new DocumentWindow(reader);
+        Matcher matcher = TOKEN_PATTERN.matcher(window.text);
+
+        int position = 0;
+        while (true) {
+            matcher.region(position, window.text.length());
+            boolean found = matcher.find();
+
+            // If the regex looked at the end of the window, more text could change the match
+            if ((!found || matcher.hitEnd()) && !window.isFinished()) {
+                // Drop the text that has been tokenised
+                if (position > 0) {
+                    window.text.delete(0, position);
+                    position = 0;
+                }
+
+                window.read();
+                matcher.reset(window.text);
+                continue;
+            }
+
+            if (!found) {
+                return;
+            }
+
+            this.emit(window.text, matcher.start(), matcher.end(), consumer);
+            position = matcher.end();
+        }
+    }
+
+    // Removes leading and trailing whitespace and punctuation from a match, and passes it to the consumer
+    private void emit(CharSequence text, int start, int end, TokenConsumer consumer) {
+        // Trim whitespace
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        // Remove leading punctuation
+        while (start < end && isLeadingPunctuation(text.charAt(start))) {
+            start++;
+        }
+
+        // Remove trailing punctuation
+        while (end > start && isTrailingPunctuation(text.charAt(end - 1))) {
+            end--;
+        }
+
+        int length = end - start;
+        if (length > this.tokenBuffer.length) {
+            this.tokenBuffer = new char[Math.max(length, this.tokenBuffer.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            this.tokenBuffer[i] = text.charAt(start + i);
+        }
+
+        consumer.accept(this.tokenBuffer, length);
+    }
+
+    private static boolean isLeadingPunctuation(char c) {
+        return c == '.' || c == ',' || c == '\'' || c == '"' || c == '_' || c == '[';
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '.' || c == ',' || c == '\'' || c == '"' || c == '_' || c == ']';
+    }
+
+    /**
+     * The part of a document currently being tokenised.
+     * Reads the document a block at a time, turning line breaks into spaces and joining hyphenated lines.
+     */
+    private static class DocumentWindow {
+
+        private final Reader reader;
+        private final char[] readBuffer = new char[READ_SIZE];
+        private final StringBuilder text = new StringBuilder();
+        private boolean finished;
+        private boolean pendingHyphen;
+        private boolean afterCarriageReturn;
+        private int lineLength;
+
+        DocumentWindow(Reader reader) {
+            this.reader = reader;
+        }
+
+        boolean isFinished() {
+            return this.finished;
+        }
+
+        // Reads the next block of the document onto the end of the window
+        void read() throws IOException {
+            int read = this.reader.read(this.readBuffer);
+            if (read < 0) {
+                // A last line without a line break still ends the line
+                if (this.lineLength > 0) {
+                    this.endLine();
+                }
+                this.finished = true;
+                return;
+            }
+
+            for (int i = 0; i < read; i++) {
+                char c = this.readBuffer[i];
+                if (c == '\n') {
+                    // The second half of a \r\n has already ended the line
+                    if (!this.afterCarriageReturn) {
+                        this.endLine();
+                    }
+                    this.afterCarriageReturn = false;
+                } else if (c == '\r') {
+                    this.endLine();
+                    this.afterCarriageReturn = true;
+                } else {
+                    this.afterCarriageReturn = false;
+                    this.lineLength++;
+
+                    // Hold back hyphens until we know whether they end the line
+                    if (this.pendingHyphen) {
+                        this.text.append('-');
+                        this.pendingHyphen = false;
+                    }
+                    if (c == '-') {
+                        this.pendingHyphen = true;
+                    } else {
+                        this.text.append(c);
+                    }
+                }
+            }
+        }
+
+        // Ends a line, removing a trailing hyphen or adding a space
+        private void endLine() {
+            if (this.pendingHyphen) {
+                // The next line will not have a space.
+                this.pendingHyphen = false;
+            } else {
+                // Add a space between line breaks
+                this.text.append(' ');
+            }
+            this.lineLength = 0;
+        }
+    }
+}
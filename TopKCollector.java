@@ -0,0 +1,133 @@
+/**
+ * Collects the k best scoring documents using a bounded min-heap.
+ *
+ * Documents and scores are kept in primitive arrays. A higher score ranks first, and
+ * documents with equal scores are ranked by ascending document id, so results are
+ * deterministic.
+ */
+public class TopKCollector {
+
+    // Properties
+    private final int k;
+    private final int[] documents;
+    private final double[] scores;
+    private int size;
+    private boolean sorted;
+
+    public TopKCollector(int k) {
+        this.k = Math.max(k, 0);
+        this.documents = new int[this.k];
+        this.scores = new double[this.k];
+        this.size = 0;
+        this.sorted = false;
+    }
+
+    // Offers a document to the collector
+    public void collect(int documentId, double score) {
+        if (this.sorted) {
+            throw new IllegalStateException("Cannot collect after the results have been sorted");
+        }
+
+        if (this.size < this.k) {
+            // Heap isn't full yet, add to the bottom and sift up
+            this.documents[this.size] = documentId;
+            this.scores[this.size] = score;
+            this.siftUp(this.size++);
+        } else if (this.k > 0 && ranksBefore(score, documentId, this.scores[0], this.documents[0])) {
+            // Replace the worst result at the top of the heap
+            this.documents[0] = documentId;
+            this.scores[0] = score;
+            this.siftDown(0, this.size);
+        }
+    }
+
+    // Whether a result ranks before another
+    private static boolean ranksBefore(double score, int documentId, double otherScore, int otherDocumentId) {
+        return score > otherScore || (score == otherScore && documentId < otherDocumentId);
+    }
+
+    // Moves the entry at i up the heap until its parent ranks before it
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!ranksBefore(this.scores[parent], this.documents[parent], this.scores[i], this.documents[i])) {
+                break;
+            }
+            this.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    // Moves the entry at i down the heap until it ranks after both of its children
+    private void siftDown(int i, int heapSize) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && ranksBefore(this.scores[worst], this.documents[worst], this.scores[left], this.documents[left])) {
+                worst = left;
+            }
+            if (right < heapSize && ranksBefore(this.scores[worst], this.documents[worst], this.scores[right], this.documents[right])) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            this.swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int document = this.documents[i];
+        this.documents[i] = this.documents[j];
+        this.documents[j] = document;
+
+        double score = this.scores[i];
+        this.scores[i] = this.scores[j];
+        this.scores[j] = score;
+    }
+
+    // Sorts the collected results best first, in place
+    // Nothing more can be collected afterwards
+    public void sort() {
+        if (this.sorted) {
+            return;
+        }
+        this.sorted = true;
+
+        // Heap sort: repeatedly move the worst remaining result to the end
+        for (int end = this.size - 1; end > 0; end--) {
+            this.swap(0, end);
+            this.siftDown(0, end);
+        }
+    }
+
+    /**
+     * Accessors
+     */
+
+    // Whether k documents have been collected
+    public boolean isFull() {
+        return this.size == this.k;
+    }
+
+    // The score a document has to beat to be collected, once the collector is full
+    public double getMinimumScore() {
+        return this.isFull() && this.k > 0 ? this.scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // Id of the i-th best document, after sorting
+    public int getDocument(int i) {
+        return this.documents[i];
+    }
+
+    // Score of the i-th best document, after sorting
+    public double getScore(int i) {
+        return this.scores[i];
+    }
+}
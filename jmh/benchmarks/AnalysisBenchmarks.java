@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenising, analysing and stemming text, as done for every document and query.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisBenchmarks {
+
+    // Tokenises an excerpt of a document
+    @Benchmark
+    public long tokenise(Workload workload) {
+        return workload.tokenise.getAsLong();
+    }
+
+    // Tokenises and filters an excerpt of a document
+    @Benchmark
+    public long analyse(Workload workload) {
+        return workload.analyse.getAsLong();
+    }
+
+    // Stems one word as it reaches the stemmer
+    @Benchmark
+    public long stem(Workload workload) {
+        return workload.stem.getAsLong();
+    }
+}
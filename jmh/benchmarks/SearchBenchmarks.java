@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning queries into vectors and scoring documents against them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmarks {
+
+    // Tokenises a query and weights its terms
+    @Benchmark
+    public long createQueryVector(Workload workload) {
+        return workload.createQueryVector.getAsLong();
+    }
+
+    // Scores every document containing a query term
+    @Benchmark
+    public long computeCosineSimilarities(Workload workload) {
+        return workload.computeCosineSimilarities.getAsLong();
+    }
+
+    // Finds the top 10 documents with dynamic pruning
+    @Benchmark
+    public long search(Workload workload) {
+        return workload.search.getAsLong();
+    }
+
+    // Finds the top 10 documents by scoring every document containing a query term
+    @Benchmark
+    public long searchExhaustively(Workload workload) {
+        return workload.searchExhaustively.getAsLong();
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The operations benchmarked, on text from a collection and its index.
+ *
+ * JMH needs benchmarks to be in a package, and classes in a package can't refer to the
+ * search engine's, so the operations are made by the search engine's own Benchmark class,
+ * found by name, and called through LongSupplier. Each benchmark only ever calls one
+ * operation, so the call is inlined just as a direct one would be.
+ */
+@State(Scope.Thread)
+public class Workload {
+
+    // Paths, relative to where the benchmarks are run from
+    @Param("collection")
+    public String collection;
+
+    @Param("build/benchmark-index")
+    public String index;
+
+    @Param("stopwords.txt")
+    public String stopwords;
+
+    // Operations
+    LongSupplier tokenise;
+    LongSupplier analyse;
+    LongSupplier stem;
+    LongSupplier indexDocument;
+    LongSupplier createQueryVector;
+    LongSupplier computeCosineSimilarities;
+    LongSupplier search;
+    LongSupplier searchExhaustively;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+        Map<String, LongSupplier> operations = (Map<String, LongSupplier>) Class.forName("Benchmark")
+                .getMethod("createOperations", String.class, String.class, String.class)
+                .invoke(null, this.collection, this.index, this.stopwords);
+
+        this.tokenise = operations.get("tokenise");
+        this.analyse = operations.get("analyse");
+        this.stem = operations.get("stem");
+        this.indexDocument = operations.get("indexDocument");
+        this.createQueryVector = operations.get("createQueryVector");
+        this.computeCosineSimilarities = operations.get("computeCosineSimilarities");
+        this.search = operations.get("search");
+        this.searchExhaustively = operations.get("searchExhaustively");
+    }
+}
@@ -0,0 +1,48 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BooleanQueryTest {
+
+    @TempDir
+    static Path directory;
+
+    private static IndexReader index;
+
+    @BeforeAll
+    static void writeIndex() throws IOException {
+        index = TestIndexes.write(directory, Map.of(
+                "practice.txt", "Brother Lawrence spoke of the practice of the presence of God every day.",
+                "pursuit.txt", "The pursuit of God begins in the presence of God, without practice.",
+                "scattered.txt", "God was present in the practice of presence."));
+    }
+
+    // Finds the documents a boolean query matches, by name
+    private static List<String> match(String query) {
+        BooleanQuery booleanQuery = BooleanQuery.parse(query, new Indexer(index.getStopwords()));
+
+        ArrayList<String> documents = new ArrayList<>();
+        PostingsIterator matches = booleanQuery.match(index);
+        while (matches.next()) {
+            documents.add(index.getDocumentName(matches.getDocumentId()));
+        }
+        documents.sort(null);
+        return documents;
+    }
+
+    @Test
+    void phraseWithStopwordMatchesInBooleanQuery() {
+        assertEquals(List.of("practice.txt", "pursuit.txt"), match("'presence of god' AND practice"));
+        assertEquals(List.of("practice.txt"), match("'presence of god' AND brother"));
+        assertEquals(List.of("pursuit.txt"), match("'presence of god' NOT lawrence"));
+        assertEquals(List.of("practice.txt", "pursuit.txt", "scattered.txt"), match("'presence of god' OR present"));
+    }
+}
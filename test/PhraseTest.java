@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PhraseTest {
+
+    @TempDir
+    static Path directory;
+
+    private static IndexReader index;
+
+    @BeforeAll
+    static void writeIndex() throws IOException {
+        index = TestIndexes.write(directory, Map.of(
+                "practice.txt", "Brother Lawrence spoke of the practice of the presence of God every day.",
+                "queen.txt", "Mary was the queen of Scots until she gave up the throne.",
+                "scattered.txt", "The queen met the Scots, and God was present in the practice of presence."));
+    }
+
+    // Finds the documents a query's only phrase is in, by name
+    private static ArrayList<String> match(String query) {
+        ArrayList<Phrase> phrases = new Indexer(index.getStopwords()).findPhrases(query);
+        assertEquals(1, phrases.size(), "phrases in " + query);
+
+        ArrayList<String> documents = new ArrayList<>();
+        PostingsIterator matches = phrases.get(0).match(index).getPostings();
+        while (matches.next()) {
+            documents.add(index.getDocumentName(matches.getDocumentId()));
+        }
+        return documents;
+    }
+
+    @Test
+    void phraseWithStopwordInTheMiddleMatches() {
+        assertEquals(List.of("queen.txt"), match("'queen of scots'"));
+        assertEquals(List.of("practice.txt"), match("'presence of god'"));
+    }
+
+    @Test
+    void stopwordLeavesAGapOfOnePosition() {
+        assertEquals(List.of(), match("'queen scots'"));
+        assertEquals(List.of("queen.txt"), match("'queen scots'~1"));
+    }
+
+    @Test
+    void phraseWithATermNotInTheIndexMatchesNothing() {
+        assertEquals(List.of(), match("'presence xyzzy god'"));
+        assertEquals(List.of(), match("'queen xyzzy scots'"));
+    }
+}
@@ -0,0 +1,28 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Small indexes written from documents given as text, for tests.
+ */
+final class TestIndexes {
+
+    private TestIndexes() {
+
+    }
+
+    // Writes the documents, by name, into a collection in a directory, and indexes it with the repository's stopwords
+    static IndexReader write(Path directory, Map<String, String> documents) throws IOException {
+        Path collection = directory.resolve("collection");
+        Path index = directory.resolve("index");
+        Files.createDirectories(collection);
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            Files.write(collection.resolve(document.getKey()), document.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+
+        MySearchEngine.main(new String[] {"index", collection.toString(), index.toString(), "stopwords.txt"});
+        return IndexReader.open(index);
+    }
+}